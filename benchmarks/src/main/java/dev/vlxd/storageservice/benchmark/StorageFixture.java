@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.vlxd.storageservice.service.metadata.MetadataIndex;
+import dev.vlxd.storageservice.service.storage.LocalStorageService;
+import dev.vlxd.storageservice.service.storage.VolumeLayout;
+import dev.vlxd.storageservice.service.usage.UsageService;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A {@link LocalStorageService} in a temporary directory, wired the way the {@code local} profile wires it,
+ * without an archive service. With no volumes the storage root holds the files itself.
+ */
+class StorageFixture {
+
+    final Path root;
+    final MetadataIndex metadataIndex;
+    final LocalStorageService service;
+
+    StorageFixture(String prefix, int volumes, int shardDepth) throws IOException {
+        root = Files.createTempDirectory(prefix);
+
+        String[] volumePaths = new String[volumes];
+        for (int i = 0; i < volumes; i++) {
+            volumePaths[i] = root.resolve("volume-" + i).toString();
+        }
+
+        VolumeLayout volumeLayout = new VolumeLayout(root.toString(), volumePaths, "hash", 128, shardDepth);
+        UsageService usageService = new UsageService(new String[0]);
+        metadataIndex = new MetadataIndex(volumeLayout, root.resolve(".dms-metadata").toString(), 0,
+                new ObjectMapper(), usageService);
+        metadataIndex.init();
+
+        service = new LocalStorageService(root.toString(), volumeLayout, null, event -> {
+        }, metadataIndex, usageService);
+    }
+
+    void close() throws IOException {
+        metadataIndex.close();
+        FileSystemUtils.deleteRecursively(root);
+    }
+}
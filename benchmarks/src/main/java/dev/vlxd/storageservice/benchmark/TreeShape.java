@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Directory trees the archive benchmarks run against. Every tree mixes compressible text with random
+ * bytes, so both the stored and the deflated code paths are exercised.
+ */
+public enum TreeShape {
+
+    /**
+     * 2000 files of 4 KB spread over 20 directories.
+     */
+    SMALL_FILES {
+        @Override
+        void create(Path root, Random random) throws IOException {
+            for (int i = 0; i < 2000; i++) {
+                write(root.resolve("dir-" + i % 20).resolve("file-" + i), 4 * 1024, i % 2 == 0, random);
+            }
+        }
+    },
+
+    /**
+     * 4 files of 16 MB.
+     */
+    LARGE_FILES {
+        @Override
+        void create(Path root, Random random) throws IOException {
+            for (int i = 0; i < 4; i++) {
+                write(root.resolve("file-" + i), 16 * 1024 * 1024, i % 2 == 0, random);
+            }
+        }
+    },
+
+    /**
+     * 64 nested directories holding 4 files of 16 KB each.
+     */
+    DEEP {
+        @Override
+        void create(Path root, Random random) throws IOException {
+            Path directory = root;
+            for (int level = 0; level < 64; level++) {
+                directory = directory.resolve("level-" + level);
+                for (int i = 0; i < 4; i++) {
+                    write(directory.resolve("file-" + i), 16 * 1024, i % 2 == 0, random);
+                }
+            }
+        }
+    };
+
+    private static final byte[] TEXT = ("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod "
+            + "tempor incididunt ut labore et dolore magna aliqua.\n").getBytes(StandardCharsets.US_ASCII);
+
+    abstract void create(Path root, Random random) throws IOException;
+
+    /**
+     * @return the total size of the files in the tree
+     */
+    public long create(Path root) throws IOException {
+        create(root, new Random(ordinal()));
+
+        try (var files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    static byte[] content(int size, boolean text, Random random) {
+        byte[] content = new byte[size];
+        if (text) {
+            for (int i = 0; i < size; i++) {
+                content[i] = TEXT[(i + random.nextInt(4)) % TEXT.length];
+            }
+        } else {
+            random.nextBytes(content);
+        }
+        return content;
+    }
+
+    private static void write(Path file, int size, boolean text, Random random) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content(size, text, random));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.benchmark;
+
+import dev.vlxd.storageservice.service.archive.ArchiveOptions;
+import dev.vlxd.storageservice.service.archive.Crc32Cache;
+import dev.vlxd.storageservice.service.archive.ZipArchiveService;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ZipArchiveService#archive} over trees of different shapes, with the service configured as in
+ * {@code application.properties}. Besides archives per second, the {@code sourceBytes} and {@code archiveBytes}
+ * counters report the input and output throughput in bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipArchiveBenchmark {
+
+    @Param({"SMALL_FILES", "LARGE_FILES", "DEEP"})
+    public TreeShape shape;
+
+    /**
+     * 0 writes every entry STORED, other levels deflate the entries that look compressible.
+     */
+    @Param({"6", "0"})
+    public int compressionLevel;
+
+    private Path folder;
+    private long treeSize;
+    private ExecutorService executor;
+    private ZipArchiveService service;
+    private ArchiveOptions options;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public long sourceBytes;
+        public long archiveBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            sourceBytes = 0;
+            archiveBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("dms-zip-benchmark");
+        treeSize = shape.create(folder.resolve("root"));
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        service = new ZipArchiveService(executor, new Crc32Cache(100_000), 4, 1024 * 1024);
+        options = new ArchiveOptions(compressionLevel, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        FileSystemUtils.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public void archive(Throughput throughput) {
+        CountingOutputStream out = new CountingOutputStream();
+        service.archive(folder.resolve("root").toFile(), "root", options, out);
+
+        throughput.sourceBytes += treeSize;
+        throughput.archiveBytes += out.count;
+    }
+
+    /**
+     * Discards the archive, so the benchmark measures the archiver and not the consumer.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
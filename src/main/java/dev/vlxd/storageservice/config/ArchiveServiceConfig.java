@@ -16,21 +16,56 @@
 package dev.vlxd.storageservice.config;
 
 import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.service.archive.ArchiveScheduler;
 import dev.vlxd.storageservice.service.archive.IArchiveService;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
 public class ArchiveServiceConfig {
 
     @Bean
-    public Map<ArchiveType, IArchiveService> archiveServices(@Qualifier("zipArchiveService") IArchiveService zipArchiveService) {
+    public Map<ArchiveType, IArchiveService> archiveServices(
+            @Qualifier("zipArchiveService") IArchiveService zipArchiveService,
+            @Qualifier("tarArchiveService") IArchiveService tarArchiveService,
+            @Qualifier("tarGzArchiveService") IArchiveService tarGzArchiveService
+    ) {
         Map<ArchiveType, IArchiveService> services = new HashMap<>();
         services.put(ArchiveType.ZIP, zipArchiveService);
+        services.put(ArchiveType.TAR, tarArchiveService);
+        services.put(ArchiveType.TAR_GZ, tarGzArchiveService);
         return services;
     }
+
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService zipArchiveExecutor(@Value("${archive.zip.pool-size}") int poolSize) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "zip-deflate-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService archiveExecutor(@Value("${archive.scheduler.threads}") int poolSize) {
+        int threads = ArchiveScheduler.threads(poolSize);
+        AtomicInteger counter = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "archive-build-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 }
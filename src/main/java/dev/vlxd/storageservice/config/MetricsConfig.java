@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.config;
+
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Times every {@link IStorageService} operation as {@code storage.operation}, tagged with the operation and
+     * whether it succeeded.
+     */
+    @Bean
+    public static BeanPostProcessor storageOperationMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof IStorageService)) {
+                    return bean;
+                }
+
+                // a class proxy, so scheduled and listener methods of the implementation keep working
+                ProxyFactory proxyFactory = new ProxyFactory(bean);
+                proxyFactory.setProxyTargetClass(true);
+                proxyFactory.addAdvice(new StorageOperationTimer(meterRegistry));
+                return proxyFactory.getProxy();
+            }
+        };
+    }
+
+    private static final class StorageOperationTimer implements MethodInterceptor {
+
+        private final ObjectProvider<MeterRegistry> meterRegistry;
+        private final Map<Method, Timer[]> timers = new ConcurrentHashMap<>();
+
+        private StorageOperationTimer(ObjectProvider<MeterRegistry> meterRegistry) {
+            this.meterRegistry = meterRegistry;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            Timer[] outcomes = timers.computeIfAbsent(invocation.getMethod(), this::timers);
+            if (outcomes.length == 0) {
+                return invocation.proceed();
+            }
+
+            long started = System.nanoTime();
+            boolean success = false;
+            try {
+                Object result = invocation.proceed();
+                success = true;
+                return result;
+            } finally {
+                outcomes[success ? 0 : 1].record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private Timer[] timers(Method method) {
+            if (!ClassUtils.hasMethod(IStorageService.class, method.getName(), method.getParameterTypes())) {
+                return new Timer[0];
+            }
+
+            MeterRegistry registry = meterRegistry.getObject();
+            return new Timer[]{timer(registry, method, "success"), timer(registry, method, "error")};
+        }
+
+        private static Timer timer(MeterRegistry registry, Method method, String outcome) {
+            return Timer.builder("storage.operation")
+                    .tag("operation", method.getName())
+                    .tag("outcome", outcome)
+                    .register(registry);
+        }
+    }
+}
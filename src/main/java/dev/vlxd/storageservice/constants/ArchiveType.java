@@ -22,15 +22,18 @@ import java.util.Arrays;
 
 @Getter
 public enum ArchiveType {
-    ZIP("application/zip"),
-    RAR("application/vnd.rar"),
-    SEVEN_Z("application/x-7z-compressed"),
-    TAR("application/x-tar");
+    ZIP("application/zip", ".zip"),
+    RAR("application/vnd.rar", ".rar"),
+    SEVEN_Z("application/x-7z-compressed", ".7z"),
+    TAR("application/x-tar", ".tar"),
+    TAR_GZ("application/gzip", ".tar.gz");
 
     private final String contentType;
+    private final String extension;
 
-    ArchiveType(String contentType) {
+    ArchiveType(String contentType, String extension) {
         this.contentType = contentType;
+        this.extension = extension;
     }
 
     public static ArchiveType valueOfType(String contentType) {
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.constants;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP content codings the service can produce. Streaming levels keep on-the-fly compression close to
+ * the speed of the link, precomputed variants are compressed once and can afford much higher levels.
+ */
+@Getter
+public enum ContentCoding {
+    ZSTD("zstd", ".zst", 3, 15) {
+        @Override
+        public OutputStream encode(OutputStream outputStream, int level) throws IOException {
+            return new ZstdOutputStream(outputStream, level);
+        }
+    },
+    GZIP("gzip", ".gz", 1, 9) {
+        @Override
+        public OutputStream encode(OutputStream outputStream, int level) throws IOException {
+            return new GZIPOutputStream(outputStream, 65536) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+    };
+
+    private final String token;
+    private final String extension;
+    private final int streamingLevel;
+    private final int precomputeLevel;
+
+    ContentCoding(String token, String extension, int streamingLevel, int precomputeLevel) {
+        this.token = token;
+        this.extension = extension;
+        this.streamingLevel = streamingLevel;
+        this.precomputeLevel = precomputeLevel;
+    }
+
+    /**
+     * Wraps the stream in an encoder, closing the encoder closes the stream.
+     */
+    public abstract OutputStream encode(OutputStream outputStream, int level) throws IOException;
+
+    public static Optional<ContentCoding> valueOfToken(String token) {
+        return Arrays.stream(values())
+                .filter(value -> value.token.equalsIgnoreCase(token))
+                .findFirst();
+    }
+}
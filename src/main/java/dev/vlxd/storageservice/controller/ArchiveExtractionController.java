@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.controller;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.service.upload.ArchiveExtractionService;
+import dev.vlxd.storageservice.service.upload.ExtractionReport;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/v1/storage/extract")
+public class ArchiveExtractionController {
+
+    private final ArchiveExtractionService archiveExtractionService;
+
+    public ArchiveExtractionController(ArchiveExtractionService archiveExtractionService) {
+        this.archiveExtractionService = archiveExtractionService;
+    }
+
+    @PostMapping
+    public ResponseEntity<ExtractionReport> extract(
+            HttpServletRequest request,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            @RequestHeader("X-Filename") String target
+    ) {
+        ArchiveType archiveType = ArchiveType.valueOfType(contentType.getType() + "/" + contentType.getSubtype());
+
+        try (InputStream inputStream = request.getInputStream()) {
+            ExtractionReport report = archiveExtractionService.extract(archiveType, target, inputStream);
+            return ResponseEntity
+                    .status(report.failed() == 0 ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS)
+                    .body(report);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to process request input stream", e);
+        }
+    }
+}
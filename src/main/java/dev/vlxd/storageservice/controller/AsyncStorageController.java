@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.controller;
+
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import dev.vlxd.storageservice.service.transfer.NonBlockingTransferService;
+import dev.vlxd.storageservice.service.usage.UsageService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.websocket.server.PathParam;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+/**
+ * Non-blocking variants of the upload and download endpoints, for many slow concurrent transfers.
+ * They do not support ranges or conditional requests, {@link StorageController} remains the full-featured API.
+ */
+@RestController
+@RequestMapping("/v1/storage/async")
+public class AsyncStorageController {
+
+    private final IStorageService storageService;
+    private final NonBlockingTransferService nonBlockingTransferService;
+    private final UsageService usageService;
+
+    public AsyncStorageController(
+            IStorageService storageService,
+            NonBlockingTransferService nonBlockingTransferService,
+            UsageService usageService
+    ) {
+        this.storageService = storageService;
+        this.nonBlockingTransferService = nonBlockingTransferService;
+        this.usageService = usageService;
+    }
+
+    @PostMapping(value = "/upload", consumes = "application/octet-stream")
+    public void upload(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            @RequestHeader("X-Filename") String filename
+    ) throws IOException {
+        usageService.checkQuota(filename, Math.max(0, request.getContentLengthLong()));
+        nonBlockingTransferService.upload(request, response, filename);
+    }
+
+    @GetMapping("/resource")
+    public void getResource(
+            @PathParam("fileId") String fileId,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        MediaType contentType;
+
+        try {
+            contentType = storageService.getMetadata(fileId)
+                    .map(FileMetadata::contentType)
+                    .map(MediaType::parseMediaType)
+                    .orElse(MediaType.APPLICATION_OCTET_STREAM);
+        } catch (InvalidMediaTypeException e) {
+            contentType = MediaType.APPLICATION_OCTET_STREAM;
+        }
+
+        nonBlockingTransferService.download(request, response, fileId, contentType);
+    }
+}
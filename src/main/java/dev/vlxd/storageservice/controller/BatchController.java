@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.controller;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.service.archive.ArchiveScheduler;
+import dev.vlxd.storageservice.service.batch.BatchArchiveRequest;
+import dev.vlxd.storageservice.service.batch.BatchRequest;
+import dev.vlxd.storageservice.service.batch.BatchService;
+import dev.vlxd.storageservice.service.batch.DeleteResult;
+import dev.vlxd.storageservice.service.batch.StatResult;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+@RestController
+@RequestMapping("/v1/storage/batch")
+public class BatchController {
+
+    private final BatchService batchService;
+    private final ArchiveScheduler archiveScheduler;
+
+    public BatchController(BatchService batchService, ArchiveScheduler archiveScheduler) {
+        this.batchService = batchService;
+        this.archiveScheduler = archiveScheduler;
+    }
+
+    @PostMapping("/archive")
+    public WebAsyncTask<Void> archive(
+            @RequestBody BatchArchiveRequest request,
+            HttpServletRequest servletRequest,
+            HttpServletResponse response
+    ) {
+        String name = batchService.prepareArchive(request);
+        ArchiveType archiveType = BatchService.archiveType(request);
+
+        return archiveScheduler.schedule(servletRequest, () -> {
+            try (OutputStream outputStream = response.getOutputStream()) {
+                response.setContentType(archiveType.getContentType());
+                response.setHeader(
+                        HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=" + name + archiveType.getExtension()
+                );
+
+                batchService.archive(request, name, outputStream);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to process response output stream", e);
+            }
+            return null;
+        });
+    }
+
+    @PostMapping("/delete")
+    public ResponseEntity<List<DeleteResult>> delete(@RequestBody BatchRequest request) {
+        return ResponseEntity.ok(batchService.delete(request.fileIds()));
+    }
+
+    @PostMapping("/stat")
+    public ResponseEntity<List<StatResult>> stat(@RequestBody BatchRequest request) {
+        return ResponseEntity.ok(batchService.stat(request.fileIds()));
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.controller;
+
+import dev.vlxd.storageservice.service.trash.DeletionJobService;
+import dev.vlxd.storageservice.service.trash.DeletionJobStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/v1/storage/delete/jobs")
+public class DeletionJobController {
+
+    private final DeletionJobService deletionJobService;
+
+    public DeletionJobController(DeletionJobService deletionJobService) {
+        this.deletionJobService = deletionJobService;
+    }
+
+    @GetMapping("/{jobId}")
+    public ResponseEntity<DeletionJobStatus> status(@PathVariable("jobId") String jobId) {
+        return ResponseEntity.ok(deletionJobService.getStatus(jobId));
+    }
+
+    @PostMapping("/{jobId}/restore")
+    public ResponseEntity<DeletionJobStatus> restore(@PathVariable("jobId") String jobId) {
+        return ResponseEntity.ok(deletionJobService.restore(jobId));
+    }
+}
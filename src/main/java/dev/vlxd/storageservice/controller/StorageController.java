@@ -15,36 +15,80 @@
 
 package dev.vlxd.storageservice.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.service.archive.ArchiveBaseline;
+import dev.vlxd.storageservice.service.archive.ArchiveOptions;
+import dev.vlxd.storageservice.service.archive.ArchiveScheduler;
+import dev.vlxd.storageservice.service.archive.StoredZipArchive;
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
 import dev.vlxd.storageservice.service.storage.IStorageService;
+import dev.vlxd.storageservice.service.storage.ListEntry;
+import dev.vlxd.storageservice.service.storage.ListPage;
+import dev.vlxd.storageservice.service.transfer.ResourceTransferService;
+import dev.vlxd.storageservice.service.trash.DeletionJobService;
+import dev.vlxd.storageservice.service.trash.DeletionJobStatus;
+import dev.vlxd.storageservice.service.usage.UsageService;
+import dev.vlxd.storageservice.service.usage.UsageStatus;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.websocket.server.PathParam;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.InvalidMimeTypeException;
 import org.springframework.util.MimeType;
 import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 
 @RestController
 @RequestMapping("/v1/storage")
 public class StorageController {
 
+    private static final int DEFAULT_LIST_LIMIT = 1000;
+    private static final int MAX_LIST_LIMIT = 10000;
+    private static final String ARCHIVE_MANIFEST_HEADER = "X-Archive-Manifest";
+
     private final IStorageService storageService;
+    private final ResourceTransferService resourceTransferService;
+    private final DeletionJobService deletionJobService;
+    private final ArchiveScheduler archiveScheduler;
+    private final UsageService usageService;
+    private final ObjectMapper objectMapper;
 
-    public StorageController(IStorageService storageService) {
+    public StorageController(
+            IStorageService storageService,
+            ResourceTransferService resourceTransferService,
+            DeletionJobService deletionJobService,
+            ArchiveScheduler archiveScheduler,
+            UsageService usageService,
+            ObjectMapper objectMapper
+    ) {
         this.storageService = storageService;
+        this.resourceTransferService = resourceTransferService;
+        this.deletionJobService = deletionJobService;
+        this.archiveScheduler = archiveScheduler;
+        this.usageService = usageService;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping(value = "/upload", consumes = "application/octet-stream")
     ResponseEntity<String> upload(HttpServletRequest request, @RequestHeader("X-Filename") String filename) {
+        // rejected on the declared length before the body is read, bodies without one are limited while stored
+        usageService.checkQuota(filename, Math.max(0, request.getContentLengthLong()));
+
         try (InputStream inputStream = request.getInputStream()) {
             return ResponseEntity
                     .ok()
@@ -55,55 +99,178 @@ public class StorageController {
     }
 
     @GetMapping("/resource")
-    ResponseEntity<Resource> getResource(@PathParam("fileId") String fileId) {
+    public void getResource(
+            @PathParam("fileId") String fileId,
+            ServletWebRequest webRequest,
+            HttpServletResponse response
+    ) {
         Resource resource = storageService.loadAsResource(fileId);
 
         if (resource == null) {
-            return ResponseEntity.notFound().build();
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
         }
 
+        FileMetadata metadata = storageService.getMetadata(fileId).orElse(null);
         MimeType contentType;
 
         try {
-            contentType = MimeTypeUtils.parseMimeType(Files.probeContentType(resource.getFile().toPath()));
-        } catch (IOException e) {
+            String probed = metadata != null
+                    ? metadata.contentType()
+                    : Files.probeContentType(resource.getFile().toPath());
+            contentType = MimeTypeUtils.parseMimeType(probed);
+        } catch (IOException | InvalidMimeTypeException e) {
             contentType = MimeTypeUtils.APPLICATION_OCTET_STREAM;
         }
 
-        return ResponseEntity.ok()
-                .header(
-                        HttpHeaders.CONTENT_DISPOSITION,
-                        "attachment; filename=\"" + resource.getFilename() + "\""
-                )
-                .contentType(MediaType.asMediaType(contentType))
-                .body(resource);
+        resourceTransferService.transfer(resource, metadata, MediaType.asMediaType(contentType), webRequest, response);
     }
 
+    /**
+     * Uncompressed ZIPs are sent right away, every other archive is built by the {@link ArchiveScheduler}.
+     * A {@code manifest} parameter or an {@code If-Modified-Since} header asks for an incremental archive,
+     * see {@link #archiveChanges}.
+     */
     @GetMapping("/archive")
-    public void archive(
+    public WebAsyncTask<Void> archive(
             @PathParam("fileId") String fileId,
             @PathParam("archiveType") ArchiveType archiveType,
+            @PathParam("compressionLevel") Integer compressionLevel,
+            @PathParam("adaptive") Boolean adaptive,
+            @PathParam("manifest") String manifest,
+            ServletWebRequest webRequest,
             HttpServletResponse response
     ) {
+        ArchiveOptions options = new ArchiveOptions(
+                compressionLevel != null ? compressionLevel : ArchiveOptions.DEFAULT.compressionLevel(),
+                adaptive != null ? adaptive : ArchiveOptions.DEFAULT.adaptive()
+        );
+
         storageService.checkFile(fileId);
 
-        try (OutputStream outputStream = response.getOutputStream()) {
-            String[] segments = fileId.split("/");
+        long modifiedSince = ifModifiedSince(webRequest.getRequest());
+        if (manifest != null || modifiedSince >= 0) {
+            ArchiveBaseline baseline = new ArchiveBaseline(manifest == null || manifest.isEmpty() ? null : manifest,
+                    modifiedSince);
+            return archiveChanges(fileId, archiveType, options, baseline, webRequest, response);
+        }
+
+        // uncompressed ZIPs have a layout known up front, they are sent with a length and can be resumed
+        if (archiveType == ArchiveType.ZIP && options.compressionLevel() == 0) {
+            StoredZipArchive archive = storageService.prepareStoredArchive(fileId);
+            if (archive != null) {
+                resourceTransferService.transfer(
+                        archive, MediaType.parseMediaType(archiveType.getContentType()), webRequest, response);
+                return null;
+            }
+        }
+
+        return archiveScheduler.schedule(webRequest.getRequest(), () -> {
+            try (OutputStream outputStream = response.getOutputStream()) {
+                attachment(fileId, archiveType, response);
+                storageService.archiveFile(archiveType, fileId, options, outputStream);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to process response output stream", e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Sync clients send the {@value #ARCHIVE_MANIFEST_HEADER} of their last archive as {@code manifest}, or
+     * an empty {@code manifest} for the first one, and receive only the added and changed entries plus the
+     * names that are gone. {@code If-Modified-Since} selects by modification time alone, which can not see
+     * deletions or renames. With nothing changed the answer is {@code 304 Not Modified}.
+     */
+    private WebAsyncTask<Void> archiveChanges(String fileId, ArchiveType archiveType, ArchiveOptions options,
+                                              ArchiveBaseline baseline, ServletWebRequest webRequest,
+                                              HttpServletResponse response) {
+        return archiveScheduler.schedule(webRequest.getRequest(), () -> {
+            storageService.archiveChanges(archiveType, fileId, options, baseline, delta -> {
+                response.setHeader(ARCHIVE_MANIFEST_HEADER, delta.manifest());
+                response.setDateHeader(HttpHeaders.LAST_MODIFIED, delta.walked());
+
+                if (!baseline.isEmpty() && delta.isEmpty()) {
+                    response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                    return null;
+                }
+
+                try {
+                    attachment(fileId, archiveType, response);
+                    return response.getOutputStream();
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to process response output stream", e);
+                }
+            });
+            return null;
+        });
+    }
+
+    private static void attachment(String fileId, ArchiveType archiveType, HttpServletResponse response) {
+        String[] segments = fileId.split("/");
+
+        response.setContentType(archiveType.getContentType());
+        response.setHeader(
+                HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=" + segments[segments.length - 1] + archiveType.getExtension()
+        );
+    }
+
+    private static long ifModifiedSince(HttpServletRequest request) {
+        try {
+            return request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
 
-            response.setContentType(archiveType.getContentType());
-            response.setHeader(
-                    HttpHeaders.CONTENT_DISPOSITION,
-                    "attachment; filename=" + segments[segments.length - 1] + ".zip"
-            );
+    @GetMapping("/list")
+    public void list(
+            @PathParam("fileId") String fileId,
+            @PathParam("prefix") String prefix,
+            @PathParam("cursor") String cursor,
+            @PathParam("limit") Integer limit,
+            @PathParam("recursive") Boolean recursive,
+            HttpServletResponse response
+    ) {
+        int pageSize = limit == null || limit <= 0 ? DEFAULT_LIST_LIMIT : Math.min(limit, MAX_LIST_LIMIT);
+        ListPage page = storageService.list(fileId, prefix, cursor, pageSize, Boolean.TRUE.equals(recursive));
+
+        response.setContentType("application/x-ndjson");
+        if (page.nextCursor() != null) {
+            // URL encoded so that it can be passed back verbatim as the cursor query parameter
+            response.setHeader("X-Next-Cursor", URLEncoder.encode(page.nextCursor(), StandardCharsets.UTF_8));
+        }
 
-            storageService.archiveFile(archiveType, fileId, outputStream);
+        try {
+            OutputStream outputStream = response.getOutputStream();
+            for (ListEntry entry : page.entries()) {
+                outputStream.write(objectMapper.writeValueAsBytes(entry));
+                outputStream.write('\n');
+            }
+            outputStream.flush();
         } catch (IOException e) {
             throw new RuntimeException("Failed to process response output stream", e);
         }
     }
 
+    /**
+     * Moves the file to the trash in the background, the returned job can be polled and restored.
+     */
     @DeleteMapping("/delete")
-    public ResponseEntity<Boolean> delete(@PathParam("fileId") String fileId) {
-        return ResponseEntity.ok(storageService.deleteFile(fileId));
+    public ResponseEntity<DeletionJobStatus> delete(@PathParam("fileId") String fileId) {
+        DeletionJobStatus job = deletionJobService.submit(fileId);
+        return ResponseEntity
+                .accepted()
+                .location(URI.create("/v1/storage/delete/jobs/" + job.id()))
+                .body(job);
+    }
+
+    /**
+     * Bytes and files below a directory, read from counters rather than by walking it.
+     */
+    @GetMapping("/usage")
+    public ResponseEntity<UsageStatus> usage(@PathParam("fileId") String fileId) {
+        return ResponseEntity.ok(usageService.usage(fileId == null ? "" : fileId));
     }
 }
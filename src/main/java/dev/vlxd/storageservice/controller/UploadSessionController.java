@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.controller;
+
+import dev.vlxd.storageservice.service.upload.UploadSessionService;
+import dev.vlxd.storageservice.service.upload.UploadSessionStatus;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/v1/storage/upload/sessions")
+public class UploadSessionController {
+
+    private final UploadSessionService uploadSessionService;
+
+    public UploadSessionController(UploadSessionService uploadSessionService) {
+        this.uploadSessionService = uploadSessionService;
+    }
+
+    @PostMapping
+    public ResponseEntity<UploadSessionStatus> create(
+            @RequestHeader("X-Filename") String filename,
+            @RequestHeader("X-File-Size") long size,
+            @RequestHeader(value = "X-Part-Size", required = false) Long partSize
+    ) {
+        return ResponseEntity
+                .status(HttpStatus.CREATED)
+                .body(uploadSessionService.create(filename, size, partSize));
+    }
+
+    @PutMapping(value = "/{sessionId}/parts/{partNumber}", consumes = "application/octet-stream")
+    public ResponseEntity<UploadSessionStatus> uploadPart(
+            @PathVariable("sessionId") String sessionId,
+            @PathVariable("partNumber") int partNumber,
+            HttpServletRequest request
+    ) {
+        try (InputStream inputStream = request.getInputStream()) {
+            return ResponseEntity.ok(uploadSessionService.uploadPart(sessionId, partNumber, inputStream));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to process request input stream", e);
+        }
+    }
+
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<UploadSessionStatus> status(@PathVariable("sessionId") String sessionId) {
+        return ResponseEntity.ok(uploadSessionService.getStatus(sessionId));
+    }
+
+    @PostMapping("/{sessionId}/commit")
+    public ResponseEntity<String> commit(@PathVariable("sessionId") String sessionId) {
+        return ResponseEntity.ok(uploadSessionService.commit(sessionId));
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<Void> abort(@PathVariable("sessionId") String sessionId) {
+        uploadSessionService.abort(sessionId);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.event;
+
+import java.nio.file.Path;
+
+/**
+ * Published after a file or a directory under the storage root was created, replaced or removed.
+ * Listeners run synchronously, before the storage operation returns to the caller.
+ */
+public record StorageChangedEvent(Path path) {
+
+    public StorageChangedEvent {
+        path = path.toAbsolutePath().normalize();
+    }
+
+    public boolean affects(Path other) {
+        return path.startsWith(other) || other.startsWith(path);
+    }
+}
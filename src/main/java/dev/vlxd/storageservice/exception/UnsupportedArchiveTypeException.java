@@ -15,6 +15,10 @@
 
 package dev.vlxd.storageservice.exception;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
 public class UnsupportedArchiveTypeException extends RuntimeException {
 
     public UnsupportedArchiveTypeException(String message) {
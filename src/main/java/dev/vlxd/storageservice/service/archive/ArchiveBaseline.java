@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+/**
+ * What an incremental archive is built against: the hash of a manifest returned with an earlier archive,
+ * a modification time in milliseconds, both or neither. Without a baseline every entry is included.
+ */
+public record ArchiveBaseline(String manifest, long modifiedSince) {
+
+    public static final ArchiveBaseline NONE = new ArchiveBaseline(null, -1);
+
+    public boolean isEmpty() {
+        return manifest == null && modifiedSince < 0;
+    }
+}
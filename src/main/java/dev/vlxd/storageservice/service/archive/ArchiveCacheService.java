@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.event.StorageChangedEvent;
+import dev.vlxd.storageservice.exception.ArchiveException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps generated archives on disk, keyed by archive type and a fingerprint of the source directory, the
+ * root name and the archived tree (entry names, sizes and modification times). Least recently used archives
+ * are evicted once the configured byte budget is exceeded.
+ */
+@Slf4j
+@Service
+public class ArchiveCacheService {
+
+    private final Path directory;
+    private final long maxBytes;
+    private final boolean enabled;
+
+    private final LinkedHashMap<String, CachedArchive> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<PendingArchive> pending = ConcurrentHashMap.newKeySet();
+    private long usedBytes;
+
+    @Autowired
+    public ArchiveCacheService(
+            @Value("${archive.cache.enabled}") boolean enabled,
+            @Value("${archive.cache.directory}") String directory,
+            @Value("${archive.cache.max-bytes}") long maxBytes
+    ) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.maxBytes = maxBytes;
+
+        if (enabled) {
+            try {
+                // the index lives in memory only, so files left by a previous run can not be served
+                FileSystemUtils.deleteRecursively(this.directory);
+                Files.createDirectories(this.directory);
+            } catch (IOException e) {
+                throw new ArchiveException("Could not initialize archive cache", e);
+            }
+        }
+    }
+
+    /**
+     * Sends the archive cached under {@code key}.
+     *
+     * @return {@code false} when nothing is cached under the key
+     */
+    public boolean send(String key, OutputStream outputStream) {
+        if (!enabled) {
+            return false;
+        }
+
+        try (InputStream cached = open(key)) {
+            if (cached == null) {
+                return false;
+            }
+            cached.transferTo(outputStream);
+            return true;
+        } catch (IOException e) {
+            throw new ArchiveException("Failed to send cached archive", e);
+        }
+    }
+
+    /**
+     * Runs {@code builder} and keeps what it writes under {@code key}, unless {@code file} changes meanwhile.
+     */
+    public void build(String key, File file, OutputStream outputStream, Consumer<OutputStream> builder) {
+        if (!enabled) {
+            builder.accept(outputStream);
+            return;
+        }
+
+        build(key, file.toPath().toAbsolutePath().normalize(), outputStream, builder);
+    }
+
+    @EventListener
+    public void onStorageChanged(StorageChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+
+        pending.stream()
+                .filter(archive -> event.affects(archive.source))
+                .forEach(archive -> archive.stale = true);
+
+        synchronized (entries) {
+            Iterator<CachedArchive> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                CachedArchive archive = iterator.next();
+                if (event.affects(archive.source)) {
+                    iterator.remove();
+                    remove(archive);
+                }
+            }
+        }
+    }
+
+    private InputStream open(String key) throws IOException {
+        synchronized (entries) {
+            CachedArchive archive = entries.get(key);
+            if (archive == null) {
+                return null;
+            }
+            // opened under the lock so a concurrent eviction can only unlink an already open file
+            return Files.newInputStream(archive.path);
+        }
+    }
+
+    private void build(String key, Path source, OutputStream outputStream, Consumer<OutputStream> builder) {
+        PendingArchive archive = new PendingArchive(source);
+        Path temp;
+
+        try {
+            temp = Files.createTempFile(directory, key, ".tmp");
+        } catch (IOException e) {
+            log.warn("Could not create archive cache file, building without cache", e);
+            builder.accept(outputStream);
+            return;
+        }
+
+        pending.add(archive);
+
+        try {
+            long size;
+
+            try (TeeOutputStream tee = new TeeOutputStream(outputStream, Files.newOutputStream(temp), maxBytes)) {
+                builder.accept(tee);
+                size = tee.isOverflowed() ? -1 : tee.getCopied();
+            }
+
+            if (size >= 0 && !archive.stale) {
+                Path target = directory.resolve(key);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                register(key, new CachedArchive(target, source, size));
+            }
+        } catch (IOException e) {
+            log.warn("Failed to store archive in cache", e);
+        } finally {
+            pending.remove(archive);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                log.warn("Failed to remove temporary archive {}", temp, e);
+            }
+        }
+    }
+
+    private void register(String key, CachedArchive archive) {
+        synchronized (entries) {
+            CachedArchive previous = entries.put(key, archive);
+            if (previous != null) {
+                // same key maps to the same file, which was already replaced by the move
+                usedBytes -= previous.size;
+            }
+            usedBytes += archive.size;
+
+            Iterator<CachedArchive> iterator = entries.values().iterator();
+            while (usedBytes > maxBytes && iterator.hasNext()) {
+                CachedArchive eldest = iterator.next();
+                iterator.remove();
+                remove(eldest);
+            }
+        }
+    }
+
+    private void remove(CachedArchive archive) {
+        usedBytes -= archive.size;
+        try {
+            Files.deleteIfExists(archive.path);
+        } catch (IOException e) {
+            log.warn("Failed to remove cached archive {}", archive.path, e);
+        }
+    }
+
+    /**
+     * @return the key of the archive of {@code entries}, the walk of {@code file}
+     */
+    static String fingerprint(ArchiveType archiveType, ArchiveOptions options, File file, String root,
+                              List<ArchiveEntry> entries) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        digest.update(archiveType.name().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(options.key().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(file.toPath().toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(root.getBytes(StandardCharsets.UTF_8));
+
+        byte[] numbers = new byte[16];
+        for (ArchiveEntry entry : entries) {
+            digest.update((byte) 0);
+            digest.update(entry.name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            putLong(numbers, 0, entry.size());
+            putLong(numbers, 8, entry.lastModified());
+            digest.update(numbers);
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void putLong(byte[] buffer, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private record CachedArchive(Path path, Path source, long size) {
+    }
+
+    private static final class PendingArchive {
+        private final Path source;
+        private volatile boolean stale;
+
+        private PendingArchive(Path source) {
+            this.source = source;
+        }
+    }
+
+    /**
+     * Copies everything written to the client into the cache file as well. Copying stops silently once
+     * the archive grows beyond the cache budget, the client still receives the whole archive.
+     */
+    private static final class TeeOutputStream extends OutputStream {
+
+        private final OutputStream primary;
+        private final OutputStream copy;
+        private final long limit;
+        private long copied;
+        private boolean overflowed;
+
+        private TeeOutputStream(OutputStream primary, OutputStream copy, long limit) {
+            this.primary = primary;
+            this.copy = copy;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            primary.write(b);
+            if (accept(1)) {
+                copy.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            primary.write(b, off, len);
+            if (accept(len)) {
+                copy.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            primary.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            copy.close();
+        }
+
+        private boolean accept(int length) {
+            if (overflowed) {
+                return false;
+            }
+            copied += length;
+            overflowed = copied > limit;
+            return !overflowed;
+        }
+
+        private long getCopied() {
+            return copied;
+        }
+
+        private boolean isOverflowed() {
+            return overflowed;
+        }
+    }
+}
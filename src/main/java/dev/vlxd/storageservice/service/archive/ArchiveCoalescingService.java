@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.exception.ArchiveException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Lets concurrent requests for the same archive share one build. The first request builds the archive
+ * and records its bytes, requests arriving while the build is running replay the recorded bytes and then
+ * follow the live output. Recorded bytes are kept in memory up to a limit and spilled to a temporary
+ * file afterwards, so a slow follower never holds back the build.
+ * <p>
+ * Recording stops once the spill file reaches its limit. From then on no request can join the build, and a
+ * follower that has replayed everything recorded builds the archive itself, skipping the bytes it already
+ * sent. Archives are reproducible for a key, so the bytes match.
+ */
+@Slf4j
+@Service
+public class ArchiveCoalescingService {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int TRUNCATED = -2;
+
+    private final boolean enabled;
+    private final long memoryLimit;
+    private final long spillLimit;
+    private final Path spillDirectory;
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ArchiveCoalescingService(
+            @Value("${archive.coalescing.enabled}") boolean enabled,
+            @Value("${archive.coalescing.memory-bytes}") long memoryLimit,
+            @Value("${archive.coalescing.spill-bytes}") long spillLimit,
+            @Value("${archive.coalescing.spill-directory}") String spillDirectory
+    ) {
+        this.enabled = enabled;
+        this.memoryLimit = memoryLimit;
+        this.spillLimit = spillLimit;
+        this.spillDirectory = Paths.get(spillDirectory);
+
+        if (enabled) {
+            try {
+                Files.createDirectories(this.spillDirectory);
+            } catch (IOException e) {
+                throw new ArchiveException("Could not initialize archive spill directory", e);
+            }
+        }
+    }
+
+    /**
+     * @param key identifies the archive, {@code builder} must write the same bytes for the same key
+     */
+    public void archive(String key, OutputStream outputStream, Consumer<OutputStream> builder) {
+        if (!enabled) {
+            builder.accept(outputStream);
+            return;
+        }
+
+        while (true) {
+            Flight created = new Flight(key);
+            Flight flight = flights.putIfAbsent(key, created);
+
+            if (flight == null) {
+                lead(key, created, outputStream, builder);
+                return;
+            }
+
+            if (flight.attach()) {
+                follow(flight, outputStream, builder);
+                return;
+            }
+            // the flight completed or stopped recording between lookup and attach, it has left the map
+        }
+    }
+
+    private void lead(String key, Flight flight, OutputStream outputStream, Consumer<OutputStream> builder) {
+        FlightOutputStream recording = new FlightOutputStream(flight, outputStream);
+        Throwable failure = null;
+
+        try {
+            builder.accept(recording);
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+            flight.complete(failure);
+            flight.detach();
+        }
+
+        if (recording.clientFailure != null) {
+            throw new ArchiveException("Failed to send archive to client", recording.clientFailure);
+        }
+    }
+
+    private void follow(Flight flight, OutputStream outputStream, Consumer<OutputStream> builder) {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long position = 0;
+        int read;
+
+        try {
+            while ((read = flight.read(position, buffer)) >= 0) {
+                outputStream.write(buffer, 0, read);
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new ArchiveException("Failed to send shared archive", e);
+        } finally {
+            flight.detach();
+        }
+
+        if (read == TRUNCATED) {
+            log.debug("Shared archive outgrew the spill limit, building it again from byte {}", position);
+            builder.accept(new SkippingOutputStream(outputStream, position));
+        }
+    }
+
+    /**
+     * Forwards archive bytes to the leading client and records them for followers. When the leading client
+     * disconnects while other clients are attached, the build keeps going for them.
+     */
+    private static final class FlightOutputStream extends OutputStream {
+
+        private final Flight flight;
+        private final OutputStream client;
+        private IOException clientFailure;
+
+        private FlightOutputStream(Flight flight, OutputStream client) {
+            this.flight = flight;
+            this.client = client;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (clientFailure == null) {
+                try {
+                    client.write(b, off, len);
+                } catch (IOException e) {
+                    if (!flight.hasFollowers()) {
+                        throw e;
+                    }
+                    clientFailure = e;
+                }
+            }
+            // followers build the rest themselves once recording stops, nobody needs the build any more
+            if (!flight.append(b, off, len) && clientFailure != null) {
+                throw clientFailure;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (clientFailure == null) {
+                client.flush();
+            }
+        }
+    }
+
+    /**
+     * Discards the first bytes of an archive, which the client already received from a shared build.
+     */
+    private static final class SkippingOutputStream extends OutputStream {
+
+        private final OutputStream target;
+        private long skip;
+
+        private SkippingOutputStream(OutputStream target, long skip) {
+            this.target = target;
+            this.skip = skip;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (skip >= len) {
+                skip -= len;
+                return;
+            }
+            target.write(b, off + (int) skip, len - (int) skip);
+            skip = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+
+    private final class Flight {
+
+        private final String key;
+        private final List<byte[]> chunks = new ArrayList<>();
+        private long memoryLength;
+        private long length;
+        private Path spillPath;
+        private FileChannel spill;
+        private boolean done;
+        private boolean truncated;
+        private Throwable failure;
+        private int holders = 1;
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        private synchronized boolean attach() {
+            if (done || truncated) {
+                return false;
+            }
+            holders++;
+            return true;
+        }
+
+        private synchronized boolean hasFollowers() {
+            return holders > 1;
+        }
+
+        /**
+         * @return {@code false} once recording has stopped at the spill limit
+         */
+        private boolean append(byte[] b, int off, int len) throws IOException {
+            FileChannel channel;
+            long position;
+
+            synchronized (this) {
+                if (truncated) {
+                    return false;
+                }
+                if (length - memoryLength + len > spillLimit && (spill != null || memoryLength + len > memoryLimit)) {
+                    truncated = true;
+                    flights.remove(key, this);
+                    notifyAll();
+                    return false;
+                }
+                if (spill == null && memoryLength + len <= memoryLimit) {
+                    appendToMemory(b, off, len);
+                    length += len;
+                    notifyAll();
+                    return true;
+                }
+                if (spill == null) {
+                    spillPath = Files.createTempFile(spillDirectory, "archive", ".spill");
+                    spill = FileChannel.open(spillPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                channel = spill;
+                position = length - memoryLength;
+            }
+
+            // single writer, readers only look at positions below the published length
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+
+            synchronized (this) {
+                length += len;
+                notifyAll();
+            }
+            return true;
+        }
+
+        private void appendToMemory(byte[] b, int off, int len) {
+            while (len > 0) {
+                int used = (int) (memoryLength % CHUNK_SIZE);
+                if (used == 0) {
+                    chunks.add(new byte[CHUNK_SIZE]);
+                }
+                int count = Math.min(len, CHUNK_SIZE - used);
+                System.arraycopy(b, off, chunks.get(chunks.size() - 1), used, count);
+                memoryLength += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        private int read(long position, byte[] buffer) throws IOException {
+            FileChannel channel;
+            long available;
+
+            synchronized (this) {
+                while (position >= length && !done && !truncated) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new ArchiveException("Interrupted while waiting for shared archive", e);
+                    }
+                }
+
+                if (position >= length && truncated) {
+                    return TRUNCATED;
+                }
+                if (failure != null) {
+                    throw new ArchiveException("Shared archive build failed", failure);
+                }
+                if (position >= length) {
+                    return -1;
+                }
+
+                if (position < memoryLength) {
+                    byte[] chunk = chunks.get((int) (position / CHUNK_SIZE));
+                    int offset = (int) (position % CHUNK_SIZE);
+                    int count = (int) Math.min(buffer.length, Math.min(CHUNK_SIZE - offset, memoryLength - position));
+                    System.arraycopy(chunk, offset, buffer, 0, count);
+                    return count;
+                }
+
+                channel = spill;
+                available = length - position;
+            }
+
+            ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, available));
+            return channel.read(target, position - memoryLength);
+        }
+
+        private synchronized void complete(Throwable failure) {
+            this.failure = failure;
+            this.done = true;
+            notifyAll();
+        }
+
+        private void detach() {
+            synchronized (this) {
+                if (--holders > 0) {
+                    return;
+                }
+                chunks.clear();
+            }
+
+            if (spill != null) {
+                try {
+                    spill.close();
+                    Files.deleteIfExists(spillPath);
+                } catch (IOException e) {
+                    log.warn("Failed to remove archive spill file {}", spillPath, e);
+                }
+            }
+        }
+    }
+}
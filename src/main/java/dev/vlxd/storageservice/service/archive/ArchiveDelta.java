@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+/**
+ * Outcome of the tree walk of an incremental archive, known before anything is written.
+ *
+ * @param manifest hash of the manifest of the walked tree, the baseline of the next archive
+ * @param walked   time the walk started, every later change is picked up by the next archive
+ * @param changed  number of added or changed entries
+ * @param deleted  number of entries of the baseline manifest that are gone
+ */
+public record ArchiveDelta(String manifest, long walked, int changed, int deleted) {
+
+    public boolean isEmpty() {
+        return changed == 0 && deleted == 0;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.exception.ArchiveException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Single file or directory scheduled for archiving. Entries are collected in a fixed
+ * (name-sorted, depth-first) order so that the same tree always produces the same archive.
+ * Symbolic links to files are resolved, so an entry always refers to the file that holds the data.
+ */
+public record ArchiveEntry(String name, File file, boolean directory, long size, long lastModified) {
+
+    public static List<ArchiveEntry> collect(File file, String root) {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        collectRecursively(file, root, entries);
+        return entries;
+    }
+
+    private static void collectRecursively(File file, String parent, List<ArchiveEntry> entries) {
+        if (file.isDirectory()) {
+            String folderName = parent + "/";
+            entries.add(new ArchiveEntry(folderName, file, true, 0, file.lastModified()));
+
+            try (Stream<Path> paths = Files.list(file.toPath())) {
+                paths.sorted().forEach(child -> collectRecursively(
+                        child.toFile(),
+                        folderName + child.getFileName(), entries
+                ));
+            } catch (IOException e) {
+                throw new ArchiveException("Failed to process files to archive", e);
+            }
+        } else {
+            File target = file;
+            if (Files.isSymbolicLink(file.toPath())) {
+                try {
+                    target = file.toPath().toRealPath().toFile();
+                } catch (IOException e) {
+                    throw new ArchiveException("Failed to process files to archive", e);
+                }
+            }
+            entries.add(new ArchiveEntry(parent, target, false, target.length(), target.lastModified()));
+        }
+    }
+}
@@ -16,27 +16,166 @@
 package dev.vlxd.storageservice.service.archive;
 
 import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.exception.ArchiveException;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
 
+@Slf4j
 @Service
 public class ArchiveManagerService {
 
+    /**
+     * Entry of an incremental archive that lists, one per line, the names of the baseline that are gone.
+     */
+    public static final String DELETED_ENTRY = ".dms-deleted";
+
     private final ArchiveServiceFactory archiveServiceFactory;
+    private final ArchiveCacheService archiveCacheService;
+    private final ArchiveCoalescingService archiveCoalescingService;
+    private final Crc32Cache crc32Cache;
+    private final ArchiveMetrics archiveMetrics;
+    private final ArchiveManifestStore archiveManifestStore;
 
-    public ArchiveManagerService(ArchiveServiceFactory archiveServiceFactory) {
+    public ArchiveManagerService(
+            ArchiveServiceFactory archiveServiceFactory,
+            ArchiveCacheService archiveCacheService,
+            ArchiveCoalescingService archiveCoalescingService,
+            Crc32Cache crc32Cache,
+            ArchiveMetrics archiveMetrics,
+            ArchiveManifestStore archiveManifestStore
+    ) {
         this.archiveServiceFactory = archiveServiceFactory;
+        this.archiveCacheService = archiveCacheService;
+        this.archiveCoalescingService = archiveCoalescingService;
+        this.crc32Cache = crc32Cache;
+        this.archiveMetrics = archiveMetrics;
+        this.archiveManifestStore = archiveManifestStore;
+    }
+
+    /**
+     * Lays out a ZIP archive of stored entries, which can be sent with a length and in ranges.
+     */
+    public StoredZipArchive prepareStoredZip(File file, String root) {
+        try {
+            return new StoredZipArchive(file, root, ArchiveEntry.collect(file, root), crc32Cache);
+        } catch (IOException e) {
+            throw new ArchiveException("Failed to lay out ZIP archive", e);
+        }
     }
 
-    public void archive(ArchiveType archiveType, File file, String root, OutputStream outputStream) {
+    public void archive(ArchiveType archiveType, File file, String root, ArchiveOptions options,
+                        OutputStream outputStream) {
         IArchiveService archiveService = archiveServiceFactory.getArchiveService(archiveType);
 
         if (archiveService == null) {
             throw new UnsupportedOperationException("Archive service not found");
         }
 
-        archiveService.archive(file, root, outputStream);
+        // one walk keys the cache and is archived, so a cached archive always matches its key
+        List<ArchiveEntry> entries = ArchiveEntry.collect(file, root);
+        String key = ArchiveCacheService.fingerprint(archiveType, options, file, root, entries);
+
+        // cached archives are sent straight away, only builds are shared with concurrent requests
+        if (archiveCacheService.send(key, outputStream)) {
+            return;
+        }
+
+        archiveCoalescingService.archive(
+                key, outputStream,
+                shared -> archiveCacheService.build(
+                        key, file, shared,
+                        target -> {
+                            ArchivePhases phases = new ArchivePhases();
+                            long started = System.nanoTime();
+                            archiveService.archive(entries, options, phases, phases.output(target));
+                            archiveMetrics.record(archiveType, phases, System.nanoTime() - started);
+                        }
+                )
+        );
+    }
+
+    /**
+     * Archives what changed since {@code baseline}: entries that are missing from the baseline manifest or
+     * differ in size or modification time, and entries modified at or after {@code baseline.modifiedSince()}.
+     * Both are decided on the stamps of the tree walk, unchanged files are never read. Names of the baseline
+     * manifest that are gone are listed in a {@value #DELETED_ENTRY} entry.
+     * <p>
+     * The manifest of the walked tree is stored before anything is written. {@code output} receives the
+     * outcome of the walk and returns the stream to write to, or {@code null} to skip the archive. Incremental
+     * archives depend on the client's baseline, so they bypass the archive cache and coalescing.
+     */
+    public void archiveChanges(ArchiveType archiveType, File file, String root, ArchiveOptions options,
+                               ArchiveBaseline baseline, Function<ArchiveDelta, OutputStream> output) {
+        IArchiveService archiveService = archiveServiceFactory.getArchiveService(archiveType);
+
+        if (archiveService == null) {
+            throw new UnsupportedOperationException("Archive service not found");
+        }
+
+        ArchiveManifest previous = baseline.manifest() != null ? archiveManifestStore.load(baseline.manifest()) : null;
+
+        long walked = System.currentTimeMillis();
+        List<ArchiveEntry> entries = ArchiveEntry.collect(file, root);
+        ArchiveManifest current = ArchiveManifest.of(entries);
+        archiveManifestStore.store(current);
+
+        List<ArchiveEntry> changed = new ArrayList<>();
+        for (ArchiveEntry entry : entries) {
+            if (isChanged(entry, previous, baseline.modifiedSince())) {
+                changed.add(entry);
+            }
+        }
+        List<String> deleted = previous != null ? previous.removedIn(current) : List.of();
+
+        OutputStream outputStream = output.apply(
+                new ArchiveDelta(current.hash(), walked, changed.size(), deleted.size()));
+        if (outputStream == null) {
+            return;
+        }
+
+        Path deletions = null;
+        try {
+            if (!deleted.isEmpty()) {
+                deletions = archiveManifestStore.createTempFile();
+                Files.write(deletions, deleted, StandardCharsets.UTF_8);
+                changed.add(new ArchiveEntry(
+                        root + "/" + DELETED_ENTRY, deletions.toFile(), false, Files.size(deletions), walked));
+            }
+
+            ArchivePhases phases = new ArchivePhases();
+            long started = System.nanoTime();
+            archiveService.archive(changed, options, phases, phases.output(outputStream));
+            archiveMetrics.record(archiveType, phases, System.nanoTime() - started);
+        } catch (IOException e) {
+            throw new ArchiveException("Failed to list deleted entries", e);
+        } finally {
+            if (deletions != null) {
+                try {
+                    Files.deleteIfExists(deletions);
+                } catch (IOException e) {
+                    log.warn("Failed to remove deletion list {}", deletions, e);
+                }
+            }
+        }
+    }
+
+    private static boolean isChanged(ArchiveEntry entry, ArchiveManifest previous, long modifiedSince) {
+        if (previous != null && !previous.contains(entry)) {
+            return true;
+        }
+        if (modifiedSince >= 0) {
+            return entry.lastModified() >= modifiedSince;
+        }
+        return previous == null;
     }
 }
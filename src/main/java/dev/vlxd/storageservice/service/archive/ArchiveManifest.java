@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Names, sizes and modification times of an archived tree, as seen by the tree walk. Manifests are compared
+ * without reading file contents: a file changed when its size or modification time differs. The hash covers
+ * the serialized form, so the same tree always has the same hash.
+ */
+public final class ArchiveManifest {
+
+    private static final int VERSION = 1;
+
+    private final Map<String, Stamp> entries;
+    private final String hash;
+
+    private ArchiveManifest(Map<String, Stamp> entries) {
+        this.entries = entries;
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            write(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+            this.hash = HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Failed to hash archive manifest", e);
+        }
+    }
+
+    public static ArchiveManifest of(List<ArchiveEntry> entries) {
+        Map<String, Stamp> stamps = new LinkedHashMap<>();
+        for (ArchiveEntry entry : entries) {
+            stamps.put(entry.name(), entry.directory()
+                    ? new Stamp(0, 0)
+                    : new Stamp(entry.size(), entry.lastModified()));
+        }
+        return new ArchiveManifest(stamps);
+    }
+
+    public static ArchiveManifest read(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unsupported archive manifest version");
+        }
+
+        int count = in.readInt();
+        Map<String, Stamp> stamps = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            stamps.put(in.readUTF(), new Stamp(in.readLong(), in.readLong()));
+        }
+        return new ArchiveManifest(stamps);
+    }
+
+    public void write(OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputStream);
+
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Stamp> entry : entries.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue().size());
+            out.writeLong(entry.getValue().lastModified());
+        }
+        out.flush();
+    }
+
+    public String hash() {
+        return hash;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Directory entries only change by appearing, their modification time follows their children.
+     */
+    public boolean contains(ArchiveEntry entry) {
+        Stamp stamp = entries.get(entry.name());
+        if (stamp == null) {
+            return false;
+        }
+        return entry.directory() || (stamp.size() == entry.size() && stamp.lastModified() == entry.lastModified());
+    }
+
+    /**
+     * @return names of this manifest that are missing from {@code current}, in walk order
+     */
+    public List<String> removedIn(ArchiveManifest current) {
+        List<String> removed = new ArrayList<>();
+        for (String name : entries.keySet()) {
+            if (!current.entries.containsKey(name)) {
+                removed.add(name);
+            }
+        }
+        return removed;
+    }
+
+    private record Stamp(long size, long lastModified) {
+    }
+}
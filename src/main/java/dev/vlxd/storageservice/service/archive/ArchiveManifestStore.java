@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.exception.ArchiveException;
+import dev.vlxd.storageservice.exception.ArchiveManifestNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Manifests of archived trees, stored by hash so that clients can ask for the changes since an earlier
+ * archive. Manifests that were neither stored nor used for {@code archive.manifest.ttl} are removed.
+ */
+@Slf4j
+@Service
+public class ArchiveManifestStore {
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path directory;
+    private final long ttl;
+
+    @Autowired
+    public ArchiveManifestStore(
+            @Value("${archive.manifest.directory}") String directory,
+            @Value("${archive.manifest.ttl}") long ttl
+    ) {
+        this.directory = Paths.get(directory);
+        this.ttl = ttl;
+
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new ArchiveException("Could not initialize archive manifest directory", e);
+        }
+    }
+
+    public void store(ArchiveManifest manifest) {
+        Path path = directory.resolve(manifest.hash());
+
+        try {
+            // manifests are addressed by content, an existing one only needs to stay around
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return;
+        } catch (NoSuchFileException e) {
+            // stored below
+        } catch (IOException e) {
+            throw new ArchiveException("Failed to store archive manifest", e);
+        }
+
+        Path temp = directory.resolve(manifest.hash() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (OutputStream outputStream = new GZIPOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                manifest.write(outputStream);
+            }
+
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new ArchiveException("Failed to store archive manifest", e);
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                log.warn("Failed to remove temporary manifest {}", temp, e);
+            }
+        }
+    }
+
+    public ArchiveManifest load(String hash) {
+        if (!HASH.matcher(hash).matches()) {
+            throw new ArchiveManifestNotFoundException("Unknown archive manifest");
+        }
+
+        Path path = directory.resolve(hash);
+        try (InputStream inputStream = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            ArchiveManifest manifest = ArchiveManifest.read(inputStream);
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return manifest;
+        } catch (NoSuchFileException e) {
+            throw new ArchiveManifestNotFoundException("Unknown archive manifest");
+        } catch (IOException e) {
+            throw new ArchiveException("Failed to read archive manifest", e);
+        }
+    }
+
+    /**
+     * Holds the deletion list of an incremental archive while it is written.
+     */
+    Path createTempFile() throws IOException {
+        return Files.createTempFile(directory, "deleted-", ".tmp");
+    }
+
+    @Scheduled(fixedDelayString = "${archive.manifest.cleanup-interval}")
+    public void removeExpired() {
+        long deadline = System.currentTimeMillis() - ttl;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < deadline) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException e) {
+                    log.debug("Failed to check archive manifest {}", file, e);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to remove expired archive manifests from {}", directory, e);
+        }
+    }
+}
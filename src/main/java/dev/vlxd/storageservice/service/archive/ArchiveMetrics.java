@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per archive type timings of archive runs, split into {@link ArchivePhases}, and the ratio of archive size to
+ * source size. Only runs that build an archive are recorded, not responses served from the cache or shared
+ * with a concurrent request.
+ */
+@Component
+public class ArchiveMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<ArchiveType, Meters> meters = new ConcurrentHashMap<>();
+
+    public ArchiveMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void record(ArchiveType type, ArchivePhases phases, long nanos) {
+        Meters meters = this.meters.computeIfAbsent(type, this::register);
+        long write = phases.getWriteNanos();
+        long compress = phases.getCompressNanos();
+
+        meters.duration.record(nanos, TimeUnit.NANOSECONDS);
+        meters.write.record(write, TimeUnit.NANOSECONDS);
+        meters.compress.record(compress, TimeUnit.NANOSECONDS);
+        meters.read.record(Math.max(0, nanos - write - compress), TimeUnit.NANOSECONDS);
+
+        if (phases.getSourceBytes() > 0) {
+            meters.ratio.record((double) phases.getArchiveBytes() / phases.getSourceBytes());
+        }
+    }
+
+    private Meters register(ArchiveType type) {
+        String tag = type.name().toLowerCase(Locale.ROOT);
+        return new Meters(
+                Timer.builder("storage.archive.duration")
+                        .tag("type", tag)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry),
+                phase(meterRegistry, tag, "read"),
+                phase(meterRegistry, tag, "compress"),
+                phase(meterRegistry, tag, "write"),
+                DistributionSummary.builder("storage.archive.compression.ratio")
+                        .description("Archive size divided by the size of the archived files")
+                        .tag("type", tag)
+                        .register(meterRegistry)
+        );
+    }
+
+    private static Timer phase(MeterRegistry meterRegistry, String type, String phase) {
+        return Timer.builder("storage.archive.phase")
+                .tag("type", type)
+                .tag("phase", phase)
+                .register(meterRegistry);
+    }
+
+    private record Meters(Timer duration, Timer read, Timer compress, Timer write, DistributionSummary ratio) {
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.exception.InvalidArchiveOptionsException;
+
+import java.util.zip.Deflater;
+
+/**
+ * Per request archive settings. {@code compressionLevel} is a {@link Deflater} level, {@code 0} stores
+ * every entry. With {@code adaptive} set, entries that are not expected to shrink are stored instead of
+ * being deflated.
+ */
+public record ArchiveOptions(int compressionLevel, boolean adaptive) {
+
+    public static final ArchiveOptions DEFAULT = new ArchiveOptions(Deflater.DEFAULT_COMPRESSION, true);
+
+    public ArchiveOptions {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new InvalidArchiveOptionsException("Compression level must be between 0 and 9");
+        }
+    }
+
+    /**
+     * Distinguishes archives of the same tree built with different options, for caching and coalescing.
+     */
+    public String key() {
+        return compressionLevel + (adaptive ? "a" : "f");
+    }
+}
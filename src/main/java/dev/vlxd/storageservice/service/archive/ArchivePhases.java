@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Splits the time one archive run spends on the archiving thread into phases: blocked writing to the target
+ * stream, compressing (or waiting for compressed blocks), and everything else, which is walking the tree,
+ * reading files and checksumming stored entries. Only the archiving thread updates it.
+ */
+public class ArchivePhases {
+
+    private long writeNanos;
+    private long compressNanos;
+    private long sourceBytes;
+    private long archiveBytes;
+
+    /**
+     * @return the target stream, timing every write and counting the archive bytes
+     */
+    public OutputStream output(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                long started = System.nanoTime();
+                out.write(b);
+                writeNanos += System.nanoTime() - started;
+                archiveBytes++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long started = System.nanoTime();
+                out.write(b, off, len);
+                writeNanos += System.nanoTime() - started;
+                archiveBytes += len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                long started = System.nanoTime();
+                out.flush();
+                writeNanos += System.nanoTime() - started;
+            }
+        };
+    }
+
+    /**
+     * @return the compressing stream, counting the time spent in it as compression, except the writes it
+     * makes to the target stream
+     */
+    Compressor compressing(DeflaterOutputStream out) {
+        return new Compressor(out);
+    }
+
+    /**
+     * Counts {@code nanos} spent on the archiving thread as compression.
+     */
+    void compressed(long nanos) {
+        compressNanos += nanos;
+    }
+
+    void source(long bytes) {
+        sourceBytes += bytes;
+    }
+
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    public long getCompressNanos() {
+        return compressNanos;
+    }
+
+    public long getSourceBytes() {
+        return sourceBytes;
+    }
+
+    public long getArchiveBytes() {
+        return archiveBytes;
+    }
+
+    class Compressor extends FilterOutputStream {
+
+        private final DeflaterOutputStream deflater;
+
+        private Compressor(DeflaterOutputStream deflater) {
+            super(deflater);
+            this.deflater = deflater;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long started = start();
+            deflater.write(b);
+            stop(started);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long started = start();
+            deflater.write(b, off, len);
+            stop(started);
+        }
+
+        void finish() throws IOException {
+            long started = start();
+            deflater.finish();
+            stop(started);
+        }
+
+        // the write time is subtracted up front, so the writes made by the deflater are not counted twice
+        private long start() {
+            return System.nanoTime() - writeNanos;
+        }
+
+        private void stop(long started) {
+            compressNanos += System.nanoTime() - writeNanos - started;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.exception.ArchiveOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs archive builds off the request threads, on a bounded pool. Every request is admitted up front: when
+ * the pool and its queue are full, or the client already has as many archives running or queued as it is
+ * allowed, the request is rejected with {@link ArchiveOverloadedException}. Queued builds are started round
+ * robin across clients, so one client exporting many folders does not hold back the others.
+ */
+@Service
+public class ArchiveScheduler {
+
+    private final ExecutorService executor;
+    private final int capacity;
+    private final int clientLimit;
+    private final String clientHeader;
+    private final long retryAfter;
+    private final long timeout;
+
+    private final Map<String, Deque<Admission>> waiting = new HashMap<>();
+    private final Deque<String> turns = new ArrayDeque<>();
+    private final Map<String, Integer> admittedByClient = new HashMap<>();
+    private int admitted;
+    private int queued;
+
+    private final Timer queueWait;
+    private final Counter rejectedBusy;
+    private final Counter rejectedClient;
+
+    @Autowired
+    public ArchiveScheduler(
+            @Qualifier("archiveExecutor") ExecutorService executor,
+            @Value("${archive.scheduler.threads}") int threads,
+            @Value("${archive.scheduler.queue-capacity}") int queueCapacity,
+            @Value("${archive.scheduler.per-client-limit}") int clientLimit,
+            @Value("${archive.scheduler.client-header}") String clientHeader,
+            @Value("${archive.scheduler.retry-after}") long retryAfter,
+            @Value("${archive.scheduler.timeout}") long timeout,
+            MeterRegistry meterRegistry
+    ) {
+        this.executor = executor;
+        this.capacity = threads(threads) + queueCapacity;
+        this.clientLimit = clientLimit;
+        this.clientHeader = clientHeader;
+        this.retryAfter = retryAfter;
+        this.timeout = timeout;
+
+        this.queueWait = Timer.builder("storage.archive.queue.wait")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.rejectedBusy = Counter.builder("storage.archive.rejected")
+                .tag("reason", "busy")
+                .register(meterRegistry);
+        this.rejectedClient = Counter.builder("storage.archive.rejected")
+                .tag("reason", "client-limit")
+                .register(meterRegistry);
+        Gauge.builder("storage.archive.queued", this, scheduler -> scheduler.queued())
+                .register(meterRegistry);
+        Gauge.builder("storage.archive.admitted", this, scheduler -> scheduler.admitted())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Admits the archive build of the request, to be run asynchronously by the returned task.
+     *
+     * @throws ArchiveOverloadedException when the build can not be admitted now
+     */
+    public WebAsyncTask<Void> schedule(HttpServletRequest request, Callable<Void> archive) {
+        Admission admission = admit(client(request));
+
+        WebAsyncTask<Void> task = new WebAsyncTask<>(timeout, admission, archive);
+        // releases builds that never started, after a timeout or a failed dispatch
+        task.onCompletion(admission::drop);
+        return task;
+    }
+
+    private synchronized Admission admit(String client) {
+        if (admitted >= capacity) {
+            rejectedBusy.increment();
+            throw new ArchiveOverloadedException("Too many archives are being built", retryAfter);
+        }
+
+        int clientAdmitted = admittedByClient.getOrDefault(client, 0);
+        if (clientAdmitted >= clientLimit) {
+            rejectedClient.increment();
+            throw new ArchiveOverloadedException(
+                    "At most " + clientLimit + " archives can be built at once for a client", retryAfter);
+        }
+
+        admitted++;
+        admittedByClient.put(client, clientAdmitted + 1);
+        return new Admission(client);
+    }
+
+    private synchronized void enqueue(Admission admission) {
+        Deque<Admission> queue = waiting.computeIfAbsent(admission.client, client -> new ArrayDeque<>());
+        if (queue.isEmpty()) {
+            turns.add(admission.client);
+        }
+        queue.add(admission);
+        queued++;
+    }
+
+    /**
+     * @return the first queued build of the client whose turn it is, or {@code null} when nothing is queued
+     */
+    private synchronized Admission next() {
+        String client = turns.poll();
+        if (client == null) {
+            return null;
+        }
+
+        Deque<Admission> queue = waiting.get(client);
+        Admission admission = queue.poll();
+        queued--;
+
+        if (queue.isEmpty()) {
+            waiting.remove(client);
+        } else {
+            turns.add(client);
+        }
+        return admission;
+    }
+
+    private synchronized void release(Admission admission) {
+        admitted--;
+        admittedByClient.computeIfPresent(admission.client, (client, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private void runNext() {
+        Admission admission = next();
+        if (admission != null) {
+            admission.run();
+        }
+    }
+
+    /**
+     * @return the configured number of build threads, or by default half the processors, leaving the others
+     * to the request threads
+     */
+    public static int threads(int configured) {
+        return configured > 0 ? configured : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    private String client(HttpServletRequest request) {
+        String client = clientHeader.isEmpty() ? null : request.getHeader(clientHeader);
+        return client != null && !client.isBlank() ? client : request.getRemoteAddr();
+    }
+
+    private synchronized int queued() {
+        return queued;
+    }
+
+    private synchronized int admitted() {
+        return admitted;
+    }
+
+    /**
+     * One admitted build. It is handed to the pool as its executor, so the build is queued when the
+     * asynchronous request starts.
+     */
+    private final class Admission implements AsyncTaskExecutor {
+
+        private final String client;
+        private Runnable task;
+        private long enqueued;
+        private boolean started;
+        private boolean released;
+
+        private Admission(String client) {
+            this.client = client;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (this) {
+                this.task = task;
+                this.enqueued = System.nanoTime();
+            }
+            enqueue(this);
+            // one pool task per queued build, each runs whichever build is next in turn
+            executor.execute(ArchiveScheduler.this::runNext);
+        }
+
+        private void run() {
+            Runnable task;
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                started = true;
+                task = this.task;
+                queueWait.record(System.nanoTime() - enqueued, TimeUnit.NANOSECONDS);
+            }
+
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    released = true;
+                }
+                release(this);
+            }
+        }
+
+        private void drop() {
+            synchronized (this) {
+                if (started || released) {
+                    return;
+                }
+                released = true;
+            }
+            release(this);
+        }
+    }
+}
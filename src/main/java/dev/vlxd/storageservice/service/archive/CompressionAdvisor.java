@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides whether an archive entry is worth deflating. Well known compressed formats are recognized by
+ * name; for everything else the byte entropy of the first few kilobytes is measured, already compressed
+ * or encrypted data sits close to 8 bits per byte.
+ */
+final class CompressionAdvisor {
+
+    private static final int SAMPLE_SIZE = 4096;
+    private static final int MIN_SAMPLED_SIZE = 512;
+    private static final double MAX_ENTROPY = 7.5;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "heif", "avif", "jp2",
+            "mp4", "m4v", "mov", "mkv", "webm", "avi", "wmv", "flv",
+            "mp3", "m4a", "aac", "ogg", "oga", "opus", "flac", "wma",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4", "br", "cab", "jar", "war", "apk",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp", "epub", "pdf"
+    );
+
+    private CompressionAdvisor() {
+    }
+
+    static boolean isCompressible(ArchiveEntry entry) {
+        String name = entry.name();
+        int dot = name.lastIndexOf('.');
+
+        if (dot > name.lastIndexOf('/')
+                && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+
+        String contentType = URLConnection.guessContentTypeFromName(name);
+        if (contentType != null) {
+            if (contentType.startsWith("text/") || contentType.endsWith("xml") || contentType.endsWith("json")) {
+                return true;
+            }
+            if (contentType.startsWith("video/") || contentType.startsWith("audio/")) {
+                return false;
+            }
+        }
+
+        // deflating a few hundred bytes costs next to nothing either way
+        return entry.size() < MIN_SAMPLED_SIZE || entropy(entry) <= MAX_ENTROPY;
+    }
+
+    private static double entropy(ArchiveEntry entry) {
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, entry.size()));
+
+        try (FileChannel channel = FileChannel.open(entry.file().toPath(), StandardOpenOption.READ)) {
+            while (sample.hasRemaining()) {
+                if (channel.read(sample) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // the entry is read again when it is written, which reports the failure properly
+            return 0;
+        }
+
+        int[] counts = new int[256];
+        byte[] bytes = sample.array();
+        int length = sample.position();
+        for (int i = 0; i < length; i++) {
+            counts[bytes[i] & 0xFF]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers the CRC-32 of recently archived files, keyed by path and validated by size and modification
+ * time. Stored ZIP entries need the CRC before their data, so without the cache every stored entry is read
+ * twice, and every resumed download would read all files in front of the requested range again.
+ */
+@Component
+public class Crc32Cache {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Map<Path, Checksum> checksums;
+
+    @Autowired
+    public Crc32Cache(@Value("${archive.crc-cache.max-entries}") int maxEntries) {
+        this.checksums = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Checksum> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public long crc(ArchiveEntry entry) throws IOException {
+        Path path = entry.file().toPath();
+
+        synchronized (checksums) {
+            Checksum known = checksums.get(path);
+            if (known != null && known.size == entry.size() && known.lastModified == entry.lastModified()) {
+                return known.crc;
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long remaining = entry.size();
+            while (remaining > 0) {
+                buffer.clear().limit((int) Math.min(BUFFER_SIZE, remaining));
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("File " + entry.file() + " was truncated while archiving");
+                }
+                remaining -= buffer.flip().remaining();
+                crc.update(buffer);
+            }
+        }
+
+        synchronized (checksums) {
+            checksums.put(path, new Checksum(entry.size(), entry.lastModified(), crc.getValue()));
+        }
+
+        return crc.getValue();
+    }
+
+    private record Checksum(long size, long lastModified, long crc) {
+    }
+}
@@ -17,8 +17,28 @@ package dev.vlxd.storageservice.service.archive;
 
 import java.io.File;
 import java.io.OutputStream;
+import java.util.List;
 
 public interface IArchiveService {
 
-    void archive(File file, String root, OutputStream outputStream);
+    /**
+     * Archives the entries in the given order, recording the source size and the time spent compressing in
+     * {@code phases}. Writes go to {@code outputStream} as given, callers that want the write time pass
+     * {@link ArchivePhases#output}.
+     */
+    void archive(List<ArchiveEntry> entries, ArchiveOptions options, ArchivePhases phases,
+                 OutputStream outputStream);
+
+    default void archive(File file, String root, ArchiveOptions options, ArchivePhases phases,
+                         OutputStream outputStream) {
+        archive(ArchiveEntry.collect(file, root), options, phases, outputStream);
+    }
+
+    default void archive(File file, String root, ArchiveOptions options, OutputStream outputStream) {
+        archive(file, root, options, new ArchivePhases(), outputStream);
+    }
+
+    default void archive(File file, String root, OutputStream outputStream) {
+        archive(file, root, ArchiveOptions.DEFAULT, outputStream);
+    }
 }
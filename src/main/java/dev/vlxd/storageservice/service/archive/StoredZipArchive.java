@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.service.transfer.RangeResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * ZIP archive without compression whose layout is computed from the file sizes alone: every entry is
+ * stored, so offsets, ZIP64 records and the total length are known before a single byte is read. Any
+ * byte window can be produced on its own: headers are generated and clipped to the window, entry data
+ * outside of it is skipped, and CRCs are only computed for headers that fall into the window.
+ * The bytes are identical to a {@link ZipArchiveService} archive built with compression level 0.
+ */
+public class StoredZipArchive implements RangeResource {
+
+    public static final ArchiveOptions STORED = new ArchiveOptions(0, false);
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final String filename;
+    private final List<ArchiveEntry> entries;
+    private final Crc32Cache crc32Cache;
+    private final long[] dataOffsets;
+    private final long centralOffset;
+    private final long length;
+    private final long lastModified;
+    private final String eTag;
+
+    StoredZipArchive(File file, String root, List<ArchiveEntry> entries, Crc32Cache crc32Cache) throws IOException {
+        this.filename = root + ArchiveType.ZIP.getExtension();
+        this.entries = entries;
+        this.crc32Cache = crc32Cache;
+        this.dataOffsets = new long[entries.size()];
+
+        // dry run over an empty window: only offsets are tracked, nothing is read or written
+        ZipStreamWriter layout = new ZipStreamWriter(OutputStream.nullOutputStream(), 0, 0);
+        long newest = 0;
+
+        for (int i = 0; i < entries.size(); i++) {
+            ArchiveEntry entry = entries.get(i);
+            newest = Math.max(newest, entry.lastModified());
+
+            if (entry.directory()) {
+                layout.writeDirectory(entry.name(), entry.lastModified());
+                continue;
+            }
+
+            layout.beginStoredEntry(entry.name(), entry.lastModified(), 0, entry.size());
+            dataOffsets[i] = layout.getWritten();
+            layout.skip(entry.size());
+            layout.endStoredEntry();
+        }
+
+        this.centralOffset = layout.getWritten();
+        layout.finish();
+        this.length = layout.getWritten();
+        this.lastModified = newest;
+        this.eTag = "\"" + ArchiveCacheService.fingerprint(ArchiveType.ZIP, STORED, file, root, entries) + "\"";
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String eTag() {
+        return eTag;
+    }
+
+    @Override
+    public void writeRange(long position, long count, OutputStream outputStream) throws IOException {
+        long start = position;
+        long end = position + count;
+        ZipStreamWriter writer = new ZipStreamWriter(outputStream, start, end);
+        byte[] buffer = null;
+
+        for (int i = 0; i < entries.size(); i++) {
+            if (writer.getWritten() >= end) {
+                outputStream.flush();
+                return;
+            }
+
+            ArchiveEntry entry = entries.get(i);
+
+            if (entry.directory()) {
+                writer.writeDirectory(entry.name(), entry.lastModified());
+                continue;
+            }
+
+            long headerOffset = writer.getWritten();
+            long dataOffset = dataOffsets[i];
+            long dataEnd = dataOffset + entry.size();
+
+            // the CRC is part of the local header and of the central directory
+            boolean crcNeeded = headerOffset < end && dataOffset > start || end > centralOffset;
+            writer.beginStoredEntry(entry.name(), entry.lastModified(),
+                    crcNeeded ? crc32Cache.crc(entry) : 0, entry.size());
+
+            long from = Math.max(start, dataOffset);
+            long to = Math.min(end, dataEnd);
+
+            if (from < to) {
+                if (buffer == null) {
+                    buffer = new byte[COPY_BUFFER_SIZE];
+                }
+                writer.skip(from - dataOffset);
+                ZipArchiveService.copyStored(writer, entry, from - dataOffset, to - from, buffer);
+                writer.skip(dataEnd - to);
+            } else {
+                writer.skip(entry.size());
+            }
+
+            writer.endStoredEntry();
+        }
+
+        writer.finish();
+    }
+}
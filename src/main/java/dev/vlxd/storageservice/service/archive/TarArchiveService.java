@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.exception.ArchiveException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+@Service
+public class TarArchiveService implements IArchiveService {
+
+    @Override
+    public void archive(List<ArchiveEntry> entries, ArchiveOptions options, ArchivePhases phases,
+                        OutputStream outputStream) {
+        try {
+            TarStreamWriter writer = new TarStreamWriter(outputStream);
+
+            for (ArchiveEntry entry : entries) {
+                writer.writeEntry(entry);
+                if (!entry.directory()) {
+                    phases.source(entry.size());
+                }
+            }
+
+            writer.finish();
+        } catch (IOException e) {
+            throw new ArchiveException("Failed to archive files to TAR", e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.exception.ArchiveException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+@Service
+public class TarGzArchiveService implements IArchiveService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TarArchiveService tarArchiveService;
+
+    public TarGzArchiveService(TarArchiveService tarArchiveService) {
+        this.tarArchiveService = tarArchiveService;
+    }
+
+    @Override
+    public void archive(List<ArchiveEntry> entries, ArchiveOptions options, ArchivePhases phases,
+                        OutputStream outputStream) {
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(outputStream, BUFFER_SIZE) {
+                {
+                    def.setLevel(options.compressionLevel());
+                }
+            };
+            ArchivePhases.Compressor compressor = phases.compressing(gzip);
+
+            tarArchiveService.archive(entries, options, phases, compressor);
+
+            compressor.finish();
+            gzip.flush();
+        } catch (IOException e) {
+            throw new ArchiveException("Failed to process GZIP output stream", e);
+        }
+    }
+}
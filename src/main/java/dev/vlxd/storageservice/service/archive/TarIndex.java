@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the headers of a TAR file (ustar, PAX and GNU long names) without touching entry data, so
+ * that entries can afterwards be copied out of the file independently and in parallel.
+ */
+public final class TarIndex {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private TarIndex() {
+    }
+
+    public record Entry(String name, char type, long dataOffset, long size) {
+
+        public boolean isFile() {
+            return type == '0' || type == '\0' || type == '7';
+        }
+
+        public boolean isDirectory() {
+            return type == '5';
+        }
+    }
+
+    /**
+     * @throws IOException when the file is not a TAR archive or holds more than {@code maxEntries} entries
+     */
+    public static List<Entry> read(FileChannel channel, int maxEntries) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_SIZE);
+        long position = 0;
+        long length = channel.size();
+
+        String pendingName = null;
+        long pendingSize = -1;
+
+        while (position + BLOCK_SIZE <= length) {
+            header.clear();
+            readFully(channel, header, position);
+            byte[] block = header.array();
+            position += BLOCK_SIZE;
+
+            if (isZeroBlock(block)) {
+                break;
+            }
+            if (!hasValidChecksum(block)) {
+                throw new IOException("Invalid TAR header at offset " + (position - BLOCK_SIZE));
+            }
+
+            char type = (char) block[156];
+            long size = parseNumber(block, 124, 12);
+            long dataOffset = position;
+            position += (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+
+            if (position > length) {
+                throw new IOException("TAR archive is truncated");
+            }
+
+            switch (type) {
+                case 'x' -> {
+                    for (String[] record : parsePax(readData(channel, dataOffset, size))) {
+                        if (record[0].equals("path")) {
+                            pendingName = record[1];
+                        } else if (record[0].equals("size")) {
+                            pendingSize = Long.parseLong(record[1]);
+                        }
+                    }
+                }
+                case 'L' -> pendingName = trimNul(
+                        new String(readData(channel, dataOffset, size), StandardCharsets.UTF_8));
+                case 'g' -> {
+                    // global PAX headers only carry defaults this service does not use
+                }
+                default -> {
+                    if (pendingSize >= 0 && size == 0) {
+                        // the real size came from the PAX header, the data follows this header
+                        size = pendingSize;
+                        position = dataOffset + (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+                        if (position > length) {
+                            throw new IOException("TAR archive is truncated");
+                        }
+                    }
+
+                    String name = pendingName != null ? pendingName : headerName(block);
+                    if (entries.size() == maxEntries) {
+                        throw new IOException("TAR archive has more than " + maxEntries + " entries");
+                    }
+                    entries.add(new Entry(name, type, dataOffset, size));
+
+                    pendingName = null;
+                    pendingSize = -1;
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    private static String headerName(byte[] block) {
+        String name = trimNul(new String(block, 0, 100, StandardCharsets.UTF_8));
+        boolean ustar = new String(block, 257, 5, StandardCharsets.US_ASCII).equals("ustar");
+        String prefix = ustar ? trimNul(new String(block, 345, 155, StandardCharsets.UTF_8)) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static long parseNumber(byte[] block, int offset, int length) throws IOException {
+        if ((block[offset] & 0x80) != 0) {
+            // GNU base-256 encoding for sizes of 8 GB and more
+            long value = block[offset] & 0x7F;
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (block[offset + i] & 0xFF);
+            }
+            return value;
+        }
+
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = block[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Invalid number in TAR header");
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean hasValidChecksum(byte[] block) throws IOException {
+        long expected = parseNumber(block, 148, 8);
+        long actual = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            actual += i >= 148 && i < 156 ? ' ' : block[i] & 0xFF;
+        }
+        return expected == actual;
+    }
+
+    private static List<String[]> parsePax(byte[] bytes) {
+        List<String[]> records = new ArrayList<>();
+        int position = 0;
+
+        while (position < bytes.length) {
+            int space = position;
+            while (space < bytes.length && bytes[space] != ' ') {
+                space++;
+            }
+            if (space == bytes.length) {
+                break;
+            }
+
+            int recordLength;
+            try {
+                recordLength = Integer.parseInt(
+                        new String(bytes, position, space - position, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                break;
+            }
+            if (recordLength <= space - position + 2 || position + recordLength > bytes.length) {
+                break;
+            }
+
+            // "<length> <key>=<value>\n", the length covers the whole record
+            int valueEnd = position + recordLength - 1;
+            String record = new String(bytes, space + 1, valueEnd - space - 1, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                records.add(new String[]{record.substring(0, equals), record.substring(equals + 1)});
+            }
+            position += recordLength;
+        }
+
+        return records;
+    }
+
+    private static byte[] readData(FileChannel channel, long offset, long size) throws IOException {
+        if (size > 1024 * 1024) {
+            throw new IOException("TAR extended header is too large");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        readFully(channel, buffer, offset);
+        return buffer.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("TAR archive is truncated");
+            }
+            position += read;
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String trimNul(String value) {
+        int nul = value.indexOf('\0');
+        return nul >= 0 ? value.substring(0, nul) : value;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * POSIX (ustar) TAR writer. Names longer than the ustar name field, non-ASCII names and files of 8 GB
+ * and more are described by a PAX extended header. File bodies are copied with
+ * {@link FileChannel#transferTo}, which the JDK turns into {@code sendfile} whenever the target
+ * channel is backed by a file or a socket.
+ */
+class TarStreamWriter {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final byte[] header = new byte[BLOCK_SIZE];
+
+    TarStreamWriter(OutputStream out) {
+        this.out = out;
+        this.channel = Channels.newChannel(out);
+    }
+
+    void writeEntry(ArchiveEntry entry) throws IOException {
+        String name = entry.name();
+        long size = entry.directory() ? 0 : entry.size();
+        long mtime = entry.lastModified() / 1000;
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean longName = nameBytes.length > 100 || !isAscii(nameBytes);
+        boolean largeSize = size > MAX_OCTAL_SIZE;
+
+        if (longName || largeSize) {
+            StringBuilder records = new StringBuilder();
+            if (longName) {
+                records.append(paxRecord("path", name));
+            }
+            if (largeSize) {
+                records.append(paxRecord("size", Long.toString(size)));
+            }
+            byte[] pax = records.toString().getBytes(StandardCharsets.UTF_8);
+
+            writeHeader("PaxHeaders/" + Math.abs(name.hashCode()), pax.length, mtime, 'x', false);
+            out.write(pax);
+            pad(pax.length);
+        }
+
+        writeHeader(name, largeSize ? 0 : size, mtime, entry.directory() ? '5' : '0', entry.directory());
+
+        if (!entry.directory()) {
+            writeBody(entry, size);
+            pad(size);
+        }
+    }
+
+    void finish() throws IOException {
+        Arrays.fill(header, (byte) 0);
+        out.write(header);
+        out.write(header);
+        out.flush();
+    }
+
+    private void writeBody(ArchiveEntry entry, long size) throws IOException {
+        try (FileChannel file = FileChannel.open(entry.file().toPath(), StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < size) {
+                long transferred = file.transferTo(position, size - position, channel);
+                if (transferred == 0 && position >= file.size()) {
+                    throw new IOException("File " + entry.file() + " was truncated while archiving");
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    private void writeHeader(String name, long size, long mtime, char type, boolean directory) throws IOException {
+        Arrays.fill(header, (byte) 0);
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+
+        putOctal(directory ? 0755 : 0644, 100, 8);
+        putOctal(0, 108, 8);
+        putOctal(0, 116, 8);
+        putOctal(size, 124, 12);
+        putOctal(mtime, 136, 12);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        putOctal(checksum, 148, 7);
+        header[155] = ' ';
+
+        out.write(header);
+    }
+
+    private void putOctal(long value, int offset, int length) {
+        String octal = Long.toOctalString(value);
+        int digits = length - 1;
+        int start = offset + digits - octal.length();
+
+        Arrays.fill(header, offset, start, (byte) '0');
+        System.arraycopy(octal.getBytes(StandardCharsets.US_ASCII), 0, header, start, octal.length());
+        header[offset + digits] = 0;
+    }
+
+    private void pad(long size) throws IOException {
+        int remainder = (int) (size % BLOCK_SIZE);
+        if (remainder > 0) {
+            out.write(new byte[BLOCK_SIZE - remainder]);
+        }
+    }
+
+    private static String paxRecord(String key, String value) {
+        int payload = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int length = payload + Integer.toString(payload).length();
+        if (Integer.toString(length).length() != Integer.toString(payload).length()) {
+            length = payload + Integer.toString(length).length();
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    private static boolean isAscii(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
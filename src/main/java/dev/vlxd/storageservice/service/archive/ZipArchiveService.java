@@ -16,65 +16,309 @@
 package dev.vlxd.storageservice.service.archive;
 
 import dev.vlxd.storageservice.exception.ArchiveException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 @Service
 public class ZipArchiveService implements IArchiveService {
 
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final ExecutorService executor;
+    private final Crc32Cache crc32Cache;
+    private final int parallelism;
+    private final int blockSize;
+
+    @Autowired
+    public ZipArchiveService(
+            @Qualifier("zipArchiveExecutor") ExecutorService executor,
+            Crc32Cache crc32Cache,
+            @Value("${archive.zip.parallelism}") int parallelism,
+            @Value("${archive.zip.block-size}") int blockSize
+    ) {
+        this.executor = executor;
+        this.crc32Cache = crc32Cache;
+        this.parallelism = Math.max(1, parallelism);
+        this.blockSize = Math.max(DICTIONARY_SIZE, blockSize);
+    }
+
     @Override
-    public void archive(File file, String root, OutputStream outputStream) {
-        try (ZipOutputStream zos = new ZipOutputStream(outputStream)) {
+    public void archive(List<ArchiveEntry> entries, ArchiveOptions options, ArchivePhases phases,
+                        OutputStream outputStream) {
+        ZipStreamWriter writer = new ZipStreamWriter(outputStream);
+
+        // decided once per entry, the pipeline asks ahead of the writer
+        Map<ArchiveEntry, Boolean> decisions = new IdentityHashMap<>();
+        Predicate<ArchiveEntry> deflated = entry -> decisions.computeIfAbsent(entry, key ->
+                options.compressionLevel() != Deflater.NO_COMPRESSION
+                        && (!options.adaptive() || CompressionAdvisor.isCompressible(key)));
 
-            archiveRecursively(file, root, zos);
+        try (DeflatePipeline pipeline = new DeflatePipeline(entries, deflated, options.compressionLevel(), phases)) {
+            for (ArchiveEntry entry : entries) {
+                if (entry.directory()) {
+                    writer.writeDirectory(entry.name(), entry.lastModified());
+                    continue;
+                }
+
+                phases.source(entry.size());
+
+                if (!deflated.test(entry)) {
+                    writeStored(writer, entry);
+                    continue;
+                }
 
-            zos.flush();
+                writer.beginEntry(entry.name(), entry.lastModified(), ZipStreamWriter.METHOD_DEFLATED, entry.size());
+
+                long crc = 0;
+                long compressedSize = 0;
+                DeflatedBlock block;
+
+                do {
+                    block = pipeline.next();
+                    writer.write(block.data(), 0, block.length());
+                    crc = Crc32Combiner.combine(crc, block.crc(), block.size());
+                    compressedSize += block.length();
+                } while (!block.last());
+
+                writer.endEntry(crc, compressedSize, entry.size());
+            }
+
+            writer.finish();
         } catch (IOException e) {
             throw new ArchiveException("Failed to process ZIP output stream", e);
         }
     }
 
-    private void archiveRecursively(File file, String parent, ZipOutputStream zos) {
-        if (file.isDirectory()) {
-            try {
-                String folderName = parent + "/";
-                zos.putNextEntry(new ZipEntry(folderName));
-                zos.closeEntry();
-
-                try (Stream<Path> paths = Files.list(file.toPath())) {
-                    paths.forEach(child -> archiveRecursively(
-                            child.toFile(),
-                            folderName + child.getFileName(), zos
-                    ));
+    private void writeStored(ZipStreamWriter writer, ArchiveEntry entry) throws IOException {
+        // stored entries need the CRC in the local header, so an uncached file is read twice; the second
+        // pass is usually served from the page cache
+        writer.beginStoredEntry(entry.name(), entry.lastModified(), crc32Cache.crc(entry), entry.size());
+        copyStored(writer, entry, 0, entry.size(), new byte[COPY_BUFFER_SIZE]);
+        writer.endStoredEntry();
+    }
+
+    /**
+     * Writes {@code count} bytes of a stored entry, starting at {@code offset} within the file.
+     */
+    static void copyStored(ZipStreamWriter writer, ArchiveEntry entry, long offset, long count, byte[] buffer)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(entry.file().toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            long end = offset + count;
+            while (position < end) {
+                int read = channel.read(ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position)),
+                        position);
+                if (read < 0) {
+                    throw new IOException("File " + entry.file() + " was truncated while archiving");
+                }
+                writer.write(buffer, 0, read);
+                position += read;
+            }
+        }
+    }
+
+    private static DeflatedBlock deflate(File file, long offset, int length, boolean last, int level)
+            throws IOException {
+        long started = System.nanoTime();
+        int dictionaryLength = (int) Math.min(offset, DICTIONARY_SIZE);
+        byte[] input = new byte[dictionaryLength + length];
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(input);
+            long position = offset - dictionaryLength;
+
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("File " + file + " was truncated while archiving");
+                }
+                position += read;
+            }
+        }
+
+        long read = System.nanoTime();
+        CRC32 crc = new CRC32();
+        crc.update(input, dictionaryLength, length);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionaryLength > 0) {
+                deflater.setDictionary(input, 0, dictionaryLength);
+            }
+            deflater.setInput(input, dictionaryLength, length);
+
+            byte[] output = new byte[length + (length >> 12) + (length >> 14) + 64];
+            int produced = 0;
+
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (produced == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    produced += deflater.deflate(output, produced, output.length - produced);
+                }
+            } else {
+                // sync flush ends the block on a byte boundary, so blocks can simply be concatenated
+                while (true) {
+                    if (produced == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    int free = output.length - produced;
+                    int count = deflater.deflate(output, produced, free, Deflater.SYNC_FLUSH);
+                    produced += count;
+                    if (count < free) {
+                        break;
+                    }
+                }
+            }
+
+            return new DeflatedBlock(output, produced, crc.getValue(), length, last,
+                    read - started, System.nanoTime() - read);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param readNanos    the time spent reading the block
+     * @param deflateNanos the time spent computing its CRC and deflating it
+     */
+    private record DeflatedBlock(byte[] data, int length, long crc, long size, boolean last,
+                                 long readNanos, long deflateNanos) {
+    }
+
+    /**
+     * Splits every file into fixed size blocks and deflates them ahead of the writer, keeping at most
+     * {@code parallelism} blocks in flight for one request. Blocks are handed out strictly in archive order.
+     * Time spent waiting for a block is split between reading and compressing in the proportion the block
+     * took to read and to deflate.
+     */
+    private final class DeflatePipeline implements AutoCloseable {
+
+        private final Iterator<Callable<DeflatedBlock>> tasks;
+        private final Deque<Future<DeflatedBlock>> inFlight = new ArrayDeque<>();
+        private final ArchivePhases phases;
+
+        private DeflatePipeline(List<ArchiveEntry> entries, Predicate<ArchiveEntry> deflated, int level,
+                                ArchivePhases phases) {
+            this.tasks = new BlockIterator(entries, deflated, level);
+            this.phases = phases;
+        }
+
+        private DeflatedBlock next() throws IOException {
+            long started = System.nanoTime();
+            DeflatedBlock block = take();
+
+            long busy = block.readNanos() + block.deflateNanos();
+            if (busy > 0) {
+                long waited = System.nanoTime() - started;
+                phases.compressed((long) ((double) waited * block.deflateNanos() / busy));
+            }
+            return block;
+        }
+
+        private DeflatedBlock take() throws IOException {
+            if (parallelism == 1) {
+                try {
+                    return tasks.next().call();
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
                 }
-            } catch (IOException e) {
-                throw new ArchiveException("Failed to process files to archive", e);
             }
-        } else {
-            try (FileInputStream fis = new FileInputStream(file)) {
-                ZipEntry zipEntry = new ZipEntry(parent);
-                zos.putNextEntry(zipEntry);
 
-                byte[] buffer = new byte[8 * 1024];
-                int bytesRead;
+            while (inFlight.size() < parallelism && tasks.hasNext()) {
+                inFlight.add(executor.submit(tasks.next()));
+            }
+
+            Future<DeflatedBlock> head = inFlight.poll();
+            if (head == null) {
+                throw new NoSuchElementException("No more blocks to deflate");
+            }
 
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    zos.write(buffer, 0, bytesRead);
+            try {
+                return head.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ArchiveException("Interrupted while deflating files", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
                 }
+                throw new ArchiveException("Failed to deflate files", e.getCause());
+            }
+        }
+
+        @Override
+        public void close() {
+            inFlight.forEach(future -> future.cancel(true));
+            inFlight.clear();
+        }
+    }
+
+    private final class BlockIterator implements Iterator<Callable<DeflatedBlock>> {
+
+        private final Iterator<ArchiveEntry> entries;
+        private final int level;
+        private ArchiveEntry entry;
+        private long offset;
 
-                zos.closeEntry();
-            } catch (IOException e) {
-                throw new ArchiveException("Failed to archive files to ZIP", e);
+        private BlockIterator(List<ArchiveEntry> entries, Predicate<ArchiveEntry> deflated, int level) {
+            this.entries = entries.stream().filter(entry -> !entry.directory()).filter(deflated).iterator();
+            this.level = level;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entry != null || entries.hasNext();
+        }
+
+        @Override
+        public Callable<DeflatedBlock> next() {
+            if (entry == null) {
+                entry = entries.next();
+                offset = 0;
             }
+
+            File file = entry.file();
+            long blockOffset = offset;
+            int length = (int) Math.min(blockSize, entry.size() - offset);
+            boolean last = blockOffset + length >= entry.size();
+
+            if (last) {
+                entry = null;
+            } else {
+                offset += length;
+            }
+
+            return () -> deflate(file, blockOffset, length, last, level);
         }
     }
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Low level ZIP container writer. Unlike {@link java.util.zip.ZipOutputStream} it accepts entry
+ * data that was already compressed elsewhere, which lets entries be deflated on worker threads
+ * and written out in order afterwards. Sizes and CRC of deflated entries are written in a data
+ * descriptor, stored entries carry them in the local header because readers such as
+ * {@link java.util.zip.ZipInputStream} can not delimit stored data otherwise. ZIP64 records are
+ * emitted whenever a size or an offset does not fit in 32 bits.
+ * <p>
+ * A writer can be restricted to a window of the archive: bytes outside the window are accounted for
+ * but not written, and entry data outside of it can be {@link #skip skipped} without being read.
+ */
+class ZipStreamWriter {
+
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final long ZIP64_THRESHOLD = 0xF0000000L;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+
+    private final OutputStream out;
+    private final long windowStart;
+    private final long windowEnd;
+    private final List<CentralRecord> records = new ArrayList<>();
+    private final byte[] scratch = new byte[64];
+
+    private long written;
+    private CentralRecord current;
+
+    ZipStreamWriter(OutputStream out) {
+        this(out, 0, Long.MAX_VALUE);
+    }
+
+    ZipStreamWriter(OutputStream out, long windowStart, long windowEnd) {
+        this.out = out;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+    }
+
+    void writeDirectory(String name, long lastModified) throws IOException {
+        CentralRecord record = new CentralRecord(name, lastModified, METHOD_STORED, 0, written, false);
+        record.directory = true;
+        writeLocalHeader(record);
+        records.add(record);
+    }
+
+    void beginEntry(String name, long lastModified, int method, long expectedSize) throws IOException {
+        if (current != null) {
+            throw new IllegalStateException("Previous entry is not closed");
+        }
+        boolean zip64 = expectedSize >= ZIP64_THRESHOLD;
+        current = new CentralRecord(name, lastModified, method, FLAG_DATA_DESCRIPTOR, written, zip64);
+        writeLocalHeader(current);
+    }
+
+    /**
+     * Starts a stored entry whose CRC and size are known up front. Exactly {@code size} bytes have to be
+     * written before {@link #endStoredEntry()}.
+     */
+    void beginStoredEntry(String name, long lastModified, long crc, long size) throws IOException {
+        if (current != null) {
+            throw new IllegalStateException("Previous entry is not closed");
+        }
+        boolean zip64 = size >= ZIP64_THRESHOLD;
+        current = new CentralRecord(name, lastModified, METHOD_STORED, 0, written, zip64);
+        current.crc = crc;
+        current.compressedSize = size;
+        current.size = size;
+        writeLocalHeader(current);
+    }
+
+    void endStoredEntry() throws IOException {
+        CentralRecord record = current;
+        current = null;
+
+        if (written - record.offset - localHeaderLength(record) != record.size) {
+            throw new IOException("Entry " + record.name + " does not match its declared size");
+        }
+        records.add(record);
+    }
+
+    void write(byte[] data, int offset, int length) throws IOException {
+        writeRaw(data, offset, length);
+    }
+
+    /**
+     * Accounts for entry data that lies outside the window and is therefore not produced.
+     */
+    void skip(long length) {
+        written += length;
+    }
+
+    void endEntry(long crc, long compressedSize, long size) throws IOException {
+        CentralRecord record = current;
+        current = null;
+
+        record.crc = crc;
+        record.compressedSize = compressedSize;
+        record.size = size;
+
+        int pos = putInt(scratch, 0, 0x08074b50L);
+        pos = putInt(scratch, pos, crc);
+        if (record.zip64) {
+            pos = putLong(scratch, pos, compressedSize);
+            pos = putLong(scratch, pos, size);
+        } else {
+            if (compressedSize >= ZIP64_MAGIC || size >= ZIP64_MAGIC) {
+                throw new IOException("Entry " + record.name + " exceeds 4 GB without ZIP64 header");
+            }
+            pos = putInt(scratch, pos, compressedSize);
+            pos = putInt(scratch, pos, size);
+        }
+        writeRaw(scratch, 0, pos);
+        records.add(record);
+    }
+
+    void finish() throws IOException {
+        long centralOffset = written;
+
+        for (CentralRecord record : records) {
+            writeCentralHeader(record);
+        }
+
+        long centralSize = written - centralOffset;
+        long count = records.size();
+
+        if (count >= 0xFFFF || centralSize >= ZIP64_MAGIC || centralOffset >= ZIP64_MAGIC) {
+            long zip64EndOffset = written;
+
+            int pos = putInt(scratch, 0, 0x06064b50L);
+            pos = putLong(scratch, pos, 44);
+            pos = putShort(scratch, pos, 45);
+            pos = putShort(scratch, pos, 45);
+            pos = putInt(scratch, pos, 0);
+            pos = putInt(scratch, pos, 0);
+            pos = putLong(scratch, pos, count);
+            pos = putLong(scratch, pos, count);
+            pos = putLong(scratch, pos, centralSize);
+            pos = putLong(scratch, pos, centralOffset);
+            writeRaw(scratch, 0, pos);
+
+            pos = putInt(scratch, 0, 0x07064b50L);
+            pos = putInt(scratch, pos, 0);
+            pos = putLong(scratch, pos, zip64EndOffset);
+            pos = putInt(scratch, pos, 1);
+            writeRaw(scratch, 0, pos);
+        }
+
+        int pos = putInt(scratch, 0, 0x06054b50L);
+        pos = putShort(scratch, pos, 0);
+        pos = putShort(scratch, pos, 0);
+        pos = putShort(scratch, pos, (int) Math.min(count, 0xFFFF));
+        pos = putShort(scratch, pos, (int) Math.min(count, 0xFFFF));
+        pos = putInt(scratch, pos, Math.min(centralSize, ZIP64_MAGIC));
+        pos = putInt(scratch, pos, Math.min(centralOffset, ZIP64_MAGIC));
+        pos = putShort(scratch, pos, 0);
+        writeRaw(scratch, 0, pos);
+
+        out.flush();
+    }
+
+    long getWritten() {
+        return written;
+    }
+
+    private void writeLocalHeader(CentralRecord record) throws IOException {
+        byte[] name = record.name.getBytes(StandardCharsets.UTF_8);
+        // with a data descriptor the CRC and sizes are not known yet and left zero here
+        boolean known = (record.flags & FLAG_DATA_DESCRIPTOR) == 0;
+
+        int pos = putInt(scratch, 0, 0x04034b50L);
+        pos = putShort(scratch, pos, record.zip64 ? 45 : 20);
+        pos = putShort(scratch, pos, record.flags | FLAG_UTF8);
+        pos = putShort(scratch, pos, record.method);
+        pos = putInt(scratch, pos, record.dosTime);
+        pos = putInt(scratch, pos, known ? record.crc : 0);
+        pos = putInt(scratch, pos, record.zip64 ? ZIP64_MAGIC : known ? record.compressedSize : 0);
+        pos = putInt(scratch, pos, record.zip64 ? ZIP64_MAGIC : known ? record.size : 0);
+        pos = putShort(scratch, pos, name.length);
+        pos = putShort(scratch, pos, record.zip64 ? 20 : 0);
+        writeRaw(scratch, 0, pos);
+        writeRaw(name, 0, name.length);
+
+        if (record.zip64) {
+            pos = putShort(scratch, 0, 0x0001);
+            pos = putShort(scratch, pos, 16);
+            pos = putLong(scratch, pos, known ? record.size : 0);
+            pos = putLong(scratch, pos, known ? record.compressedSize : 0);
+            writeRaw(scratch, 0, pos);
+        }
+    }
+
+    private static long localHeaderLength(CentralRecord record) {
+        return 30 + record.name.getBytes(StandardCharsets.UTF_8).length + (record.zip64 ? 20 : 0);
+    }
+
+    private void writeCentralHeader(CentralRecord record) throws IOException {
+        byte[] name = record.name.getBytes(StandardCharsets.UTF_8);
+
+        boolean sizeOverflow = record.size >= ZIP64_MAGIC;
+        boolean compressedOverflow = record.compressedSize >= ZIP64_MAGIC;
+        boolean offsetOverflow = record.offset >= ZIP64_MAGIC;
+        int extraLength = (sizeOverflow ? 8 : 0) + (compressedOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+        boolean zip64 = record.zip64 || extraLength > 0;
+
+        int pos = putInt(scratch, 0, 0x02014b50L);
+        pos = putShort(scratch, pos, (3 << 8) | (zip64 ? 45 : 20));
+        pos = putShort(scratch, pos, zip64 ? 45 : 20);
+        pos = putShort(scratch, pos, record.flags | FLAG_UTF8);
+        pos = putShort(scratch, pos, record.method);
+        pos = putInt(scratch, pos, record.dosTime);
+        pos = putInt(scratch, pos, record.crc);
+        pos = putInt(scratch, pos, compressedOverflow ? ZIP64_MAGIC : record.compressedSize);
+        pos = putInt(scratch, pos, sizeOverflow ? ZIP64_MAGIC : record.size);
+        pos = putShort(scratch, pos, name.length);
+        pos = putShort(scratch, pos, extraLength > 0 ? extraLength + 4 : 0);
+        pos = putShort(scratch, pos, 0);
+        pos = putShort(scratch, pos, 0);
+        pos = putShort(scratch, pos, 0);
+        pos = putInt(scratch, pos, record.directory ? 0x41ED0010L : 0x81A40000L);
+        pos = putInt(scratch, pos, offsetOverflow ? ZIP64_MAGIC : record.offset);
+        writeRaw(scratch, 0, pos);
+        writeRaw(name, 0, name.length);
+
+        if (extraLength > 0) {
+            pos = putShort(scratch, 0, 0x0001);
+            pos = putShort(scratch, pos, extraLength);
+            if (sizeOverflow) {
+                pos = putLong(scratch, pos, record.size);
+            }
+            if (compressedOverflow) {
+                pos = putLong(scratch, pos, record.compressedSize);
+            }
+            if (offsetOverflow) {
+                pos = putLong(scratch, pos, record.offset);
+            }
+            writeRaw(scratch, 0, pos);
+        }
+    }
+
+    private void writeRaw(byte[] data, int offset, int length) throws IOException {
+        long from = Math.max(written, windowStart);
+        long to = Math.min(written + length, windowEnd);
+
+        if (from < to) {
+            out.write(data, offset + (int) (from - written), (int) (to - from));
+        }
+        written += length;
+    }
+
+    static long toDosTime(long time) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        int year = dateTime.getYear();
+
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        if (year > 2107) {
+            year = 2107;
+        }
+
+        return ((long) (year - 1980) << 25
+                | (long) dateTime.getMonthValue() << 21
+                | (long) dateTime.getDayOfMonth() << 16
+                | (long) dateTime.getHour() << 11
+                | (long) dateTime.getMinute() << 5
+                | (long) dateTime.getSecond() >> 1) & ZIP64_MAGIC;
+    }
+
+    private static int putShort(byte[] buffer, int pos, int value) {
+        buffer[pos] = (byte) value;
+        buffer[pos + 1] = (byte) (value >>> 8);
+        return pos + 2;
+    }
+
+    private static int putInt(byte[] buffer, int pos, long value) {
+        buffer[pos] = (byte) value;
+        buffer[pos + 1] = (byte) (value >>> 8);
+        buffer[pos + 2] = (byte) (value >>> 16);
+        buffer[pos + 3] = (byte) (value >>> 24);
+        return pos + 4;
+    }
+
+    private static int putLong(byte[] buffer, int pos, long value) {
+        pos = putInt(buffer, pos, value);
+        return putInt(buffer, pos, value >>> 32);
+    }
+
+    private static final class CentralRecord {
+        private final String name;
+        private final long dosTime;
+        private final int method;
+        private final int flags;
+        private final long offset;
+        private final boolean zip64;
+        private boolean directory;
+        private long crc;
+        private long compressedSize;
+        private long size;
+
+        private CentralRecord(String name, long lastModified, int method, int flags, long offset, boolean zip64) {
+            this.name = name;
+            this.dosTime = toDosTime(lastModified);
+            this.method = method;
+            this.flags = flags;
+            this.offset = offset;
+            this.zip64 = zip64;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.batch;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.exception.BatchRequestException;
+import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.service.archive.ArchiveOptions;
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import dev.vlxd.storageservice.service.trash.DeletionJob;
+import dev.vlxd.storageservice.service.trash.DeletionJobService;
+import dev.vlxd.storageservice.service.trash.DeletionJobStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Operations on many file ids in one request. Deletes move every file to the trash as its own deletion job,
+ * on a bounded pool shared by all batch requests; stats are index lookups and run inline. Results are reported
+ * per item, in request order; a failing item does not fail the batch.
+ */
+@Service
+public class BatchService {
+
+    private static final String DEFAULT_ARCHIVE_NAME = "archive";
+
+    private final IStorageService storageService;
+    private final DeletionJobService deletionJobService;
+    private final ExecutorService executor;
+    private final int maxItems;
+
+    @Autowired
+    public BatchService(
+            IStorageService storageService,
+            DeletionJobService deletionJobService,
+            @Qualifier("batchDeleteExecutor") ExecutorService executor,
+            @Value("${batch.max-items}") int maxItems
+    ) {
+        this.storageService = storageService;
+        this.deletionJobService = deletionJobService;
+        this.executor = executor;
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * Validates an archive request before anything is written to the response.
+     *
+     * @return the name of the archive root directory
+     */
+    public String prepareArchive(BatchArchiveRequest request) {
+        validate(request.fileIds());
+
+        String name = request.name() == null || request.name().isBlank() ? DEFAULT_ARCHIVE_NAME : request.name();
+        if (name.contains("/") || name.contains("\\") || name.equals(".") || name.equals("..")) {
+            throw new BatchRequestException("Archive name must be a plain file name");
+        }
+
+        options(request);
+        request.fileIds().forEach(storageService::checkFile);
+        return name;
+    }
+
+    public void archive(BatchArchiveRequest request, String name, OutputStream outputStream) {
+        storageService.archiveFiles(archiveType(request), request.fileIds(), name, options(request), outputStream);
+    }
+
+    public static ArchiveType archiveType(BatchArchiveRequest request) {
+        return request.archiveType() != null ? request.archiveType() : ArchiveType.ZIP;
+    }
+
+    private static ArchiveOptions options(BatchArchiveRequest request) {
+        return new ArchiveOptions(
+                request.compressionLevel() != null
+                        ? request.compressionLevel()
+                        : ArchiveOptions.DEFAULT.compressionLevel(),
+                request.adaptive() != null ? request.adaptive() : ArchiveOptions.DEFAULT.adaptive()
+        );
+    }
+
+    public List<DeleteResult> delete(List<String> fileIds) {
+        validate(fileIds);
+
+        List<Future<DeleteResult>> futures = new ArrayList<>(fileIds.size());
+        for (String fileId : fileIds) {
+            futures.add(executor.submit(() -> {
+                try {
+                    DeletionJobStatus job = deletionJobService.delete(fileId);
+                    return new DeleteResult(fileId, job.state() == DeletionJob.State.TRASHED, job.id(), job.error());
+                } catch (RuntimeException e) {
+                    return new DeleteResult(fileId, false, null, e.getMessage());
+                }
+            }));
+        }
+
+        List<DeleteResult> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<DeleteResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while deleting files", e);
+        } catch (ExecutionException e) {
+            throw new StorageException("Failed to delete files", e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+
+        return results;
+    }
+
+    public List<StatResult> stat(List<String> fileIds) {
+        validate(fileIds);
+
+        List<StatResult> results = new ArrayList<>(fileIds.size());
+        for (String fileId : fileIds) {
+            results.add(stat(fileId));
+        }
+        return results;
+    }
+
+    private StatResult stat(String fileId) {
+        Optional<FileMetadata> metadata;
+        try {
+            metadata = storageService.getMetadata(fileId);
+        } catch (RuntimeException e) {
+            return new StatResult(fileId, StatResult.Status.FAILED, null, e.getMessage());
+        }
+
+        if (metadata.isPresent()) {
+            return new StatResult(fileId, StatResult.Status.FILE, metadata.get(), null);
+        }
+
+        try {
+            storageService.checkFile(fileId);
+            return new StatResult(fileId, StatResult.Status.DIRECTORY, null, null);
+        } catch (StorageException e) {
+            return new StatResult(fileId, StatResult.Status.NOT_FOUND, null, null);
+        }
+    }
+
+    private void validate(List<String> fileIds) {
+        if (fileIds == null || fileIds.isEmpty()) {
+            throw new BatchRequestException("Batch must contain at least one file id");
+        }
+        if (fileIds.size() > maxItems) {
+            throw new BatchRequestException("Batch must not contain more than " + maxItems + " file ids");
+        }
+        if (fileIds.stream().anyMatch(fileId -> fileId == null)) {
+            throw new BatchRequestException("File ids must not be null");
+        }
+    }
+}
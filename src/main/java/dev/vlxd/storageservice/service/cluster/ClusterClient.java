@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.cluster;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * HTTP calls between cluster nodes. Bodies are streamed in both directions, a proxied transfer never holds
+ * more than a buffer of the file in memory.
+ */
+@Component
+public class ClusterClient {
+
+    /**
+     * Marks a request that was already routed, the receiving node serves it from its own storage.
+     */
+    public static final String FORWARDED = "X-Cluster-Forwarded";
+
+    /**
+     * Marks a write sent by the primary to a replica, or by the rebalancer to a new owner; it is stored
+     * without being replicated again.
+     */
+    public static final String REPLICA = "X-Cluster-Replica";
+
+    static final Set<String> HOP_BY_HOP_HEADERS = Set.of(
+            "connection", "keep-alive", "transfer-encoding", "te", "trailer", "upgrade",
+            "proxy-authorization", "proxy-authenticate");
+
+    // set by the HTTP client itself
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("host", "content-length", "expect", "http2-settings");
+
+    private final ClusterRing clusterRing;
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+
+    @Autowired
+    public ClusterClient(
+            ClusterRing clusterRing,
+            @Value("${cluster.connect-timeout}") long connectTimeout,
+            @Value("${cluster.request-timeout}") long requestTimeout
+    ) {
+        this.clusterRing = clusterRing;
+        this.requestTimeout = Duration.ofMillis(requestTimeout);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    /**
+     * Sends the request to the node as it was received, with {@code body} as the request body.
+     *
+     * @return the response with its body still to be read
+     */
+    public HttpResponse<InputStream> forward(ClusterNode node, HttpServletRequest request, InputStream body)
+            throws IOException, InterruptedException {
+        String query = request.getQueryString();
+        HttpRequest.Builder builder = HttpRequest.newBuilder(
+                        node.resolve(request.getRequestURI() + (query != null ? "?" + query : "")))
+                .timeout(requestTimeout)
+                .header(FORWARDED, clusterRing.self().id());
+
+        for (String name : Collections.list(request.getHeaderNames())) {
+            String lowerCase = name.toLowerCase();
+            if (!HOP_BY_HOP_HEADERS.contains(lowerCase) && !RESTRICTED_HEADERS.contains(lowerCase)
+                    && !name.equalsIgnoreCase(FORWARDED)) {
+                for (String value : Collections.list(request.getHeaders(name))) {
+                    builder.header(name, value);
+                }
+            }
+        }
+
+        long contentLength = request.getContentLengthLong();
+        HttpRequest.BodyPublisher publisher;
+        if (contentLength == 0 || (contentLength < 0 && request.getHeader(HttpHeaders.TRANSFER_ENCODING) == null)) {
+            publisher = HttpRequest.BodyPublishers.noBody();
+        } else if (contentLength > 0) {
+            publisher = HttpRequest.BodyPublishers.fromPublisher(
+                    HttpRequest.BodyPublishers.ofInputStream(() -> body), contentLength);
+        } else {
+            publisher = HttpRequest.BodyPublishers.ofInputStream(() -> body);
+        }
+
+        return httpClient.send(builder.method(request.getMethod(), publisher).build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    /**
+     * Stores a copy of the file on the node.
+     */
+    public void replicate(ClusterNode node, String fileId, Resource resource) throws IOException, InterruptedException {
+        long contentLength = resource.contentLength();
+        HttpRequest request = HttpRequest.newBuilder(node.resolve("/v1/storage/upload"))
+                .timeout(requestTimeout)
+                .header(REPLICA, clusterRing.self().id())
+                .header(FORWARDED, clusterRing.self().id())
+                .header(HttpHeaders.CONTENT_TYPE, "application/octet-stream")
+                .header("X-Filename", fileId)
+                .POST(HttpRequest.BodyPublishers.fromPublisher(
+                        HttpRequest.BodyPublishers.ofInputStream(() -> {
+                            try {
+                                return resource.getInputStream();
+                            } catch (IOException e) {
+                                throw new IllegalStateException("Failed to read " + fileId, e);
+                            }
+                        }), contentLength))
+                .build();
+
+        expectSuccess(node, send(request));
+    }
+
+    /**
+     * Deletes the copy of the file on the node.
+     */
+    public void delete(ClusterNode node, String fileId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(node.resolve("/v1/storage/delete?fileId=" + encode(fileId)))
+                .timeout(requestTimeout)
+                .header(REPLICA, clusterRing.self().id())
+                .header(FORWARDED, clusterRing.self().id())
+                .DELETE()
+                .build();
+
+        expectSuccess(node, send(request));
+    }
+
+    /**
+     * @return the ETag and modification time of the node's copy of the file, or {@code null} when it holds none
+     */
+    public RemoteCopy stat(ClusterNode node, String fileId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(node.resolve("/v1/storage/resource?fileId=" + encode(fileId)))
+                .timeout(requestTimeout)
+                .header(FORWARDED, clusterRing.self().id())
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+
+        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        expectSuccess(node, response.statusCode());
+
+        return new RemoteCopy(
+                response.headers().firstValue(HttpHeaders.ETAG).orElse(null),
+                response.headers().firstValue(HttpHeaders.LAST_MODIFIED)
+                        .map(value -> ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)
+                                .toInstant().toEpochMilli())
+                        .orElse(-1L));
+    }
+
+    private int send(HttpRequest request) throws IOException, InterruptedException {
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static void expectSuccess(ClusterNode node, int status) throws IOException {
+        if (status / 100 != 2) {
+            throw new IOException("Node " + node.id() + " answered " + status);
+        }
+    }
+
+    private static String encode(String fileId) {
+        return URLEncoder.encode(fileId, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param lastModified in milliseconds, with the one second precision of HTTP dates
+     */
+    public record RemoteCopy(String eTag, long lastModified) {
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.cluster;
+
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
+import dev.vlxd.storageservice.service.metadata.MetadataIndex;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import dev.vlxd.storageservice.service.storage.ListEntry;
+import dev.vlxd.storageservice.service.storage.ListPage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Moves the files this node holds to the nodes that own them. A file this node does not own is copied to
+ * each of its owners and then removed here, once every owner holds identical content. An owner's copy is
+ * only replaced when it differs and is older, a conflicting newer copy keeps both for an operator to resolve.
+ * When the ring changed since the last completed run, the owners of the files this node still owns are
+ * checked as well, so that a newly added node receives its share; the placement of that run is kept in the
+ * metadata directory. Runs start once the application is ready and every {@code cluster.rebalance.interval},
+ * copying is throttled to {@code cluster.rebalance.max-bytes-per-second}.
+ */
+@Slf4j
+@Component
+public class ClusterRebalancer {
+
+    private static final String STATE = "cluster";
+    private static final int PAGE_SIZE = 1000;
+
+    private final ClusterRing clusterRing;
+    private final ClusterClient clusterClient;
+    private final IStorageService storageService;
+    private final long maxBytesPerSecond;
+    private final Path stateFile;
+
+    private Thread worker;
+
+    @Autowired
+    public ClusterRebalancer(
+            ClusterRing clusterRing,
+            ClusterClient clusterClient,
+            IStorageService storageService,
+            @Value("${cluster.rebalance.max-bytes-per-second}") long maxBytesPerSecond,
+            @Value("${storage.metadata.directory}") String metadataDirectory
+    ) {
+        this.clusterRing = clusterRing;
+        this.clusterClient = clusterClient;
+        this.storageService = storageService;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.stateFile = Paths.get(metadataDirectory).resolve(STATE);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        start();
+    }
+
+    @Scheduled(initialDelayString = "${cluster.rebalance.interval}", fixedDelayString = "${cluster.rebalance.interval}")
+    public synchronized void start() {
+        if (!clusterRing.isEnabled() || (worker != null && worker.isAlive())) {
+            return;
+        }
+
+        worker = new Thread(this::rebalance, "cluster-rebalancer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * @return the number of files copied to other nodes
+     */
+    public long rebalance() {
+        boolean ringChanged = !clusterRing.describe().equals(readState());
+        long started = System.currentTimeMillis();
+        long copied = 0;
+        long bytes = 0;
+        long failed = 0;
+
+        try {
+            String cursor = null;
+            do {
+                ListPage page = storageService.list("", null, cursor, PAGE_SIZE, true);
+
+                for (ListEntry entry : page.entries()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        log.info("Cluster rebalancing interrupted after {} files", copied);
+                        return copied;
+                    }
+                    if (entry.directory()) {
+                        continue;
+                    }
+
+                    try {
+                        long size = move(entry.fileId(), ringChanged);
+                        if (size >= 0) {
+                            copied++;
+                            bytes += size;
+                            throttle(started, bytes);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failed++;
+                        log.warn("Failed to rebalance {}", entry.fileId(), e);
+                    }
+                }
+
+                cursor = page.nextCursor();
+            } while (cursor != null);
+
+            // a failed file is retried by the next full run
+            if (failed == 0) {
+                writeState();
+            }
+            if (copied > 0 || failed > 0) {
+                log.info("Cluster rebalancing copied {} files ({} bytes) in {} ms, {} failed",
+                        copied, bytes, System.currentTimeMillis() - started, failed);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cluster rebalancing failed after {} files", copied, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return copied;
+    }
+
+    /**
+     * @return the size of the file if it was copied to another node, or {@code -1}
+     */
+    private long move(String fileId, boolean checkOwned) throws IOException, InterruptedException {
+        List<ClusterNode> owners = clusterRing.owners(fileId);
+        boolean owned = owners.contains(clusterRing.self());
+
+        if (owned && !checkOwned) {
+            return -1;
+        }
+
+        FileMetadata metadata = storageService.getMetadata(fileId)
+                .orElseThrow(() -> new IOException("File " + fileId + " is not indexed"));
+        String eTag = "\"" + (metadata.checksum() != null ? metadata.checksum() : checksum(fileId)) + "\"";
+        boolean confirmed = true;
+        long copied = -1;
+
+        for (ClusterNode owner : owners) {
+            if (owner.equals(clusterRing.self())) {
+                continue;
+            }
+
+            ClusterClient.RemoteCopy copy = clusterClient.stat(owner, fileId);
+            if (copy != null && eTag.equals(copy.eTag())) {
+                continue;
+            }
+            // HTTP dates have whole seconds, a copy from the same second is not known to be older
+            if (copy != null && copy.lastModified() >= metadata.lastModified() / 1000 * 1000) {
+                log.warn("Kept {}, node {} holds a different revision that is not older", fileId, owner.id());
+                confirmed = false;
+                continue;
+            }
+
+            Resource resource = storageService.loadAsResource(fileId);
+            clusterClient.replicate(owner, fileId, resource);
+            copied = Math.max(copied, 0) + resource.contentLength();
+
+            copy = clusterClient.stat(owner, fileId);
+            confirmed &= copy != null && eTag.equals(copy.eTag());
+        }
+
+        // only dropped once every owner confirmed identical content, anything else is retried by the next run
+        if (!owned && confirmed) {
+            storageService.deleteFile(fileId);
+        }
+        return copied;
+    }
+
+    private String checksum(String fileId) throws IOException {
+        MessageDigest digest = MetadataIndex.newDigest();
+        try (InputStream inputStream = storageService.loadAsResource(fileId).getInputStream()) {
+            inputStream.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void throttle(long started, long bytes) throws InterruptedException {
+        if (maxBytesPerSecond <= 0) {
+            return;
+        }
+
+        long ahead = bytes * 1000 / maxBytesPerSecond - (System.currentTimeMillis() - started);
+        if (ahead > 0) {
+            Thread.sleep(ahead);
+        }
+    }
+
+    private String readState() {
+        try {
+            return Files.exists(stateFile) ? Files.readString(stateFile) : null;
+        } catch (IOException e) {
+            log.warn("Failed to read cluster state {}", stateFile, e);
+            return null;
+        }
+    }
+
+    private void writeState() throws IOException {
+        Files.createDirectories(stateFile.getParent());
+        Path temp = stateFile.resolveSibling(STATE + ".tmp");
+        Files.writeString(temp, clusterRing.describe());
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.cluster;
+
+import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.service.storage.VolumeLayout;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Static cluster membership and placement. Nodes are placed on a consistent hash ring with
+ * {@code cluster.virtual-nodes} points each; a file is owned by the first {@code cluster.replication}
+ * distinct nodes clockwise from the hash of its file id. Adding a node therefore only takes over the files
+ * that now hash to it, the first owner is the primary that receives writes and orders their replication.
+ */
+@Component
+public class ClusterRing {
+
+    private final boolean enabled;
+    private final ClusterNode self;
+    private final List<ClusterNode> nodes;
+    private final int replication;
+    private final int virtualNodes;
+
+    private final long[] ringHashes;
+    private final int[] ringNodes;
+
+    @Autowired
+    public ClusterRing(
+            @Value("${cluster.enabled}") boolean enabled,
+            @Value("${cluster.node-id}") String nodeId,
+            @Value("${cluster.nodes}") String[] nodes,
+            @Value("${cluster.replication}") int replication,
+            @Value("${cluster.virtual-nodes}") int virtualNodes
+    ) {
+        this.enabled = enabled;
+        this.virtualNodes = Math.max(1, virtualNodes);
+
+        Map<String, ClusterNode> configured = new LinkedHashMap<>();
+        for (String node : nodes) {
+            if (node.isBlank()) {
+                continue;
+            }
+
+            String[] parts = node.trim().split("=", 2);
+            if (parts.length != 2 || parts[0].isBlank()) {
+                throw new StorageException("Cluster nodes must be given as <id>=<url>, got " + node);
+            }
+            configured.put(parts[0].trim(), new ClusterNode(parts[0].trim(), URI.create(parts[1].trim())));
+        }
+        this.nodes = List.copyOf(configured.values());
+        this.self = configured.get(nodeId.trim());
+        this.replication = Math.min(Math.max(1, replication), Math.max(1, this.nodes.size()));
+
+        if (enabled && self == null) {
+            throw new StorageException("Cluster node id " + nodeId + " is not one of the configured nodes");
+        }
+
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int node = 0; node < this.nodes.size(); node++) {
+            for (int point = 0; point < this.virtualNodes; point++) {
+                ring.put(VolumeLayout.hash(this.nodes.get(node).id() + "#" + point), node);
+            }
+        }
+        this.ringHashes = ring.keySet().stream().mapToLong(Long::longValue).toArray();
+        this.ringNodes = ring.values().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public ClusterNode self() {
+        return self;
+    }
+
+    public List<ClusterNode> nodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the nodes that hold the file, primary first
+     */
+    public List<ClusterNode> owners(String fileId) {
+        List<ClusterNode> owners = new ArrayList<>(replication);
+        if (ringHashes.length == 0) {
+            return owners;
+        }
+
+        int index = Arrays.binarySearch(ringHashes, VolumeLayout.hash(key(fileId)));
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        for (int step = 0; step < ringHashes.length && owners.size() < replication; step++) {
+            ClusterNode node = nodes.get(ringNodes[(index + step) % ringHashes.length]);
+            if (!owners.contains(node)) {
+                owners.add(node);
+            }
+        }
+        return owners;
+    }
+
+    public boolean isOwner(String fileId) {
+        return owners(fileId).contains(self);
+    }
+
+    /**
+     * @return a description of the placement, equal on two runs exactly when every file has the same owners
+     */
+    public String describe() {
+        return nodes.stream().map(ClusterNode::id).sorted().toList()
+                + " replication=" + replication + " virtual-nodes=" + virtualNodes;
+    }
+
+    /**
+     * @return the file id in the form the storage services store it, so that every spelling of a path is
+     * placed on the same nodes
+     */
+    public static String key(String fileId) {
+        String normalized = Paths.get("/", fileId).normalize().toString().replace('\\', '/');
+        return normalized.startsWith("/") ? normalized.substring(1) : normalized;
+    }
+}
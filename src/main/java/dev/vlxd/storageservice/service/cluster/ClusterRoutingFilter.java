@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.cluster;
+
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import dev.vlxd.storageservice.service.storage.ListEntry;
+import dev.vlxd.storageservice.service.storage.ListPage;
+import dev.vlxd.storageservice.service.trash.DeletionJobService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Routes single-file requests to the nodes that own the file. Writes go to the primary owner, which stores
+ * the file and then replicates it to the other owners in the background; reads are served by the first owner
+ * that has the file, falling back to the next one when a node is unreachable or does not have it yet.
+ * A delete is replicated once the primary owner moved the file to the trash, and a file restored from the
+ * trash is replicated again like an upload.
+ * Directory listings, archives, batches and upload sessions are not routed, they work on the share of the
+ * files the receiving node holds.
+ */
+@Slf4j
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class ClusterRoutingFilter extends OncePerRequestFilter {
+
+    private record Route(String pattern, boolean write, Function<HttpServletRequest, String> fileId) {
+    }
+
+    private static final Map<String, Route> ROUTES = Map.of(
+            "POST /v1/storage/upload",
+            new Route("/v1/storage/upload", true, request -> request.getHeader("X-Filename")),
+            "POST /v1/storage/async/upload",
+            new Route("/v1/storage/async/upload", true, request -> request.getHeader("X-Filename")),
+            "DELETE /v1/storage/delete",
+            new Route("/v1/storage/delete", true, request -> request.getParameter("fileId")),
+            "GET /v1/storage/resource",
+            new Route("/v1/storage/resource", false, request -> request.getParameter("fileId")),
+            "HEAD /v1/storage/resource",
+            new Route("/v1/storage/resource", false, request -> request.getParameter("fileId")),
+            "GET /v1/storage/async/resource",
+            new Route("/v1/storage/async/resource", false, request -> request.getParameter("fileId"))
+    );
+
+    private static final String JOBS = "/v1/storage/delete/jobs/";
+    private static final String RESTORE = "/restore";
+    private static final int RESTORE_PAGE_SIZE = 1000;
+
+    private final ClusterRing clusterRing;
+    private final ClusterClient clusterClient;
+    private final IStorageService storageService;
+    private final DeletionJobService deletionJobService;
+    private final ExecutorService executor;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public ClusterRoutingFilter(
+            ClusterRing clusterRing,
+            ClusterClient clusterClient,
+            IStorageService storageService,
+            DeletionJobService deletionJobService,
+            @Qualifier("clusterExecutor") ExecutorService executor,
+            MeterRegistry meterRegistry
+    ) {
+        this.clusterRing = clusterRing;
+        this.clusterClient = clusterClient;
+        this.storageService = storageService;
+        this.deletionJobService = deletionJobService;
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !clusterRing.isEnabled() || !request.getRequestURI().startsWith("/v1/storage/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String uri = request.getRequestURI();
+
+        // jobs are served by the node that created them, which is the primary owner of the file
+        if ("POST".equals(request.getMethod()) && uri.startsWith(JOBS) && uri.endsWith(RESTORE)) {
+            chain.doFilter(request, response);
+            if (response.getStatus() / 100 == 2 && request.getHeader(ClusterClient.REPLICA) == null) {
+                replicateRestore(uri.substring(JOBS.length(), uri.length() - RESTORE.length()));
+            }
+            return;
+        }
+
+        Route route = ROUTES.get(request.getMethod() + " " + uri);
+        String fileId = route != null ? route.fileId().apply(request) : null;
+
+        // requests routed by another node are served here, whatever this node's view of the ring
+        if (fileId == null || request.getHeader(ClusterClient.FORWARDED) != null) {
+            serve(route, fileId, request, response, chain);
+            return;
+        }
+
+        fileId = ClusterRing.key(fileId);
+        List<ClusterNode> owners = clusterRing.owners(fileId);
+
+        if (route.write()) {
+            routeWrite(route, fileId, owners, request, response, chain);
+        } else {
+            routeRead(route, fileId, owners, request, response, chain);
+        }
+    }
+
+    private void routeWrite(Route route, String fileId, List<ClusterNode> owners, HttpServletRequest request,
+                            HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        ObservedInputStream body = new ObservedInputStream(request.getInputStream());
+
+        for (ClusterNode owner : owners) {
+            if (owner.equals(clusterRing.self())) {
+                serve(route, fileId, request, response, chain);
+                return;
+            }
+
+            try {
+                proxy(route, owner, request, response, body, false);
+                return;
+            } catch (IOException e) {
+                // the body can be sent only once, a node that went away while reading it can not be replaced
+                if (body.touched) {
+                    log.warn("Lost node {} while forwarding a write of {}", owner.id(), fileId, e);
+                    response.sendError(HttpStatus.BAD_GATEWAY.value());
+                    return;
+                }
+                log.debug("Node {} is unreachable, trying the next owner of {}", owner.id(), fileId, e);
+            }
+        }
+
+        response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "No owner of the file is reachable");
+    }
+
+    private void routeRead(Route route, String fileId, List<ClusterNode> owners, HttpServletRequest request,
+                           HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        for (int i = 0; i < owners.size(); i++) {
+            ClusterNode owner = owners.get(i);
+
+            if (owner.equals(clusterRing.self())) {
+                if (storageService.getMetadata(fileId).isPresent()) {
+                    serve(route, fileId, request, response, chain);
+                    return;
+                }
+                continue;
+            }
+
+            try {
+                if (proxy(route, owner, request, response, request.getInputStream(), i < owners.size() - 1)) {
+                    return;
+                }
+            } catch (IOException e) {
+                log.debug("Node {} is unreachable, trying the next owner of {}", owner.id(), fileId, e);
+            }
+        }
+
+        // none of the owners has it, this node may still hold it from before the ring changed
+        serve(route, fileId, request, response, chain);
+    }
+
+    /**
+     * @return {@code false} when the node answered that it does not have the file and {@code retry} was set,
+     * nothing was sent to the client then
+     */
+    private boolean proxy(Route route, ClusterNode node, HttpServletRequest request, HttpServletResponse response,
+                          InputStream body, boolean retry) throws IOException {
+        HttpResponse<InputStream> forwarded;
+
+        try {
+            forwarded = clusterClient.forward(node, request, body);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while forwarding to node " + node.id(), e);
+        }
+
+        try (InputStream inputStream = forwarded.body()) {
+            // a missing file is answered with 404, or 500 by the local storage, either way another owner may have it
+            if (retry && (forwarded.statusCode() == HttpStatus.NOT_FOUND.value() || forwarded.statusCode() >= 500)) {
+                return false;
+            }
+
+            counter("proxied", node.id()).increment();
+            request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, route.pattern());
+            response.setStatus(forwarded.statusCode());
+            forwarded.headers().map().forEach((name, values) -> {
+                if (ClusterClient.HOP_BY_HOP_HEADERS.contains(name.toLowerCase())) {
+                    return;
+                }
+                for (String value : values) {
+                    // job and resource links of the owner are only valid on the owner
+                    response.addHeader(name, name.equalsIgnoreCase(HttpHeaders.LOCATION) && value.startsWith("/")
+                            ? node.resolve(value).toString()
+                            : value);
+                }
+            });
+
+            inputStream.transferTo(response.getOutputStream());
+        }
+        return true;
+    }
+
+    private void serve(Route route, String fileId, HttpServletRequest request, HttpServletResponse response,
+                       FilterChain chain) throws ServletException, IOException {
+        chain.doFilter(request, response);
+
+        if (route == null || !route.write() || fileId == null || request.getHeader(ClusterClient.REPLICA) != null) {
+            return;
+        }
+
+        String key = ClusterRing.key(fileId);
+        boolean delete = "DELETE".equals(request.getMethod());
+
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    replicate(key, delete, response);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            replicate(key, delete, response);
+        }
+    }
+
+    private void replicate(String fileId, boolean delete, HttpServletResponse response) {
+        if (response.getStatus() / 100 != 2) {
+            return;
+        }
+
+        if (!delete) {
+            replicateFile(fileId);
+            return;
+        }
+
+        // the deletion runs in the background, replicas keep the file if it can not be moved to the trash here
+        String location = response.getHeader(HttpHeaders.LOCATION);
+        if (location != null && location.startsWith(JOBS)) {
+            deletionJobService.whenTrashed(location.substring(JOBS.length()),
+                    () -> replicate(fileId, owner -> clusterClient.delete(owner, fileId)));
+        }
+    }
+
+    private void replicateRestore(String jobId) {
+        String fileId = ClusterRing.key(deletionJobService.getStatus(jobId).fileId());
+
+        if (storageService.getMetadata(fileId).isPresent()) {
+            replicateFile(fileId);
+            return;
+        }
+
+        // a restored directory is replicated file by file, each to its own owners
+        String cursor = null;
+        do {
+            ListPage page = storageService.list(fileId, null, cursor, RESTORE_PAGE_SIZE, true);
+            for (ListEntry entry : page.entries()) {
+                if (!entry.directory()) {
+                    replicateFile(entry.fileId());
+                }
+            }
+            cursor = page.nextCursor();
+        } while (cursor != null);
+    }
+
+    private void replicateFile(String fileId) {
+        replicate(fileId, owner -> clusterClient.replicate(owner, fileId, storageService.loadAsResource(fileId)));
+    }
+
+    private void replicate(String fileId, Replication replication) {
+        for (ClusterNode owner : clusterRing.owners(fileId)) {
+            if (owner.equals(clusterRing.self())) {
+                continue;
+            }
+
+            try {
+                executor.execute(() -> {
+                    try {
+                        replication.apply(owner);
+                        counter("replicated", owner.id()).increment();
+                    } catch (IOException | RuntimeException e) {
+                        counter("replication-failed", owner.id()).increment();
+                        log.warn("Failed to replicate {} to node {}", fileId, owner.id(), e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                counter("replication-failed", owner.id()).increment();
+            }
+        }
+    }
+
+    private Counter counter(String outcome, String node) {
+        return Counter.builder("storage.cluster.requests")
+                .tag("outcome", outcome)
+                .tag("node", node)
+                .register(meterRegistry);
+    }
+
+    private interface Replication {
+
+        void apply(ClusterNode owner) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Remembers whether any of the request body was consumed.
+     */
+    private static final class ObservedInputStream extends FilterInputStream {
+
+        private volatile boolean touched;
+
+        ObservedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            touched = true;
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            touched = true;
+            return super.read(b, off, len);
+        }
+    }
+}
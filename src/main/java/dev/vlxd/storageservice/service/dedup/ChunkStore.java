@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.dedup;
+
+import dev.vlxd.storageservice.service.metadata.MetadataIndex;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Content-addressed chunk files, stored once under {@code ab/cd/<sha-256>}. A chunk is written to a
+ * temporary file and moved into place, so a chunk file is either absent or complete. Reusing a chunk
+ * refreshes its modification time, which protects it from a concurrent {@link #sweep}. Refreshing and
+ * deleting a chunk hold the same lock, so a chunk is either refreshed before the sweep checks it again, or
+ * already gone and written anew.
+ */
+public class ChunkStore {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int LOCK_STRIPES = 256;
+
+    private final Path directory;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public ChunkStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the hash of the chunk, which is its key in the store
+     */
+    public String write(byte[] data, int length) throws IOException {
+        MessageDigest digest = MetadataIndex.newDigest();
+        digest.update(data, 0, length);
+        String hash = HexFormat.of().formatHex(digest.digest());
+        Path path = path(hash);
+
+        synchronized (lock(hash)) {
+            if (refresh(path)) {
+                return hash;
+            }
+        }
+
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(hash + "." + UUID.randomUUID() + TEMP_SUFFIX);
+
+        try {
+            Files.write(temp, length == data.length ? data : Arrays.copyOf(data, length));
+
+            synchronized (lock(hash)) {
+                // written by a concurrent upload of the same content in the meantime
+                if (refresh(path)) {
+                    return hash;
+                }
+                try {
+                    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, path);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        return hash;
+    }
+
+    public byte[] read(FileManifest.Chunk chunk) throws IOException {
+        byte[] data = Files.readAllBytes(path(chunk.hash()));
+        if (data.length != chunk.length()) {
+            throw new IOException("Chunk " + chunk.hash() + " is corrupted");
+        }
+        return data;
+    }
+
+    /**
+     * Deletes every chunk that is not referenced and was not written or reused after {@code olderThan}.
+     *
+     * @return the number of deleted chunks
+     */
+    public long sweep(Set<String> referenced, long olderThan) throws IOException {
+        long deleted = 0;
+
+        try (DirectoryStream<Path> first = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path level1 : first) {
+                try (DirectoryStream<Path> second = Files.newDirectoryStream(level1, Files::isDirectory)) {
+                    for (Path level2 : second) {
+                        deleted += sweep(level2, referenced, olderThan);
+                    }
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+    private long sweep(Path folder, Set<String> referenced, long olderThan) throws IOException {
+        long deleted = 0;
+
+        try (DirectoryStream<Path> chunks = Files.newDirectoryStream(folder)) {
+            for (Path chunk : chunks) {
+                String name = chunk.getFileName().toString();
+                if (referenced.contains(name)) {
+                    continue;
+                }
+
+                // checked again under the lock, a writer may have reused the chunk since it was listed
+                synchronized (lock(name)) {
+                    try {
+                        if (Files.getLastModifiedTime(chunk).toMillis() < olderThan) {
+                            Files.deleteIfExists(chunk);
+                            if (!name.endsWith(TEMP_SUFFIX)) {
+                                deleted++;
+                            }
+                        }
+                    } catch (NoSuchFileException ignored) {
+                    }
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+    private Path path(String hash) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    /**
+     * Chunk file names start with the hash, so temporary files share the lock of their chunk.
+     */
+    private Object lock(String name) {
+        return locks[Integer.parseInt(name.substring(0, 2), 16)];
+    }
+
+    /**
+     * @return {@code false} when the chunk does not exist, other failures are thrown rather than treated as a refresh
+     */
+    private static boolean refresh(Path path) throws IOException {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.dedup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+/**
+ * Content-defined chunking with a gear rolling hash (FastCDC). A cut point depends only on the bytes just
+ * before it, so an insertion or deletion in a file only changes the chunks around the edit, and the rest
+ * of the file deduplicates against the previous revision. Chunk sizes are normalized around the average
+ * size: below it a stricter mask makes cuts less likely, above it a looser mask makes them more likely.
+ */
+public class ContentDefinedChunker {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // fixed seed: chunk boundaries, and with them every stored chunk, must stay stable across restarts
+        SplittableRandom random = new SplittableRandom(0x6A09E667F3BCC908L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final InputStream in;
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    public ContentDefinedChunker(InputStream in, int minSize, int averageSize, int maxSize) {
+        if (minSize <= 0 || averageSize < minSize || maxSize < averageSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min <= average <= max");
+        }
+
+        int bits = 31 - Integer.numberOfLeadingZeros(averageSize);
+        this.in = in;
+        this.minSize = minSize;
+        this.averageSize = averageSize;
+        this.maxSize = maxSize;
+        this.strictMask = highBits(bits + 2);
+        this.looseMask = highBits(bits - 2);
+        this.buffer = new byte[Math.max(maxSize, 64 * 1024)];
+    }
+
+    /**
+     * Reads the next chunk into {@code chunk}, which must hold at least {@code maxSize} bytes.
+     *
+     * @return the chunk length, or {@code -1} at the end of the stream
+     */
+    public int next(byte[] chunk) throws IOException {
+        int length = 0;
+        long hash = 0;
+
+        while (length < maxSize) {
+            if (position == limit && !fill()) {
+                break;
+            }
+
+            int available = Math.min(limit - position, maxSize - length);
+
+            // the first bytes of a chunk can never be a cut point, copy them without hashing
+            if (length < minSize) {
+                int skip = Math.min(available, minSize - length);
+                System.arraycopy(buffer, position, chunk, length, skip);
+                position += skip;
+                length += skip;
+                continue;
+            }
+
+            int start = position;
+            int end = position + available;
+            int cut = -1;
+
+            for (int i = start; i < end; i++) {
+                hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+                long mask = length + (i - start) < averageSize ? strictMask : looseMask;
+                if ((hash & mask) == 0) {
+                    cut = i + 1;
+                    break;
+                }
+            }
+
+            int copied = (cut < 0 ? end : cut) - start;
+            System.arraycopy(buffer, start, chunk, length, copied);
+            position += copied;
+            length += copied;
+
+            if (cut >= 0) {
+                break;
+            }
+        }
+
+        return length == 0 ? -1 : length;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+
+        int read = in.readNBytes(buffer, 0, buffer.length);
+        position = 0;
+        limit = read;
+        eof = read < buffer.length;
+        return read > 0;
+    }
+
+    private static long highBits(int count) {
+        // the gear hash shifts left, so the high bits depend on the most bytes
+        return count <= 0 ? 0 : -1L << (64 - Math.min(count, 63));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.dedup;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A deduplicated file exposed as a {@link org.springframework.core.io.Resource}. The content is rebuilt
+ * lazily from the chunk store while it is read; the next chunks are fetched ahead on the read executor,
+ * so disk latency overlaps with sending the current chunk.
+ */
+public class ManifestResource extends AbstractResource {
+
+    private final String filename;
+    private final FileManifest manifest;
+    private final ChunkStore chunkStore;
+    private final ExecutorService executor;
+    private final int readAhead;
+
+    public ManifestResource(String filename, FileManifest manifest, ChunkStore chunkStore,
+                            ExecutorService executor, int readAhead) {
+        this.filename = filename;
+        this.manifest = manifest;
+        this.chunkStore = chunkStore;
+        this.executor = executor;
+        this.readAhead = Math.max(readAhead, 1);
+    }
+
+    @Override
+    public String getDescription() {
+        return "deduplicated file [" + filename + "]";
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return manifest.size();
+    }
+
+    @Override
+    public long lastModified() {
+        return manifest.lastModified();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ChunkInputStream();
+    }
+
+    private final class ChunkInputStream extends InputStream {
+
+        private final List<FileManifest.Chunk> chunks = manifest.chunks();
+        private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        private int scheduled;
+        private byte[] current = new byte[0];
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            if (!advance()) {
+                return -1;
+            }
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+
+            int read = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            pending.forEach(future -> future.cancel(true));
+            pending.clear();
+            scheduled = chunks.size();
+        }
+
+        private boolean advance() throws IOException {
+            while (position == current.length) {
+                while (pending.size() < readAhead && scheduled < chunks.size()) {
+                    FileManifest.Chunk chunk = chunks.get(scheduled++);
+                    pending.add(executor.submit(() -> chunkStore.read(chunk)));
+                }
+
+                Future<byte[]> next = pending.poll();
+                if (next == null) {
+                    return false;
+                }
+
+                try {
+                    current = next.get();
+                    position = 0;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading chunk", e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Failed to read chunk", e.getCause());
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.encoding;
+
+import dev.vlxd.storageservice.constants.ContentCoding;
+import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * {@code Accept-Encoding} negotiation and precomputed compressed variants of stored files.
+ * <p>
+ * A variant lives at {@code <directory>/<file id><extension>} and carries the modification time of the
+ * revision it was made from, a variant whose time no longer matches is ignored and eventually swept.
+ * Variants are built in the background the first time a revision is served compressed, so only files
+ * that are actually downloaded cost compression time; until then the response is compressed while it streams.
+ */
+@Slf4j
+@Service
+public class ContentEncodingService {
+
+    private final IStorageService storageService;
+    private final ExecutorService executor;
+    private final boolean enabled;
+    private final List<ContentCoding> codings;
+    private final List<MediaType> compressibleTypes;
+    private final long minSize;
+    private final boolean precompute;
+    private final long precomputeMaxSize;
+    private final Path directory;
+
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public ContentEncodingService(
+            IStorageService storageService,
+            @Qualifier("encodingExecutor") ExecutorService executor,
+            @Value("${storage.encoding.enabled}") boolean enabled,
+            @Value("${storage.encoding.codings}") List<String> codings,
+            @Value("${storage.encoding.compressible-types}") List<String> compressibleTypes,
+            @Value("${storage.encoding.min-size}") long minSize,
+            @Value("${storage.encoding.precompute.enabled}") boolean precompute,
+            @Value("${storage.encoding.precompute.max-size}") long precomputeMaxSize,
+            @Value("${storage.encoding.directory}") String directory
+    ) {
+        this.storageService = storageService;
+        this.executor = executor;
+        this.enabled = enabled;
+        this.codings = codings.stream()
+                .map(token -> ContentCoding.valueOfToken(token.trim())
+                        .orElseThrow(() -> new IllegalArgumentException("Unsupported content coding " + token)))
+                .toList();
+        this.compressibleTypes = compressibleTypes.stream().map(MediaType::parseMediaType).toList();
+        this.minSize = minSize;
+        this.precompute = precompute;
+        this.precomputeMaxSize = precomputeMaxSize;
+        this.directory = Paths.get(directory).toAbsolutePath().normalize();
+
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize encoded variant directory", e);
+        }
+    }
+
+    public boolean isCompressible(MediaType contentType, long length) {
+        return enabled
+                && length >= minSize
+                && compressibleTypes.stream().anyMatch(type -> type.includes(contentType));
+    }
+
+    /**
+     * @return the codings the client accepts, best first: by quality value, then in the configured order
+     */
+    public List<ContentCoding> accepted(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return List.of();
+        }
+
+        Map<String, Double> qualities = new HashMap<>();
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            double quality = 1;
+
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            qualities.put(parts[0].trim().toLowerCase(), quality);
+        }
+
+        Map<ContentCoding, Double> accepted = new LinkedHashMap<>();
+        for (ContentCoding coding : codings) {
+            double quality = qualities.getOrDefault(coding.getToken(), qualities.getOrDefault("*", 0d));
+            if (quality > 0) {
+                accepted.put(coding, quality);
+            }
+        }
+
+        // stable, so codings of equal quality keep the configured preference
+        return accepted.keySet().stream()
+                .sorted(Comparator.comparingDouble(coding -> -accepted.get(coding)))
+                .toList();
+    }
+
+    /**
+     * @return the first accepted coding with an up-to-date variant, if any. Missing variants of the
+     * accepted codings are scheduled for precomputation.
+     */
+    public Optional<EncodedVariant> variant(FileMetadata metadata, List<ContentCoding> accepted) {
+        if (!precompute || metadata.size() > precomputeMaxSize) {
+            return Optional.empty();
+        }
+
+        EncodedVariant found = null;
+        boolean missing = false;
+
+        for (ContentCoding coding : accepted) {
+            Path path = variantPath(metadata.fileId(), coding);
+            if (path == null) {
+                return Optional.empty();
+            }
+
+            if (isFresh(path, metadata)) {
+                if (found == null) {
+                    found = new EncodedVariant(coding, path.toFile(), path.toFile().length());
+                }
+            } else {
+                missing = true;
+            }
+        }
+
+        if (missing) {
+            schedule(metadata);
+        }
+
+        return Optional.ofNullable(found);
+    }
+
+    /**
+     * Removes variants of files that were deleted or replaced since they were made.
+     */
+    @Scheduled(fixedDelayString = "${storage.encoding.sweep-interval}")
+    public void sweep() {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(Files::isRegularFile).forEach(path -> {
+                String name = directory.relativize(path).toString();
+                ContentCoding coding = codingOf(name);
+
+                try {
+                    if (coding == null) {
+                        // leftovers of an interrupted precomputation
+                        Files.deleteIfExists(path);
+                        return;
+                    }
+
+                    String fileId = name.substring(0, name.length() - coding.getExtension().length());
+                    Optional<FileMetadata> metadata = storageService.getMetadata(fileId);
+                    if (metadata.isEmpty() || !isFresh(path, metadata.get())) {
+                        Files.deleteIfExists(path);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.debug("Failed to check encoded variant {}", path, e);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to sweep encoded variants in {}", directory, e);
+        }
+    }
+
+    private void schedule(FileMetadata metadata) {
+        Path key = directory.resolve(metadata.fileId());
+        if (!pending.add(key)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    for (ContentCoding coding : codings) {
+                        Path path = variantPath(metadata.fileId(), coding);
+                        if (!isFresh(path, metadata)) {
+                            build(metadata, coding, path);
+                        }
+                    }
+                } finally {
+                    pending.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(key);
+        }
+    }
+
+    private void build(FileMetadata metadata, ContentCoding coding, Path path) {
+        Path temp = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+
+        try {
+            Files.createDirectories(path.getParent());
+
+            try (InputStream inputStream = storageService.loadAsResource(metadata.fileId()).getInputStream();
+                 OutputStream outputStream = coding.encode(Files.newOutputStream(temp), coding.getPrecomputeLevel())) {
+                inputStream.transferTo(outputStream);
+            }
+
+            // the file may have been replaced while it was compressed, such a variant is of no use
+            Optional<FileMetadata> current = storageService.getMetadata(metadata.fileId());
+            if (current.isEmpty()
+                    || current.get().lastModified() != metadata.lastModified()
+                    || current.get().size() != metadata.size()) {
+                return;
+            }
+
+            Files.setLastModifiedTime(temp, FileTime.fromMillis(metadata.lastModified()));
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to precompute {} variant of {}", coding.getToken(), metadata.fileId(), e);
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                log.warn("Failed to remove temporary variant {}", temp, e);
+            }
+        }
+    }
+
+    private Path variantPath(String fileId, ContentCoding coding) {
+        Path path = directory.resolve(fileId + coding.getExtension()).normalize();
+        return path.startsWith(directory) && !path.equals(directory) ? path : null;
+    }
+
+    private static boolean isFresh(Path path, FileMetadata metadata) {
+        try {
+            return path != null && Files.getLastModifiedTime(path).toMillis() == metadata.lastModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static ContentCoding codingOf(String name) {
+        for (ContentCoding coding : ContentCoding.values()) {
+            if (name.endsWith(coding.getExtension())) {
+                return coding;
+            }
+        }
+        return null;
+    }
+}
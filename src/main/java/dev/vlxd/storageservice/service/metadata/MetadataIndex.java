@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.metadata;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.service.storage.LocalStorageService;
+import dev.vlxd.storageservice.service.storage.VolumeLayout;
+import dev.vlxd.storageservice.service.usage.UsageService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * In-memory index of every stored file (size, modification time, content type and SHA-256 checksum),
+ * backed by an append-only journal in the metadata directory. At startup the journal is replayed and
+ * reconciled with a parallel scan of the storage volumes: checksums of unchanged files are kept, everything
+ * else is taken from the scan. Missing checksums are computed in the background.
+ */
+@Slf4j
+@Service
+@Profile("local")
+public class MetadataIndex {
+
+    private static final String JOURNAL = "index.jsonl";
+    private static final String JOURNAL_TEMP = "index.jsonl.tmp";
+
+    private final VolumeLayout volumeLayout;
+    private final Path directory;
+    private final int scanThreads;
+    private final ObjectMapper objectMapper;
+    private final UsageService usageService;
+
+    private final ConcurrentSkipListMap<String, FileMetadata> entries = new ConcurrentSkipListMap<>();
+    private final ExecutorService checksumExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metadata-checksum");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Writer journal;
+    private long journalRecords;
+
+    @Autowired
+    public MetadataIndex(
+            VolumeLayout volumeLayout,
+            @Value("${storage.metadata.directory}") String directory,
+            @Value("${storage.metadata.scan-threads}") int scanThreads,
+            ObjectMapper objectMapper,
+            UsageService usageService
+    ) {
+        this.volumeLayout = volumeLayout;
+        this.directory = Paths.get(directory).toAbsolutePath().normalize();
+        this.scanThreads = scanThreads > 0 ? scanThreads : Runtime.getRuntime().availableProcessors();
+        this.objectMapper = objectMapper;
+        this.usageService = usageService;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            Files.createDirectories(directory);
+
+            Map<String, FileMetadata> journaled = readJournal();
+            long started = System.currentTimeMillis();
+
+            scan((fileId, file, attributes) -> {
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                FileMetadata known = journaled.get(fileId);
+
+                if (known != null && known.size() == attributes.size() && known.lastModified() == lastModified) {
+                    entries.put(fileId, known);
+                } else {
+                    entries.put(fileId, new FileMetadata(
+                            fileId, attributes.size(), lastModified, probeContentType(file), null));
+                }
+            });
+
+            log.info("Indexed {} files in {} ms", entries.size(), System.currentTimeMillis() - started);
+
+            // the index was just reconciled with the volumes, the usage counters follow from it
+            usageService.reconcile(visitor -> entries.values().forEach(
+                    metadata -> visitor.accept(metadata.fileId(), metadata.size())));
+
+            compact();
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize metadata index", e);
+        }
+
+        checksumExecutor.submit(() -> entries.values().stream()
+                .filter(metadata -> metadata.checksum() == null)
+                .map(FileMetadata::fileId)
+                .forEach(this::computeChecksum));
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        checksumExecutor.shutdownNow();
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Scans the volumes, not the index, for the files they hold.
+     */
+    public void scan(ObjLongConsumer<String> visitor) {
+        scan((fileId, file, attributes) -> visitor.accept(fileId, attributes.size()));
+    }
+
+    public Optional<FileMetadata> get(String fileId) {
+        return Optional.ofNullable(entries.get(fileId));
+    }
+
+    public boolean containsDirectory(String fileId) {
+        if (fileId.isEmpty()) {
+            return true;
+        }
+        String prefix = fileId + "/";
+        String next = entries.ceilingKey(prefix);
+        return next != null && next.startsWith(prefix);
+    }
+
+    /**
+     * @return the least indexed file id greater than or equal to {@code fileId}, or {@code null}
+     */
+    public String ceilingKey(String fileId) {
+        return entries.ceilingKey(fileId);
+    }
+
+    /**
+     * @return the least indexed file id strictly greater than {@code fileId}, or {@code null}
+     */
+    public String higherKey(String fileId) {
+        return entries.higherKey(fileId);
+    }
+
+    /**
+     * @return the file ids below the directory {@code fileId} in order, a weakly consistent live view
+     */
+    public Collection<String> subtree(String fileId) {
+        if (fileId.isEmpty()) {
+            return entries.keySet();
+        }
+        return entries.subMap(fileId + "/", fileId + "0").keySet();
+    }
+
+    public FileMetadata put(String fileId, Path path, String checksum) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            FileMetadata metadata = new FileMetadata(
+                    fileId,
+                    attributes.size(),
+                    attributes.lastModifiedTime().toMillis(),
+                    probeContentType(path),
+                    checksum
+            );
+
+            FileMetadata previous = entries.put(fileId, metadata);
+            if (previous != null) {
+                usageService.add(fileId, metadata.size() - previous.size(), 0);
+            } else {
+                usageService.add(fileId, metadata.size(), 1);
+            }
+            append(new JournalRecord(fileId, metadata));
+
+            if (checksum == null) {
+                checksumExecutor.submit(() -> computeChecksum(fileId));
+            }
+
+            return metadata;
+        } catch (IOException e) {
+            throw new StorageException("Failed to index file", e);
+        }
+    }
+
+    /**
+     * Removes the file id and, when it denotes a directory, every file below it.
+     */
+    public void remove(String fileId) {
+        FileMetadata removed = entries.remove(fileId);
+        if (removed != null) {
+            usageService.add(fileId, -removed.size(), -1);
+        }
+
+        // removed one by one, so that the usage counters lose exactly what the index does
+        Map<String, FileMetadata> subtree = fileId.isEmpty() ? entries : entries.subMap(fileId + "/", fileId + "0");
+        for (Map.Entry<String, FileMetadata> entry : subtree.entrySet()) {
+            if (subtree.remove(entry.getKey(), entry.getValue())) {
+                usageService.add(entry.getKey(), -entry.getValue().size(), -1);
+            }
+        }
+
+        try {
+            append(new JournalRecord(fileId, null));
+        } catch (IOException e) {
+            throw new StorageException("Failed to update metadata index", e);
+        }
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void computeChecksum(String fileId) {
+        FileMetadata metadata = entries.get(fileId);
+        if (metadata == null || metadata.checksum() != null) {
+            return;
+        }
+
+        Path path = volumeLayout.locate(fileId);
+        MessageDigest digest = newDigest();
+
+        try (InputStream inputStream = new DigestInputStream(Files.newInputStream(path), digest)) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            log.warn("Failed to compute checksum of {}", fileId, e);
+            return;
+        }
+
+        String checksum = HexFormat.of().formatHex(digest.digest());
+        FileMetadata updated = entries.computeIfPresent(fileId, (key, current) ->
+                current.size() == metadata.size() && current.lastModified() == metadata.lastModified()
+                        ? current.withChecksum(checksum)
+                        : current
+        );
+
+        if (updated != null && checksum.equals(updated.checksum())) {
+            try {
+                append(new JournalRecord(fileId, updated));
+            } catch (IOException e) {
+                log.warn("Failed to journal checksum of {}", fileId, e);
+            }
+        }
+    }
+
+    private synchronized void append(JournalRecord record) throws IOException {
+        if (journal == null) {
+            return;
+        }
+
+        journal.write(objectMapper.writeValueAsString(record));
+        journal.write('\n');
+        journal.flush();
+
+        if (++journalRecords > entries.size() * 2L + 10_000) {
+            compact();
+        }
+    }
+
+    private synchronized void compact() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+
+        Path temp = directory.resolve(JOURNAL_TEMP);
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            for (FileMetadata metadata : entries.values()) {
+                writer.write(objectMapper.writeValueAsString(new JournalRecord(metadata.fileId(), metadata)));
+                writer.write('\n');
+            }
+        }
+        Files.move(temp, directory.resolve(JOURNAL), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        journal = Files.newBufferedWriter(directory.resolve(JOURNAL), StandardOpenOption.APPEND);
+        journalRecords = entries.size();
+    }
+
+    private Map<String, FileMetadata> readJournal() {
+        Map<String, FileMetadata> journaled = new HashMap<>();
+        Path path = directory.resolve(JOURNAL);
+
+        if (!Files.exists(path)) {
+            return journaled;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                JournalRecord record;
+                try {
+                    record = objectMapper.readValue(line, JournalRecord.class);
+                } catch (IOException e) {
+                    // a torn last line after a crash, the scan below fills the gap
+                    log.warn("Skipping unreadable metadata journal record");
+                    continue;
+                }
+
+                if (record.metadata() != null) {
+                    journaled.put(record.fileId(), record.metadata());
+                } else if (record.fileId().isEmpty()) {
+                    journaled.clear();
+                } else {
+                    String prefix = record.fileId() + "/";
+                    journaled.remove(record.fileId());
+                    journaled.keySet().removeIf(key -> key.startsWith(prefix));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to read metadata journal, rebuilding from scan", e);
+        }
+
+        return journaled;
+    }
+
+    private static String probeContentType(Path path) {
+        try {
+            return Files.probeContentType(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private record JournalRecord(String fileId, FileMetadata metadata) {
+    }
+
+    private void scan(ScannedFileSink sink) {
+        ForkJoinPool pool = new ForkJoinPool(scanThreads);
+        try {
+            List<ScanTask> volumes = new ArrayList<>();
+            for (Path volume : volumeLayout.volumes()) {
+                int depth = volumeLayout.shardDepth();
+                volumes.add(new ScanTask(volume, depth == 0 ? volume : null, depth, true, sink));
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(volumes);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private interface ScannedFileSink {
+
+        void accept(String fileId, Path file, BasicFileAttributes attributes);
+    }
+
+    /**
+     * Scans one directory of a volume. The first {@code shardLevels} levels below a sharded volume only hold
+     * shard directories, file ids are relative to the innermost of them ({@code base}).
+     */
+    private static final class ScanTask extends RecursiveAction {
+
+        private final Path folder;
+        private final Path base;
+        private final int shardLevels;
+        private final boolean volume;
+        private final ScannedFileSink sink;
+
+        private ScanTask(Path folder, Path base, int shardLevels, boolean volume, ScannedFileSink sink) {
+            this.folder = folder;
+            this.base = base;
+            this.shardLevels = shardLevels;
+            this.volume = volume;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void compute() {
+            List<ScanTask> subtasks = new ArrayList<>();
+
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(folder)) {
+                for (Path child : children) {
+                    BasicFileAttributes attributes = Files.readAttributes(
+                            child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+                    if (attributes.isDirectory()) {
+                        boolean reserved = volume
+                                && child.getFileName().toString().startsWith(LocalStorageService.RESERVED_PREFIX);
+                        if (reserved) {
+                            continue;
+                        }
+                        if (shardLevels > 0) {
+                            subtasks.add(new ScanTask(
+                                    child, shardLevels == 1 ? child : null, shardLevels - 1, false, sink));
+                        } else {
+                            subtasks.add(new ScanTask(child, base, 0, false, sink));
+                        }
+                    } else if (attributes.isRegularFile() && shardLevels == 0) {
+                        sink.accept(base.relativize(child).toString().replace('\\', '/'), child, attributes);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Failed to scan {}", folder, e);
+            }
+
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.storage;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * A stored file read sequentially without blocking the caller. Only one read may be outstanding at a time,
+ * the caller asks for the next one once it has passed the previous buffer on.
+ */
+public interface AsyncDownload extends Closeable {
+
+    long size();
+
+    /**
+     * Reads the next bytes into the buffer, the handler receives the number of bytes read or {@code -1} at
+     * the end of the file.
+     */
+    void read(ByteBuffer buffer, CompletionHandler<Integer, Void> handler);
+
+    @Override
+    void close();
+}
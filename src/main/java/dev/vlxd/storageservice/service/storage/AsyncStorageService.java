@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.storage;
+
+import dev.vlxd.storageservice.exception.StorageException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * {@link IAsyncStorageService} on top of the configured {@link IStorageService}. Uploads are staged with an
+ * {@link AsynchronousFileChannel} and stored with {@link IStorageService#storeFile}, so they are placed and
+ * indexed like any other upload. Plain files are read with an {@link AsynchronousFileChannel} as well,
+ * content that is not a file (deduplicated files) is read chunk by chunk on the completion pool.
+ */
+@Slf4j
+@Service
+public class AsyncStorageService implements IAsyncStorageService {
+
+    private final IStorageService storageService;
+    private final ExecutorService executor;
+    private final Path stagingDirectory;
+
+    @Autowired
+    public AsyncStorageService(
+            IStorageService storageService,
+            @Qualifier("asyncStorageExecutor") ExecutorService executor,
+            @Value("${storage.async.staging-directory}") String stagingDirectory
+    ) {
+        this.storageService = storageService;
+        this.executor = executor;
+        this.stagingDirectory = Paths.get(stagingDirectory);
+
+        try {
+            // staged files are never resumed, whatever is left belongs to uploads cut off by a restart
+            FileSystemUtils.deleteRecursively(this.stagingDirectory);
+            Files.createDirectories(this.stagingDirectory);
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize async upload staging directory", e);
+        }
+    }
+
+    @Override
+    public AsyncUpload openUpload(String filename) {
+        Path staged = stagingDirectory.resolve(UUID.randomUUID() + ".part");
+
+        try {
+            AsynchronousFileChannel channel = AsynchronousFileChannel.open(
+                    staged, Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), executor);
+            return new AsyncUpload(filename, staged, channel, storageService::storeFile);
+        } catch (IOException e) {
+            throw new StorageException("Failed to stage upload", e);
+        }
+    }
+
+    @Override
+    public AsyncDownload openDownload(String fileId) {
+        Resource resource = storageService.loadAsResource(fileId);
+
+        if (resource == null) {
+            return null;
+        }
+
+        try {
+            if (resource.isFile()) {
+                AsynchronousFileChannel channel = AsynchronousFileChannel.open(
+                        resource.getFile().toPath(), Set.of(StandardOpenOption.READ), executor);
+                return new FileDownload(channel);
+            }
+            return new ChannelDownload(resource.contentLength(), resource.readableChannel());
+        } catch (IOException e) {
+            throw new StorageException("Failed to read file", e);
+        }
+    }
+
+    private static final class FileDownload implements AsyncDownload {
+
+        private final AsynchronousFileChannel channel;
+        private final long size;
+        private long position;
+
+        FileDownload(AsynchronousFileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void read(ByteBuffer buffer, CompletionHandler<Integer, Void> handler) {
+            if (position >= size) {
+                handler.completed(-1, null);
+                return;
+            }
+
+            // never read past the size announced in the response, the file may grow while it is sent
+            if (buffer.remaining() > size - position) {
+                buffer.limit(buffer.position() + (int) (size - position));
+            }
+
+            channel.read(buffer, position, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer read, Void attachment) {
+                    if (read > 0) {
+                        position += read;
+                    }
+                    handler.completed(read, null);
+                }
+
+                @Override
+                public void failed(Throwable e, Void attachment) {
+                    handler.failed(e, null);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close download channel", e);
+            }
+        }
+    }
+
+    private final class ChannelDownload implements AsyncDownload {
+
+        private final long size;
+        private final ReadableByteChannel channel;
+
+        ChannelDownload(long size, ReadableByteChannel channel) {
+            this.size = size;
+            this.channel = channel;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void read(ByteBuffer buffer, CompletionHandler<Integer, Void> handler) {
+            executor.execute(() -> {
+                try {
+                    handler.completed(channel.read(buffer), null);
+                } catch (IOException | RuntimeException e) {
+                    handler.failed(e, null);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close download channel", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BiFunction;
+
+/**
+ * A file being uploaded through an {@link AsynchronousFileChannel}. Buffers are appended one at a time,
+ * the staged file is handed to the storage on {@link #commit()}.
+ */
+@Slf4j
+public class AsyncUpload {
+
+    private final String filename;
+    private final Path staged;
+    private final AsynchronousFileChannel channel;
+    private final BiFunction<Path, String, String> store;
+
+    private long position;
+
+    AsyncUpload(String filename, Path staged, AsynchronousFileChannel channel,
+                BiFunction<Path, String, String> store) {
+        this.filename = filename;
+        this.staged = staged;
+        this.channel = channel;
+        this.store = store;
+    }
+
+    public long size() {
+        return position;
+    }
+
+    /**
+     * Appends the remaining bytes of the buffer, the handler is called once all of them are written.
+     */
+    public void write(ByteBuffer buffer, CompletionHandler<Void, Void> handler) {
+        channel.write(buffer, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer written, Void attachment) {
+                position += written;
+
+                if (buffer.hasRemaining()) {
+                    channel.write(buffer, position, null, this);
+                } else {
+                    handler.completed(null, null);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                handler.failed(e, null);
+            }
+        });
+    }
+
+    /**
+     * Moves the staged file into the storage and returns its file id.
+     */
+    public String commit() throws IOException {
+        channel.close();
+        return store.apply(staged, filename);
+    }
+
+    public void abort() {
+        try {
+            channel.close();
+            Files.deleteIfExists(staged);
+        } catch (IOException e) {
+            log.warn("Failed to remove staged upload {}", staged, e);
+        }
+    }
+}
@@ -0,0 +1,789 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.event.StorageChangedEvent;
+import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.exception.TrashConflictException;
+import dev.vlxd.storageservice.service.archive.ArchiveBaseline;
+import dev.vlxd.storageservice.service.archive.ArchiveDelta;
+import dev.vlxd.storageservice.service.archive.ArchiveManagerService;
+import dev.vlxd.storageservice.service.archive.ArchiveOptions;
+import dev.vlxd.storageservice.service.archive.StoredZipArchive;
+import dev.vlxd.storageservice.service.dedup.ChunkStore;
+import dev.vlxd.storageservice.service.dedup.ContentDefinedChunker;
+import dev.vlxd.storageservice.service.dedup.FileManifest;
+import dev.vlxd.storageservice.service.dedup.ManifestResource;
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
+import dev.vlxd.storageservice.service.metadata.MetadataIndex;
+import dev.vlxd.storageservice.service.usage.UsageService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Storage that keeps every distinct content-defined chunk once. Each stored file is a small JSON manifest
+ * in a tree that mirrors the file ids, listing the chunks of the file in order; revisions and copies of a
+ * file share all chunks outside the edited regions. Chunks that are no longer referenced by any manifest
+ * are removed by a periodic mark and sweep.
+ */
+@Slf4j
+@Service
+@Profile("dedup")
+public class DedupStorageService implements IStorageService {
+
+    private final Path root;
+    private final Path manifests;
+    private final Path trash;
+    private final Path temp;
+    private final ChunkStore chunkStore;
+    private final ArchiveManagerService archiveService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+    private final UsageService usageService;
+    private final ExecutorService readExecutor;
+    private final int minChunkSize;
+    private final int averageChunkSize;
+    private final int maxChunkSize;
+    private final int readAhead;
+    private final long gcGrace;
+    private final ConcurrentMap<String, Workspace> workspaces = new ConcurrentHashMap<>();
+    /**
+     * File ids of all stored manifests in listing order, directories are derived from the ids below them.
+     */
+    private final ConcurrentSkipListSet<String> fileIds = new ConcurrentSkipListSet<>();
+
+    @Autowired
+    public DedupStorageService(
+            @Value("${storage.root}") String rootPath,
+            @Value("${storage.dedup.directory}") String directory,
+            @Value("${storage.dedup.min-chunk-size}") int minChunkSize,
+            @Value("${storage.dedup.average-chunk-size}") int averageChunkSize,
+            @Value("${storage.dedup.max-chunk-size}") int maxChunkSize,
+            @Value("${storage.dedup.read-ahead}") int readAhead,
+            @Value("${storage.dedup.gc-grace}") long gcGrace,
+            @Qualifier("dedupReadExecutor") ExecutorService readExecutor,
+            ArchiveManagerService archiveService,
+            ApplicationEventPublisher eventPublisher,
+            ObjectMapper objectMapper,
+            UsageService usageService
+    ) {
+        Path dedupDirectory = Paths.get(directory).toAbsolutePath().normalize();
+
+        this.root = Paths.get(rootPath).toAbsolutePath().normalize();
+        this.manifests = dedupDirectory.resolve("manifests");
+        this.trash = dedupDirectory.resolve("trash");
+        this.temp = dedupDirectory.resolve("tmp");
+        this.archiveService = archiveService;
+        this.eventPublisher = eventPublisher;
+        this.objectMapper = objectMapper;
+        this.usageService = usageService;
+        this.readExecutor = readExecutor;
+        this.minChunkSize = minChunkSize;
+        this.averageChunkSize = averageChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.readAhead = readAhead;
+        this.gcGrace = gcGrace;
+
+        try {
+            Files.createDirectories(manifests);
+            Files.createDirectories(trash);
+            FileSystemUtils.deleteRecursively(temp);
+            Files.createDirectories(temp);
+            this.chunkStore = new ChunkStore(dedupDirectory.resolve("chunks"));
+
+            try (Stream<Path> files = Files.walk(manifests)) {
+                files.filter(Files::isRegularFile).map(this::fileId).forEach(fileIds::add);
+            }
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize storage", e);
+        }
+    }
+
+    @Override
+    public String uploadFile(InputStream inputStream, String filename) {
+        Path dest = resolvePath(filename);
+
+        if (!dest.startsWith(this.manifests) || dest.equals(this.manifests)) {
+            throw new StorageException(
+                    "Can not store file outside storage root directory");
+        }
+
+        try {
+            // chunks of a rejected upload are left to the garbage collection
+            FileManifest manifest = writeChunks(usageService.limit(fileId(dest), inputStream));
+            long previous = Files.isRegularFile(dest) ? readManifest(dest).size() : -1;
+            writeManifest(dest, manifest);
+            fileIds.add(fileId(dest));
+
+            if (previous >= 0) {
+                usageService.add(fileId(dest), manifest.size() - previous, 0);
+            } else {
+                usageService.add(fileId(dest), manifest.size(), 1);
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file", e);
+        } finally {
+            eventPublisher.publishEvent(new StorageChangedEvent(dest));
+        }
+
+        return filename;
+    }
+
+    @Override
+    public String storeFile(Path source, String filename) {
+        try {
+            usageService.checkQuota(filename, Files.size(source));
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file", e);
+        }
+
+        try (InputStream inputStream = Files.newInputStream(source)) {
+            uploadFile(inputStream, filename);
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file", e);
+        }
+
+        try {
+            Files.deleteIfExists(source);
+        } catch (IOException e) {
+            log.warn("Failed to remove stored source file {}", source, e);
+        }
+
+        return filename;
+    }
+
+    @Override
+    public Resource loadAsResource(String fileId) {
+        Path path = resolvePath(fileId);
+
+        if (!path.startsWith(this.manifests)) {
+            throw new StorageException(
+                    "Can not read file outside storage root directory");
+        }
+
+        try {
+            return new ManifestResource(
+                    path.getFileName().toString(), readManifest(path), chunkStore, readExecutor, readAhead);
+        } catch (IOException e) {
+            throw new StorageException("Failed to read file", e);
+        }
+    }
+
+    /**
+     * Archive services work on files, so the requested tree is materialized into a workspace first. The
+     * workspace is derived from the request, and its files and directories keep the stored modification times,
+     * so repeated archives of an unchanged tree share their cache entries and concurrent ones their build.
+     */
+    @Override
+    public void archiveFile(ArchiveType archiveType, String fileId, ArchiveOptions options,
+                            OutputStream outputStream) {
+        Path path = resolvePath(fileId);
+
+        if (!path.startsWith(this.manifests)) {
+            throw new StorageException(
+                    "Can not archive file outside storage root directory");
+        }
+
+        String name = path.equals(this.manifests) ? root.getFileName().toString() : path.getFileName().toString();
+        String key = manifests.relativize(path).toString();
+        Workspace workspace = acquireWorkspace(key, name, path, List.of(path));
+        try {
+            archiveService.archive(archiveType, workspace.tree.toFile(), name, options, outputStream);
+        } finally {
+            releaseWorkspace(key, workspace);
+        }
+    }
+
+    /**
+     * Materialized files keep their original modification times, so the changes are found on the same stamps
+     * as with plain files, even though the materialization itself reads every file.
+     */
+    @Override
+    public void archiveChanges(ArchiveType archiveType, String fileId, ArchiveOptions options,
+                               ArchiveBaseline baseline, Function<ArchiveDelta, OutputStream> output) {
+        Path path = resolvePath(fileId);
+
+        if (!path.startsWith(this.manifests)) {
+            throw new StorageException(
+                    "Can not archive file outside storage root directory");
+        }
+
+        String name = path.equals(this.manifests) ? root.getFileName().toString() : path.getFileName().toString();
+        String key = manifests.relativize(path).toString();
+        Workspace workspace = acquireWorkspace(key, name, path, List.of(path));
+        try {
+            archiveService.archiveChanges(archiveType, workspace.tree.toFile(), name, options, baseline, output);
+        } finally {
+            releaseWorkspace(key, workspace);
+        }
+    }
+
+    @Override
+    public void archiveFiles(ArchiveType archiveType, List<String> fileIds, String name, ArchiveOptions options,
+                             OutputStream outputStream) {
+        List<Path> paths = new ArrayList<>();
+        for (String fileId : fileIds) {
+            Path path = resolvePath(fileId);
+            if (!path.startsWith(this.manifests)) {
+                throw new StorageException(
+                        "Can not archive file outside storage root directory");
+            }
+            paths.add(path);
+        }
+
+        // a selection below another selected directory is already part of it, the order keeps the key stable
+        Set<Path> requested = new HashSet<>(paths);
+        List<Path> selected = new ArrayList<>();
+        for (Path path : new TreeSet<>(paths)) {
+            Path parent = path.getParent();
+            while (parent != null && !requested.contains(parent)) {
+                parent = parent.getParent();
+            }
+            if (parent == null) {
+                selected.add(path);
+            }
+        }
+
+        // file ids can not contain a NUL character, so the key never matches one of a single file
+        StringBuilder key = new StringBuilder(name);
+        for (Path path : selected) {
+            key.append('\0').append(manifests.relativize(path));
+        }
+
+        Workspace workspace = acquireWorkspace(key.toString(), name, manifests, selected);
+        try {
+            archiveService.archive(archiveType, workspace.tree.toFile(), name, options, outputStream);
+        } finally {
+            releaseWorkspace(key.toString(), workspace);
+        }
+    }
+
+    /**
+     * Deduplicated files only exist as chunks, a ranged archive would have to materialize the whole tree
+     * for every range; archives of this backend are streamed instead.
+     */
+    @Override
+    public StoredZipArchive prepareStoredArchive(String fileId) {
+        return null;
+    }
+
+    @Override
+    public boolean deleteFile(String fileId) {
+        try {
+            Path path = resolvePath(fileId);
+
+            if (!path.startsWith(this.manifests)) {
+                throw new StorageException(
+                        "Can not delete file outside storage root directory");
+            }
+
+            try {
+                forget(path);
+                boolean deleted = FileSystemUtils.deleteRecursively(path);
+                unlist(fileId(path));
+                return deleted;
+            } finally {
+                eventPublisher.publishEvent(new StorageChangedEvent(path));
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to delete file", e);
+        }
+    }
+
+    /**
+     * Trashed manifests keep their chunks alive until the trash is purged.
+     */
+    @Override
+    public boolean trashFile(String fileId, String trashId) {
+        Path path = resolvePath(fileId);
+
+        if (!path.startsWith(this.manifests)) {
+            throw new StorageException(
+                    "Can not delete file outside storage root directory");
+        }
+
+        try {
+            boolean moved = false;
+            for (Path source : trashSources(path)) {
+                Path target = trash.resolve(trashId).resolve(manifests.relativize(source).toString());
+                Files.createDirectories(target.getParent());
+                forget(source);
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+                unlist(fileId(source));
+                eventPublisher.publishEvent(new StorageChangedEvent(source));
+                moved = true;
+            }
+            return moved;
+        } catch (IOException e) {
+            throw new StorageException("Failed to move file to trash", e);
+        }
+    }
+
+    @Override
+    public void restoreFile(String fileId, String trashId) {
+        Path path = resolvePath(fileId);
+
+        if (!path.startsWith(this.manifests)) {
+            throw new StorageException(
+                    "Can not restore file outside storage root directory");
+        }
+
+        Path trashed = trash.resolve(trashId).resolve(manifests.relativize(path).toString());
+
+        try {
+            List<Path> sources = trashSources(trashed);
+            for (Path source : sources) {
+                if (Files.exists(path.resolve(trashed.relativize(source).toString()))) {
+                    throw new TrashConflictException("A file was stored at " + fileId + " after deleting it");
+                }
+            }
+
+            for (Path source : sources) {
+                Path target = path.resolve(trashed.relativize(source).toString());
+                Files.createDirectories(target.getParent());
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+                scanManifests(target, (restored, size) -> {
+                    fileIds.add(restored);
+                    usageService.add(restored, size, 1);
+                });
+                eventPublisher.publishEvent(new StorageChangedEvent(target));
+            }
+
+            FileSystemUtils.deleteRecursively(trash.resolve(trashId));
+        } catch (IOException e) {
+            throw new StorageException("Failed to restore file from trash", e);
+        }
+    }
+
+    @Override
+    public List<Path> trashDirectories(String trashId) {
+        Path directory = trash.resolve(trashId);
+        return Files.isDirectory(directory) ? List.of(directory) : List.of();
+    }
+
+    @Override
+    public void checkFile(String fileId) {
+        Path path = resolvePath(fileId);
+
+        if (!path.startsWith(this.manifests)) {
+            throw new StorageException(
+                    "Can not access file outside storage root directory");
+        }
+
+        if (!Files.exists(path)) {
+            throw new StorageException(
+                    "File does not exist");
+        }
+    }
+
+    @Override
+    public Optional<FileMetadata> getMetadata(String fileId) {
+        Path path = resolvePath(fileId);
+
+        if (!path.startsWith(this.manifests)) {
+            throw new StorageException(
+                    "Can not access file outside storage root directory");
+        }
+
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(toMetadata(fileId(path), readManifest(path)));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new StorageException("Failed to read file", e);
+        }
+    }
+
+    @Override
+    public void scanFiles(ObjLongConsumer<String> visitor) {
+        try {
+            scanManifests(manifests, visitor);
+        } catch (IOException e) {
+            throw new StorageException("Failed to scan stored files", e);
+        }
+    }
+
+    /**
+     * Lists one page from the sorted file ids, only the manifests of the listed files are read.
+     */
+    @Override
+    public ListPage list(String fileId, String prefix, String cursor, int limit, boolean recursive) {
+        Path path = resolvePath(fileId == null ? "" : fileId);
+
+        if (!path.startsWith(this.manifests)) {
+            throw new StorageException(
+                    "Can not list files outside storage root directory");
+        }
+
+        String directory = fileId(path);
+        String base = directory.isEmpty() ? "" : directory + "/";
+        String start = base + (prefix == null ? "" : prefix);
+
+        String key;
+        if (cursor == null || cursor.isEmpty()) {
+            key = fileIds.ceiling(start);
+        } else if (!cursor.startsWith(start)) {
+            throw new StorageException("Cursor does not belong to this listing");
+        } else {
+            key = next(cursor.compareTo(start) < 0 ? start : cursor);
+        }
+
+        List<ListEntry> entries = new ArrayList<>(Math.min(limit, 1024));
+        String last = null;
+
+        try {
+            while (key != null && key.startsWith(start) && entries.size() < limit) {
+                int slash = recursive ? -1 : key.indexOf('/', base.length());
+
+                if (slash < 0) {
+                    FileMetadata metadata = readMetadata(key);
+                    if (metadata != null) {
+                        entries.add(new ListEntry(key, key.substring(key.lastIndexOf('/') + 1), false,
+                                metadata.size(), metadata.lastModified(), metadata.contentType()));
+                    }
+                    last = key;
+                } else {
+                    String child = key.substring(0, slash);
+                    entries.add(new ListEntry(child, child.substring(base.length()), true, null, null, null));
+                    last = child + "/";
+                }
+
+                key = next(last);
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to list files", e);
+        }
+
+        boolean more = key != null && key.startsWith(start);
+        return new ListPage(entries, more ? last : null);
+    }
+
+    private String next(String cursor) {
+        // a directory cursor continues after the whole subtree: '0' is the character right after '/'
+        return cursor.endsWith("/")
+                ? fileIds.ceiling(cursor.substring(0, cursor.length() - 1) + "0")
+                : fileIds.higher(cursor);
+    }
+
+    /**
+     * @return the metadata of the file, or {@code null} when it was removed since it was listed
+     */
+    private FileMetadata readMetadata(String fileId) throws IOException {
+        try {
+            return toMetadata(fileId, readManifest(manifests.resolve(fileId)));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Scheduled(
+            initialDelayString = "${storage.dedup.gc-interval}",
+            fixedDelayString = "${storage.dedup.gc-interval}"
+    )
+    public void collectGarbage() {
+        long started = System.currentTimeMillis();
+        Set<String> referenced = new HashSet<>();
+
+        try {
+            SimpleFileVisitor<Path> marker = new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    try {
+                        readManifest(file).chunks().forEach(chunk -> referenced.add(chunk.hash()));
+                    } catch (NoSuchFileException ignored) {
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            };
+            // restorable files are still referenced
+            Files.walkFileTree(manifests, marker);
+            Files.walkFileTree(trash, marker);
+
+            // chunks written or reused during the grace period may belong to a manifest that is not written yet
+            long deleted = chunkStore.sweep(referenced, started - gcGrace);
+            log.info("Removed {} unreferenced chunks in {} ms", deleted, System.currentTimeMillis() - started);
+        } catch (IOException e) {
+            log.warn("Chunk garbage collection failed", e);
+        }
+    }
+
+    /**
+     * @return the path itself, or the children of the manifest root or a trash directory, which stay in place
+     */
+    private List<Path> trashSources(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return List.of();
+        }
+        if (!path.equals(manifests) && !trash.equals(path.getParent())) {
+            return List.of(path);
+        }
+
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            stream.forEach(children::add);
+        }
+        return children;
+    }
+
+    public Path resolvePath(String filePath) {
+        Path path = this.manifests.resolve(filePath).normalize();
+
+        if (path.startsWith(this.manifests) && !path.equals(this.manifests)
+                && this.manifests.relativize(path).getName(0).toString()
+                .startsWith(LocalStorageService.RESERVED_PREFIX)) {
+            throw new StorageException("Can not access reserved storage directory");
+        }
+
+        return path;
+    }
+
+    private FileManifest writeChunks(InputStream inputStream) throws IOException {
+        MessageDigest digest = MetadataIndex.newDigest();
+        ContentDefinedChunker chunker = new ContentDefinedChunker(
+                new DigestInputStream(inputStream, digest), minChunkSize, averageChunkSize, maxChunkSize);
+
+        List<FileManifest.Chunk> chunks = new ArrayList<>();
+        byte[] chunk = new byte[maxChunkSize];
+        long size = 0;
+        int length;
+
+        while ((length = chunker.next(chunk)) > 0) {
+            chunks.add(new FileManifest.Chunk(chunkStore.write(chunk, length), length));
+            size += length;
+        }
+
+        return new FileManifest(size, System.currentTimeMillis(), HexFormat.of().formatHex(digest.digest()), chunks);
+    }
+
+    private void writeManifest(Path path, FileManifest manifest) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path pending = temp.resolve(UUID.randomUUID() + ".manifest");
+
+        try {
+            objectMapper.writeValue(pending.toFile(), manifest);
+            try {
+                Files.move(pending, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(pending, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(pending);
+        }
+    }
+
+    /**
+     * Takes a file or directory that is about to be removed out of the usage counters.
+     */
+    private void forget(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            usageService.removeTree(fileId(path));
+        } else if (Files.isRegularFile(path)) {
+            try {
+                usageService.add(fileId(path), -readManifest(path).size(), -1);
+            } catch (NoSuchFileException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Removes a file, or every file below a directory, from the listing.
+     */
+    private void unlist(String fileId) {
+        if (fileId.isEmpty()) {
+            fileIds.clear();
+            return;
+        }
+        fileIds.remove(fileId);
+        fileIds.subSet(fileId + "/", fileId + "0").clear();
+    }
+
+    private void scanManifests(Path path, ObjLongConsumer<String> visitor) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                try {
+                    visitor.accept(fileId(file), readManifest(file).size());
+                } catch (NoSuchFileException ignored) {
+                    // removed while walking
+                }
+            }
+        }
+    }
+
+    private FileManifest readManifest(Path path) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            return objectMapper.readValue(inputStream, FileManifest.class);
+        }
+    }
+
+    /**
+     * Returns a workspace with the given manifests materialized at their path without {@code base}. Concurrent
+     * archives with the same key share the workspace, so that they also share the archive build.
+     */
+    private Workspace acquireWorkspace(String workspaceKey, String name, Path base, List<Path> paths) {
+        return workspaces.compute(workspaceKey, (key, workspace) -> {
+            Workspace current = workspace != null ? workspace : createWorkspace(key, name, base, paths);
+            current.references++;
+            return current;
+        });
+    }
+
+    private void releaseWorkspace(String workspaceKey, Workspace workspace) {
+        // removed while the key is held, so a workspace acquired next can not be created in the directory being removed
+        workspaces.computeIfPresent(workspaceKey, (key, current) -> {
+            if (current != workspace || --current.references > 0) {
+                return current;
+            }
+            try {
+                FileSystemUtils.deleteRecursively(workspace.directory);
+            } catch (IOException e) {
+                log.warn("Failed to remove archive workspace {}", workspace.directory, e);
+            }
+            return null;
+        });
+    }
+
+    private Workspace createWorkspace(String workspaceKey, String name, Path base, List<Path> paths) {
+        String id = UUID.nameUUIDFromBytes(workspaceKey.getBytes(StandardCharsets.UTF_8)).toString();
+        Path directory = temp.resolve("archive-" + id);
+        Path tree = directory.resolve(name);
+        Map<Path, Long> modified = new HashMap<>();
+
+        try {
+            FileSystemUtils.deleteRecursively(directory);
+            // a selection at the base is materialized as the tree itself, which may be a single file
+            Files.createDirectories(paths.contains(base) ? directory : tree);
+
+            for (Path path : paths) {
+                materialize(path, tree.resolve(base.relativize(path).toString()), tree, modified);
+            }
+
+            for (Map.Entry<Path, Long> entry : modified.entrySet()) {
+                Files.setLastModifiedTime(entry.getKey(), FileTime.fromMillis(entry.getValue()));
+            }
+        } catch (IOException e) {
+            try {
+                FileSystemUtils.deleteRecursively(directory);
+            } catch (IOException ignored) {
+            }
+            throw new StorageException("Failed to prepare archive workspace", e);
+        }
+
+        return new Workspace(directory, tree);
+    }
+
+    private void materialize(Path source, Path target, Path tree, Map<Path, Long> modified) throws IOException {
+        if (Files.isDirectory(source)) {
+            Files.createDirectories(target);
+            stamp(target, tree, Files.getLastModifiedTime(source).toMillis(), modified);
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(source)) {
+                for (Path child : children) {
+                    materialize(child, target.resolve(child.getFileName().toString()), tree, modified);
+                }
+            }
+            return;
+        }
+
+        FileManifest manifest = readManifest(source);
+        Files.createDirectories(target.getParent());
+        try (InputStream inputStream = new ManifestResource(
+                target.getFileName().toString(), manifest, chunkStore, readExecutor, readAhead).getInputStream()) {
+            Files.copy(inputStream, target);
+        }
+        stamp(target, tree, manifest.lastModified(), modified);
+    }
+
+    /**
+     * Directories are stamped once their content is written, as recent as the latest entry below them, this
+     * keeps the archive fingerprint of an unchanged tree stable.
+     */
+    private static void stamp(Path path, Path tree, long lastModified, Map<Path, Long> modified) {
+        for (Path current = path; current.startsWith(tree); current = current.getParent()) {
+            Long previous = modified.get(current);
+            if (previous != null && previous >= lastModified) {
+                break;
+            }
+            modified.put(current, lastModified);
+        }
+    }
+
+    private static FileMetadata toMetadata(String fileId, FileManifest manifest) {
+        return new FileMetadata(
+                fileId,
+                manifest.size(),
+                manifest.lastModified(),
+                URLConnection.guessContentTypeFromName(fileId),
+                manifest.checksum()
+        );
+    }
+
+    private String fileId(Path path) {
+        return this.manifests.relativize(path).toString().replace('\\', '/');
+    }
+
+    private static final class Workspace {
+
+        private final Path directory;
+        private final Path tree;
+        private int references;
+
+        private Workspace(Path directory, Path tree) {
+            this.directory = directory;
+            this.tree = tree;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.storage;
+
+/**
+ * Non-blocking flavor of {@link IStorageService} for the transfer paths. Content is moved through channels
+ * whose operations complete on a small completion pool, so no thread waits on the disk or on a slow peer
+ * while a transfer is in progress.
+ */
+public interface IAsyncStorageService {
+
+    /**
+     * Opens a staged upload for the given file name, the file only becomes visible once it is committed.
+     */
+    AsyncUpload openUpload(String filename);
+
+    /**
+     * Opens the stored file for sequential reads, or returns {@code null} when it does not exist.
+     */
+    AsyncDownload openDownload(String fileId);
+}
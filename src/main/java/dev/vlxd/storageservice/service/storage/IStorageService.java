@@ -16,20 +16,80 @@
 package dev.vlxd.storageservice.service.storage;
 
 import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.service.archive.ArchiveBaseline;
+import dev.vlxd.storageservice.service.archive.ArchiveDelta;
+import dev.vlxd.storageservice.service.archive.ArchiveOptions;
+import dev.vlxd.storageservice.service.archive.StoredZipArchive;
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
 import org.springframework.core.io.Resource;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
 
 public interface IStorageService {
 
     String uploadFile(InputStream inputStream, String filename);
 
+    String storeFile(Path source, String filename);
+
     Resource loadAsResource(String fileId);
 
-    void archiveFile(ArchiveType archiveType, String fileId, OutputStream outputStream);
+    void archiveFile(ArchiveType archiveType, String fileId, ArchiveOptions options, OutputStream outputStream);
+
+    /**
+     * Archives only what changed in the file or directory since {@code baseline}, see
+     * {@link dev.vlxd.storageservice.service.archive.ArchiveManagerService#archiveChanges}.
+     */
+    void archiveChanges(ArchiveType archiveType, String fileId, ArchiveOptions options, ArchiveBaseline baseline,
+                        Function<ArchiveDelta, OutputStream> output);
+
+    /**
+     * Archives several files and directories at once. Every entry keeps its file id as path below the
+     * archive root {@code name}.
+     */
+    void archiveFiles(ArchiveType archiveType, List<String> fileIds, String name, ArchiveOptions options,
+                      OutputStream outputStream);
+
+    /**
+     * @return an uncompressed ZIP of the file or directory that supports ranges, or {@code null} when the
+     * backend can only stream archives
+     */
+    StoredZipArchive prepareStoredArchive(String fileId);
 
     boolean deleteFile(String fileId);
 
+    /**
+     * Moves a file or directory into the trash under {@code trashId}. Within a volume this is a rename, so
+     * its cost does not depend on the size of a directory.
+     *
+     * @return {@code false} when the file does not exist
+     */
+    boolean trashFile(String fileId, String trashId);
+
+    /**
+     * Moves content trashed under {@code trashId} back to {@code fileId}.
+     */
+    void restoreFile(String fileId, String trashId);
+
+    /**
+     * @return the existing directories that hold the content trashed under {@code trashId}
+     */
+    List<Path> trashDirectories(String trashId);
+
     void checkFile(String fileId);
+
+    Optional<FileMetadata> getMetadata(String fileId);
+
+    ListPage list(String fileId, String prefix, String cursor, int limit, boolean recursive);
+
+    /**
+     * Walks the stored files on disk rather than any index and passes every file id with its size, possibly
+     * from several threads at once. Takes as long as the storage is large.
+     */
+    void scanFiles(ObjLongConsumer<String> visitor);
 }
@@ -16,10 +16,22 @@
 package dev.vlxd.storageservice.service.storage;
 
 import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.event.StorageChangedEvent;
+import dev.vlxd.storageservice.exception.QuotaExceededException;
 import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.exception.TrashConflictException;
+import dev.vlxd.storageservice.service.archive.ArchiveBaseline;
+import dev.vlxd.storageservice.service.archive.ArchiveDelta;
 import dev.vlxd.storageservice.service.archive.ArchiveManagerService;
+import dev.vlxd.storageservice.service.archive.ArchiveOptions;
+import dev.vlxd.storageservice.service.archive.StoredZipArchive;
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
+import dev.vlxd.storageservice.service.metadata.MetadataIndex;
+import dev.vlxd.storageservice.service.usage.UsageService;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
@@ -30,24 +42,70 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
 
+/**
+ * Stores files on the volumes described by {@link VolumeLayout}. File ids are validated against the storage
+ * root, which also holds the reserved directories, and then resolved to their physical path. Unless the
+ * layout is the identity, directories only exist in the metadata index: they are deleted file by file and
+ * archived through a view of symbolic links that mirrors the logical tree. Trashed content is kept below
+ * {@code .dms-trash/<trash id>} on the volume it was stored on, at its file id.
+ */
+@Slf4j
 @Service
 @Profile("local")
 public class LocalStorageService implements IStorageService {
 
+    public static final String RESERVED_PREFIX = ".dms-";
+
+    private static final String VIEWS = RESERVED_PREFIX + "views";
+    private static final String TRASH = RESERVED_PREFIX + "trash";
+
     private final Path root;
+    private final Path viewsDirectory;
+    private final VolumeLayout volumeLayout;
     private final ArchiveManagerService archiveService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MetadataIndex metadataIndex;
+    private final UsageService usageService;
+
+    private final ConcurrentMap<String, ArchiveView> views = new ConcurrentHashMap<>();
 
     @Autowired
     public LocalStorageService(
             @Value("${storage.root}") String rootPath,
-            ArchiveManagerService archiveService
+            VolumeLayout volumeLayout,
+            ArchiveManagerService archiveService,
+            ApplicationEventPublisher eventPublisher,
+            MetadataIndex metadataIndex,
+            UsageService usageService
     ) {
-        this.root = Paths.get(rootPath);
+        this.root = Paths.get(rootPath).toAbsolutePath().normalize();
+        this.viewsDirectory = root.resolve(VIEWS);
+        this.volumeLayout = volumeLayout;
         this.archiveService = archiveService;
+        this.eventPublisher = eventPublisher;
+        this.metadataIndex = metadataIndex;
+        this.usageService = usageService;
         try {
             Files.createDirectories(root);
+            FileSystemUtils.deleteRecursively(viewsDirectory);
         } catch (IOException e) {
             throw new StorageException("Could not initialize storage", e);
         }
@@ -55,21 +113,54 @@ public class LocalStorageService implements IStorageService {
 
     @Override
     public String uploadFile(InputStream inputStream, String filename) {
-        Path dest = resolvePath(filename);
-
-        if (!dest.startsWith(this.root)) {
-            throw new StorageException(
-                    "Can not store file outside storage root directory");
-        }
+        String fileId = fileId(filename, "Can not store file outside storage root directory");
+        Path dest = volumeLayout.place(fileId);
 
         try {
             try {
                 Files.createDirectories(dest);
             } catch (FileAlreadyExistsException ignored) {
             }
-            Files.copy(inputStream, dest, StandardCopyOption.REPLACE_EXISTING);
+            MessageDigest digest = MetadataIndex.newDigest();
+            InputStream limited = usageService.limit(fileId, inputStream);
+            try {
+                Files.copy(new DigestInputStream(limited, digest), dest, StandardCopyOption.REPLACE_EXISTING);
+            } catch (QuotaExceededException e) {
+                // only bodies without a declared length get this far, the partial file must not stay behind
+                Files.deleteIfExists(dest);
+                metadataIndex.remove(fileId);
+                throw e;
+            }
+            volumeLayout.removeStaleCopies(fileId, dest);
+            metadataIndex.put(fileId, dest, HexFormat.of().formatHex(digest.digest()));
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file", e);
+        } finally {
+            eventPublisher.publishEvent(new StorageChangedEvent(dest));
+        }
+
+        return filename;
+    }
+
+    @Override
+    public String storeFile(Path source, String filename) {
+        String fileId = fileId(filename, "Can not store file outside storage root directory");
+        Path dest = volumeLayout.place(fileId);
+
+        try {
+            usageService.checkQuota(fileId, Files.size(source));
+            Files.createDirectories(dest.getParent());
+            try {
+                Files.move(source, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source, dest, StandardCopyOption.REPLACE_EXISTING);
+            }
+            volumeLayout.removeStaleCopies(fileId, dest);
+            metadataIndex.put(fileId, dest, null);
         } catch (IOException e) {
             throw new StorageException("Failed to store file", e);
+        } finally {
+            eventPublisher.publishEvent(new StorageChangedEvent(dest));
         }
 
         return filename;
@@ -77,8 +168,14 @@ public class LocalStorageService implements IStorageService {
 
     @Override
     public Resource loadAsResource(String fileId) {
+        String indexed = fileId(fileId, "Can not read file outside storage root directory");
+        Path path = volumeLayout.locate(indexed);
+
         try {
-            UrlResource resource = new UrlResource(resolvePath(fileId).toUri());
+            UrlResource resource = new UrlResource(path.toUri());
+            if (metadataIndex.get(indexed).isPresent()) {
+                return resource;
+            }
             if (!resource.exists() || !resource.isReadable()) {
                 throw new StorageException("Failed to read file");
             }
@@ -89,53 +186,499 @@ public class LocalStorageService implements IStorageService {
     }
 
     @Override
-    public void archiveFile(ArchiveType archiveType, String fileId, OutputStream outputStream) {
-        Path path = resolvePath(fileId);
+    public void archiveFile(ArchiveType archiveType, String fileId, ArchiveOptions options,
+                            OutputStream outputStream) {
+        String indexed = fileId(fileId, "Can not archive file outside storage root directory");
+        String name = name(indexed);
 
-        if (!path.startsWith(this.root)) {
-            throw new StorageException(
-                    "Can not archive file outside storage root directory");
+        if (!isVirtualDirectory(indexed)) {
+            archiveService.archive(
+                    archiveType, volumeLayout.locate(indexed).toFile(), name, options, outputStream);
+            return;
+        }
+
+        ArchiveView view = acquireView(indexed, name, directoryBase(indexed), List.of(indexed));
+        try {
+            archiveService.archive(archiveType, view.tree.toFile(), name, options, outputStream);
+        } finally {
+            releaseView(indexed, view);
+        }
+    }
+
+    @Override
+    public void archiveChanges(ArchiveType archiveType, String fileId, ArchiveOptions options,
+                               ArchiveBaseline baseline, Function<ArchiveDelta, OutputStream> output) {
+        String indexed = fileId(fileId, "Can not archive file outside storage root directory");
+        String name = name(indexed);
+
+        if (!isVirtualDirectory(indexed)) {
+            archiveService.archiveChanges(
+                    archiveType, volumeLayout.locate(indexed).toFile(), name, options, baseline, output);
+            return;
+        }
+
+        ArchiveView view = acquireView(indexed, name, directoryBase(indexed), List.of(indexed));
+        try {
+            archiveService.archiveChanges(archiveType, view.tree.toFile(), name, options, baseline, output);
+        } finally {
+            releaseView(indexed, view);
+        }
+    }
+
+    @Override
+    public void archiveFiles(ArchiveType archiveType, List<String> fileIds, String name, ArchiveOptions options,
+                             OutputStream outputStream) {
+        List<String> indexed = fileIds.stream()
+                .map(fileId -> fileId(fileId, "Can not archive file outside storage root directory"))
+                .distinct()
+                .sorted()
+                .toList();
+
+        // file ids can not contain a NUL character, so the key never matches one of a single directory
+        String key = name + "\0" + String.join("\0", indexed);
+        ArchiveView view = acquireView(key, name, "", indexed);
+        try {
+            archiveService.archive(archiveType, view.tree.toFile(), name, options, outputStream);
+        } finally {
+            releaseView(key, view);
+        }
+    }
+
+    @Override
+    public StoredZipArchive prepareStoredArchive(String fileId) {
+        String indexed = fileId(fileId, "Can not archive file outside storage root directory");
+        String name = name(indexed);
+
+        if (!isVirtualDirectory(indexed)) {
+            return archiveService.prepareStoredZip(volumeLayout.locate(indexed).toFile(), name);
         }
 
-        archiveService.archive(archiveType, path.toFile(), path.toFile().getName(), outputStream);
+        // archive entries refer to the linked files, the view is not needed once the layout is computed
+        ArchiveView view = acquireView(indexed, name, directoryBase(indexed), List.of(indexed));
+        try {
+            return archiveService.prepareStoredZip(view.tree.toFile(), name);
+        } finally {
+            releaseView(indexed, view);
+        }
     }
 
     @Override
     public boolean deleteFile(String fileId) {
         try {
-            Path path = resolvePath(fileId);
+            String indexed = fileId(fileId, "Can not delete file outside storage root directory");
 
-            if (!path.startsWith(this.root)) {
-                throw new StorageException(
-                        "Can not delete file outside storage root directory");
+            if (volumeLayout.isIdentity()) {
+                Path path = volumeLayout.locate(indexed);
+                try {
+                    boolean deleted = FileSystemUtils.deleteRecursively(path);
+                    metadataIndex.remove(indexed);
+                    return deleted;
+                } finally {
+                    eventPublisher.publishEvent(new StorageChangedEvent(path));
+                }
             }
 
-            return FileSystemUtils.deleteRecursively(path);
+            List<String> files = new ArrayList<>(metadataIndex.subtree(indexed));
+            if (metadataIndex.get(indexed).isPresent()) {
+                files.add(indexed);
+            }
+
+            boolean deleted = false;
+            try {
+                for (String file : files) {
+                    for (Path copy : volumeLayout.delete(file)) {
+                        deleted = true;
+                        eventPublisher.publishEvent(new StorageChangedEvent(copy));
+                    }
+                }
+            } finally {
+                metadataIndex.remove(indexed);
+            }
+            return deleted;
         } catch (IOException e) {
             throw new StorageException("Failed to delete file", e);
         }
     }
 
+    @Override
+    public boolean trashFile(String fileId, String trashId) {
+        String indexed = fileId(fileId, "Can not delete file outside storage root directory");
+
+        try {
+            boolean moved = false;
+
+            if (volumeLayout.isIdentity()) {
+                Path trash = root.resolve(TRASH).resolve(trashId);
+                for (Path path : identityChildren(indexed)) {
+                    String moving = root.relativize(path).toString().replace('\\', '/');
+                    move(path, trash.resolve(moving));
+                    // dropped as it moves, so a move that fails halfway leaves an index of what is still there
+                    metadataIndex.remove(moving);
+                    eventPublisher.publishEvent(new StorageChangedEvent(path));
+                    moved = true;
+                }
+            } else {
+                List<String> files = new ArrayList<>(metadataIndex.subtree(indexed));
+                if (metadataIndex.get(indexed).isPresent()) {
+                    files.add(indexed);
+                }
+
+                for (String file : files) {
+                    synchronized (volumeLayout.lock(file)) {
+                        for (Path copy : volumeLayout.locateAll(file)) {
+                            move(copy, volumeLayout.volumeOf(copy).resolve(TRASH).resolve(trashId).resolve(file));
+                            volumeLayout.prune(copy, file);
+                            eventPublisher.publishEvent(new StorageChangedEvent(copy));
+                            moved = true;
+                        }
+                        metadataIndex.remove(file);
+                    }
+                }
+            }
+
+            metadataIndex.remove(indexed);
+            return moved;
+        } catch (IOException e) {
+            throw new StorageException("Failed to move file to trash", e);
+        }
+    }
+
+    @Override
+    public void restoreFile(String fileId, String trashId) {
+        String indexed = fileId(fileId, "Can not restore file outside storage root directory");
+        List<Restore> restores = new ArrayList<>();
+
+        try {
+            for (Path trash : trashDirectories(trashId)) {
+                Path volume = trash.getParent().getParent();
+
+                if (volumeLayout.isIdentity() && !indexed.isEmpty()) {
+                    restores.add(new Restore(trash.resolve(indexed), root.resolve(indexed), indexed));
+                } else if (volumeLayout.isIdentity()) {
+                    try (DirectoryStream<Path> children = Files.newDirectoryStream(trash)) {
+                        for (Path child : children) {
+                            String restored = child.getFileName().toString();
+                            restores.add(new Restore(child, root.resolve(restored), restored));
+                        }
+                    }
+                } else {
+                    try (Stream<Path> files = Files.walk(trash)) {
+                        for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                            String restored = trash.relativize(file).toString().replace('\\', '/');
+                            restores.add(new Restore(file, volumeLayout.path(volume, restored), restored));
+                        }
+                    }
+                }
+            }
+
+            // every target is checked before anything is moved, a conflict leaves the trash untouched
+            for (Restore restore : restores) {
+                if (Files.exists(restore.target(), LinkOption.NOFOLLOW_LINKS)
+                        || metadataIndex.get(restore.fileId()).isPresent()) {
+                    throw new TrashConflictException("A file was stored at " + restore.fileId() + " after deleting it");
+                }
+            }
+
+            for (Restore restore : restores) {
+                move(restore.source(), restore.target());
+                index(restore.fileId(), restore.target());
+                eventPublisher.publishEvent(new StorageChangedEvent(restore.target()));
+            }
+
+            for (Path trash : trashDirectories(trashId)) {
+                FileSystemUtils.deleteRecursively(trash);
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to restore file from trash", e);
+        }
+    }
+
+    @Override
+    public List<Path> trashDirectories(String trashId) {
+        List<Path> directories = new ArrayList<>();
+        for (Path volume : volumeLayout.volumes()) {
+            Path trash = volume.resolve(TRASH).resolve(trashId);
+            if (Files.isDirectory(trash)) {
+                directories.add(trash);
+            }
+        }
+        return directories;
+    }
+
     @Override
     public void checkFile(String fileId) {
-        Path path = resolvePath(fileId);
+        String indexed = fileId(fileId, "Can not access file outside storage root directory");
 
-        if (!path.startsWith(this.root)) {
-            throw new StorageException(
-                    "Can not access file outside storage root directory");
+        if (metadataIndex.get(indexed).isPresent() || metadataIndex.containsDirectory(indexed)) {
+            return;
         }
 
-        if (!path.toFile().exists()) {
+        if (!volumeLayout.locate(indexed).toFile().exists()) {
             throw new StorageException(
                     "File does not exist");
         }
     }
 
+    @Override
+    public Optional<FileMetadata> getMetadata(String fileId) {
+        return metadataIndex.get(fileId(fileId, "Can not access file outside storage root directory"));
+    }
+
+    /**
+     * Passes every stored file with its size, walked from the volumes so that it also catches files the index
+     * missed.
+     */
+    @Override
+    public void scanFiles(ObjLongConsumer<String> visitor) {
+        metadataIndex.scan(visitor);
+    }
+
+    /**
+     * Lists one page of the directory {@code fileId} straight from the metadata index, in file id order.
+     * Only the entries of the page are materialized, so the cost of a call is bounded by {@code limit} and
+     * not by the size of the directory. Without {@code recursive} every subdirectory is reported once and
+     * its subtree is skipped with a single seek. The cursor is the file id of the last entry of the previous
+     * page, directories are denoted by a trailing slash.
+     */
+    @Override
+    public ListPage list(String fileId, String prefix, String cursor, int limit, boolean recursive) {
+        String directory = fileId(fileId == null ? "" : fileId, "Can not list files outside storage root directory");
+        String base = directory.isEmpty() ? "" : directory + "/";
+        String start = base + (prefix == null ? "" : prefix);
+
+        String key;
+        if (cursor == null || cursor.isEmpty()) {
+            key = metadataIndex.ceilingKey(start);
+        } else if (!cursor.startsWith(start)) {
+            throw new StorageException("Cursor does not belong to this listing");
+        } else {
+            key = next(cursor.compareTo(start) < 0 ? start : cursor);
+        }
+
+        List<ListEntry> entries = new ArrayList<>(Math.min(limit, 1024));
+        String last = null;
+
+        while (key != null && key.startsWith(start) && entries.size() < limit) {
+            int slash = recursive ? -1 : key.indexOf('/', base.length());
+
+            if (slash < 0) {
+                FileMetadata metadata = metadataIndex.get(key).orElse(null);
+                if (metadata != null) {
+                    entries.add(new ListEntry(
+                            key,
+                            key.substring(key.lastIndexOf('/') + 1),
+                            false,
+                            metadata.size(),
+                            metadata.lastModified(),
+                            metadata.contentType()
+                    ));
+                }
+                last = key;
+            } else {
+                String child = key.substring(0, slash);
+                entries.add(new ListEntry(child, child.substring(base.length()), true, null, null, null));
+                last = child + "/";
+            }
+
+            key = next(last);
+        }
+
+        boolean more = key != null && key.startsWith(start);
+        return new ListPage(entries, more ? last : null);
+    }
+
+    private String next(String cursor) {
+        // a directory cursor continues after the whole subtree: '0' is the character right after '/'
+        return cursor.endsWith("/")
+                ? metadataIndex.ceilingKey(cursor.substring(0, cursor.length() - 1) + "0")
+                : metadataIndex.higherKey(cursor);
+    }
+
+    /**
+     * @return the physical path of the file, on whichever volume holds it
+     */
     public Path resolvePath(String filePath) {
-        return this.root.resolve(filePath);
+        return volumeLayout.locate(fileId(filePath, "Can not access file outside storage root directory"));
     }
 
     public Path relativePath(Path filePath) {
         return this.root.relativize(filePath);
     }
+
+    private String fileId(String filePath, String outsideMessage) {
+        Path path = this.root.resolve(filePath).normalize();
+
+        if (!path.startsWith(this.root)) {
+            throw new StorageException(outsideMessage);
+        }
+
+        if (!path.equals(this.root)
+                && this.root.relativize(path).getName(0).toString().startsWith(RESERVED_PREFIX)) {
+            throw new StorageException("Can not access reserved storage directory");
+        }
+
+        return relativePath(path).toString().replace('\\', '/');
+    }
+
+    /**
+     * @return the paths a trash operation moves in the identity layout: the file itself, or every child of
+     * the storage root except the reserved directories
+     */
+    private List<Path> identityChildren(String fileId) throws IOException {
+        List<Path> paths = new ArrayList<>();
+
+        if (!fileId.isEmpty()) {
+            Path path = root.resolve(fileId);
+            if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                paths.add(path);
+            }
+            return paths;
+        }
+
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(root)) {
+            for (Path child : children) {
+                if (!child.getFileName().toString().startsWith(RESERVED_PREFIX)) {
+                    paths.add(child);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds a restored file, or every file of a restored directory, to the metadata index.
+     */
+    private void index(String fileId, Path restored) throws IOException {
+        if (!Files.isDirectory(restored, LinkOption.NOFOLLOW_LINKS)) {
+            metadataIndex.put(fileId, restored, null);
+            return;
+        }
+
+        try (Stream<Path> files = Files.walk(restored)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                metadataIndex.put(fileId + "/" + restored.relativize(file).toString().replace('\\', '/'), file, null);
+            }
+        }
+    }
+
+    private String name(String fileId) {
+        return fileId.isEmpty() ? root.toFile().getName() : fileId.substring(fileId.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * The storage root also holds the reserved directories, so it is archived through a view of the indexed
+     * files in every layout.
+     */
+    private boolean isVirtualDirectory(String fileId) {
+        return fileId.isEmpty() || (!volumeLayout.isIdentity() && metadataIndex.get(fileId).isEmpty());
+    }
+
+    private static String directoryBase(String fileId) {
+        return fileId.isEmpty() ? "" : fileId + "/";
+    }
+
+    /**
+     * Returns a view of the given files and directories for archiving, every file is linked at its file id
+     * without {@code base}. Concurrent archives with the same key share the view, so that they also share
+     * the archive build.
+     */
+    private ArchiveView acquireView(String viewKey, String name, String base, List<String> fileIds) {
+        return views.compute(viewKey, (key, view) -> {
+            ArchiveView current = view != null ? view : createView(key, name, base, fileIds);
+            current.references++;
+            return current;
+        });
+    }
+
+    private void releaseView(String viewKey, ArchiveView view) {
+        // removed while the key is held, so a view acquired next can not be created in the directory being removed
+        views.computeIfPresent(viewKey, (key, current) -> {
+            if (current != view || --current.references > 0) {
+                return current;
+            }
+            try {
+                FileSystemUtils.deleteRecursively(view.directory);
+            } catch (IOException e) {
+                log.warn("Failed to remove archive view {}", view.directory, e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * The directory of a view is derived from its key, so archives of the same selection come from the same
+     * path and share their cache entries and ETags.
+     */
+    private ArchiveView createView(String viewKey, String name, String base, List<String> fileIds) {
+        String id = UUID.nameUUIDFromBytes(viewKey.getBytes(StandardCharsets.UTF_8)).toString();
+        Path directory = viewsDirectory.resolve(id);
+        Path tree = directory.resolve(name);
+        Map<Path, Long> modified = new HashMap<>();
+
+        try {
+            FileSystemUtils.deleteRecursively(directory);
+            Files.createDirectories(tree);
+
+            for (String fileId : fileIds) {
+                link(tree, base, fileId, modified);
+                for (String file : metadataIndex.subtree(fileId)) {
+                    link(tree, base, file, modified);
+                }
+            }
+
+            for (Map.Entry<Path, Long> entry : modified.entrySet()) {
+                Files.setLastModifiedTime(entry.getKey(), FileTime.fromMillis(entry.getValue()));
+            }
+        } catch (IOException e) {
+            try {
+                FileSystemUtils.deleteRecursively(directory);
+            } catch (IOException ignored) {
+            }
+            throw new StorageException("Failed to prepare archive view", e);
+        }
+
+        return new ArchiveView(directory, tree);
+    }
+
+    private void link(Path tree, String base, String fileId, Map<Path, Long> modified) throws IOException {
+        FileMetadata metadata = metadataIndex.get(fileId).orElse(null);
+        Path link = tree.resolve(fileId.substring(base.length()));
+
+        // selections may overlap, a file below a selected directory is linked once
+        if (metadata == null || Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        Files.createDirectories(link.getParent());
+        Files.createSymbolicLink(link, volumeLayout.locate(fileId));
+
+        // a directory is as recent as the latest file below it, this keeps archives reproducible
+        for (Path parent = link.getParent(); parent.startsWith(tree); parent = parent.getParent()) {
+            Long previous = modified.get(parent);
+            if (previous != null && previous >= metadata.lastModified()) {
+                break;
+            }
+            modified.put(parent, metadata.lastModified());
+        }
+    }
+
+    private record Restore(Path source, Path target, String fileId) {
+    }
+
+    private static final class ArchiveView {
+
+        private final Path directory;
+        private final Path tree;
+        private int references;
+
+        private ArchiveView(Path directory, Path tree) {
+            this.directory = directory;
+            this.tree = tree;
+        }
+    }
 }
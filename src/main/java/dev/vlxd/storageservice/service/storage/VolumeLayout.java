@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.storage;
+
+import dev.vlxd.storageservice.exception.StorageException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Maps file ids to physical paths on one or more storage volumes. A file is placed either by consistent
+ * hashing of its file id, so that adding a volume only moves the files that now hash to it, or on a volume
+ * picked with a probability proportional to its usable space. Below the volume the file id is prefixed by
+ * {@code storage.sharding.depth} levels of two hex digits of its hash, which spreads a large logical
+ * directory over many small physical ones. With a single volume at the storage root and no sharding the
+ * physical path is the file id itself and directories exist on disk as they are named.
+ */
+@Component
+@Profile("local")
+public class VolumeLayout {
+
+    public enum Placement {
+        HASH, FREE_SPACE
+    }
+
+    private static final int LOCKS = 256;
+
+    private final Path root;
+    private final List<Path> volumes;
+    private final Placement placement;
+    private final int shardDepth;
+    private final boolean identity;
+
+    private final long[] ringHashes;
+    private final int[] ringVolumes;
+    private final Object[] locks = new Object[LOCKS];
+
+    @Autowired
+    public VolumeLayout(
+            @Value("${storage.root}") String rootPath,
+            @Value("${storage.volumes}") String[] volumePaths,
+            @Value("${storage.placement}") String placement,
+            @Value("${storage.placement.virtual-nodes}") int virtualNodes,
+            @Value("${storage.sharding.depth}") int shardDepth
+    ) {
+        this.root = Paths.get(rootPath).toAbsolutePath().normalize();
+        this.placement = Placement.valueOf(placement.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        this.shardDepth = shardDepth;
+
+        List<Path> configured = Arrays.stream(volumePaths)
+                .map(String::trim)
+                .filter(volume -> !volume.isEmpty())
+                .map(volume -> Paths.get(volume).toAbsolutePath().normalize())
+                .distinct()
+                .toList();
+        this.volumes = configured.isEmpty() ? List.of(root) : configured;
+        this.identity = volumes.size() == 1 && volumes.get(0).equals(root) && shardDepth == 0;
+
+        if (shardDepth < 0 || shardDepth > 4) {
+            throw new StorageException("Sharding depth must be between 0 and 4");
+        }
+
+        try {
+            for (Path volume : volumes) {
+                Files.createDirectories(volume);
+            }
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize storage volumes", e);
+        }
+
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int volume = 0; volume < volumes.size(); volume++) {
+            for (int node = 0; node < Math.max(1, virtualNodes); node++) {
+                ring.put(hash(volumes.get(volume) + "#" + node), volume);
+            }
+        }
+        this.ringHashes = ring.keySet().stream().mapToLong(Long::longValue).toArray();
+        this.ringVolumes = ring.values().stream().mapToInt(Integer::intValue).toArray();
+
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public List<Path> volumes() {
+        return volumes;
+    }
+
+    public Placement placement() {
+        return placement;
+    }
+
+    public int shardDepth() {
+        return shardDepth;
+    }
+
+    /**
+     * @return {@code true} when physical paths equal logical paths below the storage root, so that
+     * directories of the namespace are directories on disk
+     */
+    public boolean isIdentity() {
+        return identity;
+    }
+
+    /**
+     * @return the path of the file on the given volume, whether it exists or not
+     */
+    public Path path(Path volume, String fileId) {
+        return shardDirectory(volume, fileId).resolve(fileId);
+    }
+
+    /**
+     * @return the path of the file on the volume that owns it on the hash ring
+     */
+    public Path owner(String fileId) {
+        return path(volumes.get(ownerVolume(fileId)), fileId);
+    }
+
+    /**
+     * Resolves a stored file. The owning volume is probed first, so with hash placement a file is found
+     * with a single lookup unless it still waits for the rebalancer.
+     *
+     * @return the existing path of the file, or its path on the owning volume when it does not exist
+     */
+    public Path locate(String fileId) {
+        if (identity) {
+            return root.resolve(fileId);
+        }
+
+        Path owner = owner(fileId);
+        if (Files.exists(owner, LinkOption.NOFOLLOW_LINKS)) {
+            return owner;
+        }
+
+        for (Path volume : volumes) {
+            Path path = path(volume, fileId);
+            if (!path.equals(owner) && Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                return path;
+            }
+        }
+
+        return owner;
+    }
+
+    /**
+     * @return every existing copy of the file, there is more than one only while a file is being moved
+     */
+    public List<Path> locateAll(String fileId) {
+        List<Path> copies = new ArrayList<>(1);
+        for (Path volume : volumes) {
+            Path path = path(volume, fileId);
+            if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                copies.add(path);
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * @return the path a new version of the file is written to
+     */
+    public Path place(String fileId) {
+        if (placement == Placement.HASH) {
+            return owner(fileId);
+        }
+
+        // a replaced file stays where it is, otherwise reads would have to pick between two copies
+        List<Path> copies = locateAll(fileId);
+        if (!copies.isEmpty()) {
+            return copies.get(0);
+        }
+
+        long[] space = new long[volumes.size()];
+        long total = 0;
+        for (int volume = 0; volume < space.length; volume++) {
+            try {
+                space[volume] = Files.getFileStore(volumes.get(volume)).getUsableSpace();
+            } catch (IOException e) {
+                space[volume] = 0;
+            }
+            total += space[volume];
+        }
+
+        if (total <= 0) {
+            return owner(fileId);
+        }
+
+        long pick = ThreadLocalRandom.current().nextLong(total);
+        for (int volume = 0; volume < space.length; volume++) {
+            pick -= space[volume];
+            if (pick < 0) {
+                return path(volumes.get(volume), fileId);
+            }
+        }
+
+        return owner(fileId);
+    }
+
+    /**
+     * Removes the copies of a file other than {@code keep}, left behind when a file was rewritten on
+     * another volume.
+     */
+    public void removeStaleCopies(String fileId, Path keep) throws IOException {
+        if (identity) {
+            return;
+        }
+
+        synchronized (lock(fileId)) {
+            for (Path copy : locateAll(fileId)) {
+                if (!copy.equals(keep)) {
+                    deleteCopy(copy, fileId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes every copy of the file.
+     *
+     * @return the deleted copies
+     */
+    public List<Path> delete(String fileId) throws IOException {
+        synchronized (lock(fileId)) {
+            List<Path> deleted = new ArrayList<>(1);
+            for (Path copy : locateAll(fileId)) {
+                if (deleteCopy(copy, fileId)) {
+                    deleted.add(copy);
+                }
+            }
+            return deleted;
+        }
+    }
+
+    /**
+     * Deletes one copy of the file and the directories above it that became empty, up to its shard.
+     */
+    public boolean deleteCopy(Path copy, String fileId) throws IOException {
+        boolean deleted = Files.deleteIfExists(copy);
+        prune(copy, fileId);
+        return deleted;
+    }
+
+    /**
+     * Removes the directories above a removed copy of the file that became empty, up to its shard.
+     */
+    public void prune(Path copy, String fileId) throws IOException {
+        Path stop = copy;
+        for (int i = 0; i < fileId.split("/").length; i++) {
+            stop = stop.getParent();
+        }
+
+        for (Path parent = copy.getParent(); parent != null && !parent.equals(stop); parent = parent.getParent()) {
+            try {
+                Files.delete(parent);
+            } catch (DirectoryNotEmptyException | NoSuchFileException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the volume that holds the path
+     */
+    public Path volumeOf(Path path) {
+        Path match = null;
+        for (Path volume : volumes) {
+            if (path.startsWith(volume) && (match == null || volume.getNameCount() > match.getNameCount())) {
+                match = volume;
+            }
+        }
+        if (match == null) {
+            throw new StorageException("Path is not placed on a storage volume");
+        }
+        return match;
+    }
+
+    /**
+     * @return the monitor that serializes replacing and moving the copies of a file
+     */
+    public Object lock(String fileId) {
+        return locks[(int) (hash(fileId) & (LOCKS - 1))];
+    }
+
+    private int ownerVolume(String fileId) {
+        if (volumes.size() == 1) {
+            return 0;
+        }
+
+        int index = Arrays.binarySearch(ringHashes, hash(fileId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return ringVolumes[index == ringHashes.length ? 0 : index];
+    }
+
+    private Path shardDirectory(Path volume, String fileId) {
+        if (shardDepth == 0) {
+            return volume;
+        }
+
+        long hash = hash(fileId);
+        Path directory = volume;
+        for (int level = 0; level < shardDepth; level++) {
+            directory = directory.resolve(String.format("%02x", (hash >>> (level * 8)) & 0xFF));
+        }
+        return directory;
+    }
+
+    /**
+     * 64 bit FNV-1a with a final avalanche step, stable across runs and JVMs.
+     */
+    public static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.storage;
+
+import dev.vlxd.storageservice.event.StorageChangedEvent;
+import dev.vlxd.storageservice.service.metadata.MetadataIndex;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Moves files to the volume that owns them on the hash ring after volumes were added. The set of volumes
+ * of the last completed run is kept in the metadata directory; a run starts in the background once the
+ * application is ready and a configured volume is not part of that set. A moved file is copied to the
+ * target volume first and published there with a hard link, which never replaces a newer upload, before
+ * the old copy is removed. Copying is throttled to {@code storage.rebalance.max-bytes-per-second}.
+ */
+@Slf4j
+@Component
+@Profile("local")
+public class VolumeRebalancer {
+
+    private static final String STATE = "volumes";
+    private static final String STAGING = LocalStorageService.RESERVED_PREFIX + "rebalance";
+
+    private final VolumeLayout volumeLayout;
+    private final MetadataIndex metadataIndex;
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean enabled;
+    private final long maxBytesPerSecond;
+    private final Path stateFile;
+
+    private Thread worker;
+
+    @Autowired
+    public VolumeRebalancer(
+            VolumeLayout volumeLayout,
+            MetadataIndex metadataIndex,
+            ApplicationEventPublisher eventPublisher,
+            @Value("${storage.rebalance.enabled}") boolean enabled,
+            @Value("${storage.rebalance.max-bytes-per-second}") long maxBytesPerSecond,
+            @Value("${storage.metadata.directory}") String metadataDirectory
+    ) {
+        this.volumeLayout = volumeLayout;
+        this.metadataIndex = metadataIndex;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.stateFile = Paths.get(metadataDirectory).resolve(STATE);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void onApplicationReady() {
+        if (!enabled || volumeLayout.isIdentity() || volumeLayout.placement() != VolumeLayout.Placement.HASH) {
+            return;
+        }
+
+        Set<String> recorded = readState();
+        if (recorded != null && recorded.containsAll(currentState())) {
+            return;
+        }
+
+        worker = new Thread(this::rebalance, "volume-rebalancer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Moves every indexed file that is not on its owning volume.
+     *
+     * @return the number of moved files
+     */
+    public long rebalance() {
+        long started = System.currentTimeMillis();
+        long moved = 0;
+        long bytes = 0;
+
+        try {
+            for (Path volume : volumeLayout.volumes()) {
+                FileSystemUtils.deleteRecursively(volume.resolve(STAGING));
+            }
+
+            log.info("Rebalancing {} files over {} volumes", metadataIndex.subtree("").size(),
+                    volumeLayout.volumes().size());
+
+            for (String fileId : metadataIndex.subtree("")) {
+                if (Thread.currentThread().isInterrupted()) {
+                    log.info("Rebalancing interrupted after {} files", moved);
+                    return moved;
+                }
+
+                long size = move(fileId);
+                if (size >= 0) {
+                    moved++;
+                    bytes += size;
+                    throttle(started, bytes);
+                }
+            }
+
+            writeState();
+            log.info("Rebalanced {} files ({} bytes) in {} ms", moved, bytes, System.currentTimeMillis() - started);
+        } catch (IOException e) {
+            log.warn("Rebalancing failed after {} files", moved, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return moved;
+    }
+
+    /**
+     * @return the number of copied bytes, or {@code -1} when the file already was in place
+     */
+    private long move(String fileId) throws IOException {
+        Path owner = volumeLayout.owner(fileId);
+        long copied = -1;
+
+        for (Path copy : volumeLayout.locateAll(fileId)) {
+            if (copy.equals(owner)) {
+                continue;
+            }
+
+            if (!Files.exists(owner)) {
+                Path staging = stagingPath(owner);
+                Files.createDirectories(staging.getParent());
+                try {
+                    Files.copy(copy, staging, StandardCopyOption.COPY_ATTRIBUTES);
+                    copied = Files.size(staging);
+
+                    synchronized (volumeLayout.lock(fileId)) {
+                        Files.createDirectories(owner.getParent());
+                        try {
+                            Files.createLink(owner, staging);
+                        } catch (FileAlreadyExistsException ignored) {
+                            // uploaded in the meantime, the copy is stale
+                        }
+                        volumeLayout.deleteCopy(copy, fileId);
+                    }
+                } catch (NoSuchFileException e) {
+                    // deleted or replaced in the meantime
+                    continue;
+                } finally {
+                    Files.deleteIfExists(staging);
+                }
+            } else {
+                synchronized (volumeLayout.lock(fileId)) {
+                    volumeLayout.deleteCopy(copy, fileId);
+                }
+            }
+
+            eventPublisher.publishEvent(new StorageChangedEvent(copy));
+        }
+
+        return copied;
+    }
+
+    private Path stagingPath(Path owner) {
+        return volumeLayout.volumeOf(owner).resolve(STAGING).resolve(UUID.randomUUID().toString());
+    }
+
+    private void throttle(long started, long bytes) throws InterruptedException {
+        if (maxBytesPerSecond <= 0) {
+            return;
+        }
+
+        long ahead = bytes * 1000 / maxBytesPerSecond - (System.currentTimeMillis() - started);
+        if (ahead > 0) {
+            Thread.sleep(ahead);
+        }
+    }
+
+    private Set<String> currentState() {
+        Set<String> volumes = new LinkedHashSet<>();
+        for (Path volume : volumeLayout.volumes()) {
+            volumes.add(volume.toString());
+        }
+        return volumes;
+    }
+
+    private Set<String> readState() {
+        if (!Files.exists(stateFile)) {
+            return null;
+        }
+
+        try {
+            return new LinkedHashSet<>(Files.readAllLines(stateFile));
+        } catch (IOException e) {
+            log.warn("Failed to read volume state {}", stateFile, e);
+            return null;
+        }
+    }
+
+    private void writeState() throws IOException {
+        Path temp = stateFile.resolveSibling(STATE + ".tmp");
+        Files.write(temp, new ArrayList<>(currentState()));
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
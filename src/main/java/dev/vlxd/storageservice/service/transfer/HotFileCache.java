@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.transfer;
+
+import dev.vlxd.storageservice.event.StorageChangedEvent;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of small, frequently downloaded files. Contents are kept in direct buffers, outside
+ * the heap, and evicted with a segmented LRU: a file enters the probationary segment and is promoted to
+ * the protected segment on its second hit, so a burst of one-off downloads can not flush the hot set.
+ * Entries are validated against the size and modification time of the file and dropped on every
+ * storage change below their path.
+ */
+@Slf4j
+@Service
+public class HotFileCache {
+
+    private final boolean enabled;
+    private final long maxFileSize;
+    private final long capacity;
+    private final long protectedCapacity;
+
+    private final LinkedHashMap<Path, CachedFile> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Path, CachedFile> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationBytes;
+    private long protectedBytes;
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public HotFileCache(
+            @Value("${storage.hot-cache.enabled}") boolean enabled,
+            @Value("${storage.hot-cache.max-file-size}") long maxFileSize,
+            @Value("${storage.hot-cache.capacity}") long capacity,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.maxFileSize = Math.min(maxFileSize, Integer.MAX_VALUE);
+        this.capacity = capacity;
+        this.protectedCapacity = capacity * 4 / 5;
+
+        FunctionCounter.builder("storage.hot-cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("storage.hot-cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("storage.hot-cache.evictions", evictions, AtomicLong::get)
+                .register(meterRegistry);
+        Gauge.builder("storage.hot-cache.size", this, HotFileCache::usedBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return a read-only view of the file contents, or {@code null} when the file is not eligible for
+     * caching, in which case it has to be read from disk
+     */
+    public ByteBuffer get(Path path, long size, long lastModified) {
+        if (!enabled || size > maxFileSize || size > capacity) {
+            return null;
+        }
+
+        long observedGeneration;
+
+        synchronized (this) {
+            CachedFile cached = lookup(path);
+            if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+                hits.incrementAndGet();
+                return cached.content.asReadOnlyBuffer();
+            }
+            observedGeneration = generation;
+        }
+
+        misses.incrementAndGet();
+
+        ByteBuffer content;
+        try {
+            content = read(path, size);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Failed to load {} into hot file cache", path, e);
+            return null;
+        }
+
+        if (content == null) {
+            // the file changed while it was read, the next request loads it again
+            return null;
+        }
+
+        synchronized (this) {
+            // anything invalidated while the file was read may be the file itself
+            if (generation == observedGeneration) {
+                insert(path, new CachedFile(content, size, lastModified));
+            }
+        }
+
+        return content.asReadOnlyBuffer();
+    }
+
+    @EventListener
+    public synchronized void onStorageChanged(StorageChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+
+        generation++;
+        probationBytes -= invalidate(probation, event);
+        protectedBytes -= invalidate(protectedSegment, event);
+    }
+
+    public synchronized long usedBytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    private CachedFile lookup(Path path) {
+        CachedFile cached = protectedSegment.get(path);
+        if (cached != null) {
+            return cached;
+        }
+
+        cached = probation.remove(path);
+        if (cached == null) {
+            return null;
+        }
+
+        probationBytes -= cached.size;
+        protectedSegment.put(path, cached);
+        protectedBytes += cached.size;
+
+        // overflow of the protected segment goes back to the most recently used end of the probation
+        Iterator<Map.Entry<Path, CachedFile>> iterator = protectedSegment.entrySet().iterator();
+        while (protectedBytes > protectedCapacity && iterator.hasNext()) {
+            Map.Entry<Path, CachedFile> eldest = iterator.next();
+            if (eldest.getValue() == cached) {
+                break;
+            }
+            iterator.remove();
+            protectedBytes -= eldest.getValue().size;
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationBytes += eldest.getValue().size;
+        }
+
+        evict();
+        return cached;
+    }
+
+    private void insert(Path path, CachedFile cached) {
+        CachedFile previous = protectedSegment.remove(path);
+        if (previous != null) {
+            protectedBytes -= previous.size;
+        }
+        previous = probation.put(path, cached);
+        if (previous != null) {
+            probationBytes -= previous.size;
+        }
+        probationBytes += cached.size;
+
+        evict();
+    }
+
+    private void evict() {
+        Iterator<CachedFile> iterator = probation.values().iterator();
+        while (usedBytes() > capacity && iterator.hasNext()) {
+            probationBytes -= iterator.next().size;
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+
+        iterator = protectedSegment.values().iterator();
+        while (usedBytes() > capacity && iterator.hasNext()) {
+            protectedBytes -= iterator.next().size;
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long invalidate(Map<Path, CachedFile> segment, StorageChangedEvent event) {
+        long removed = 0;
+        Iterator<Map.Entry<Path, CachedFile>> iterator = segment.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, CachedFile> entry = iterator.next();
+            if (event.affects(entry.getKey())) {
+                removed += entry.getValue().size;
+                iterator.remove();
+            }
+        }
+        return removed;
+    }
+
+    private static ByteBuffer read(Path path, long size) throws IOException {
+        ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (content.hasRemaining()) {
+                if (channel.read(content, content.position()) < 0) {
+                    return null;
+                }
+            }
+            if (channel.size() != size) {
+                return null;
+            }
+        }
+
+        return content.flip();
+    }
+
+    private record CachedFile(ByteBuffer content, long size, long lastModified) {
+    }
+}
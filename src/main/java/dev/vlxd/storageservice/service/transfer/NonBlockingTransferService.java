@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.transfer;
+
+import dev.vlxd.storageservice.service.storage.AsyncDownload;
+import dev.vlxd.storageservice.service.storage.AsyncUpload;
+import dev.vlxd.storageservice.service.storage.IAsyncStorageService;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams uploads and downloads with servlet non-blocking I/O. The request thread returns as soon as the
+ * listener is registered, afterwards the connector calls back only when the socket can be read or written,
+ * and file I/O completes on the {@link IAsyncStorageService} pool.
+ * <p>
+ * Both directions keep a single buffer in flight: an upload stops reading the socket while the buffer is
+ * written to disk, a download reads the next buffer from disk only once the previous one was accepted by
+ * the socket. A slow peer therefore holds one buffer and no thread.
+ * <p>
+ * The listeners take no locks: the container does not call back while a disk operation is outstanding, so
+ * each transfer is driven by one thread at a time. Holding a lock while calling into the container from the
+ * completion pool would deadlock against the connector's own socket lock.
+ */
+@Slf4j
+@Service
+public class NonBlockingTransferService {
+
+    private final IAsyncStorageService asyncStorageService;
+    private final int bufferSize;
+    private final long timeout;
+
+    @Autowired
+    public NonBlockingTransferService(
+            IAsyncStorageService asyncStorageService,
+            @Value("${storage.async.buffer-size}") int bufferSize,
+            @Value("${storage.async.timeout}") long timeout
+    ) {
+        this.asyncStorageService = asyncStorageService;
+        this.bufferSize = bufferSize;
+        this.timeout = timeout;
+    }
+
+    public void upload(HttpServletRequest request, HttpServletResponse response, String filename)
+            throws IOException {
+        AsyncUpload upload = asyncStorageService.openUpload(filename);
+        AsyncContext context = request.startAsync();
+        context.setTimeout(timeout);
+
+        try {
+            ServletInputStream inputStream = request.getInputStream();
+            UploadListener listener = new UploadListener(context, inputStream, response, upload);
+            context.addListener(listener);
+            inputStream.setReadListener(listener);
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            context.complete();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the file, or answers 404 when it does not exist.
+     */
+    public void download(HttpServletRequest request, HttpServletResponse response, String fileId,
+                         MediaType contentType) throws IOException {
+        AsyncDownload download = asyncStorageService.openDownload(fileId);
+
+        if (download == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        response.setContentType(contentType.toString());
+        response.setContentLengthLong(download.size());
+
+        AsyncContext context = request.startAsync();
+        context.setTimeout(timeout);
+
+        try {
+            ServletOutputStream outputStream = response.getOutputStream();
+            DownloadListener listener = new DownloadListener(context, outputStream, download);
+            context.addListener(listener);
+            outputStream.setWriteListener(listener);
+        } catch (IOException | RuntimeException e) {
+            download.close();
+            context.complete();
+            throw e;
+        }
+    }
+
+    private final class UploadListener implements ReadListener, AsyncListener, CompletionHandler<Void, Void> {
+
+        private final AsyncContext context;
+        private final ServletInputStream inputStream;
+        private final HttpServletResponse response;
+        private final AsyncUpload upload;
+        private final byte[] buffer = new byte[bufferSize];
+
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile boolean writing;
+        private volatile boolean finished;
+
+        UploadListener(AsyncContext context, ServletInputStream inputStream, HttpServletResponse response,
+                       AsyncUpload upload) {
+            this.context = context;
+            this.inputStream = inputStream;
+            this.response = response;
+            this.upload = upload;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            while (!done.get() && inputStream.isReady()) {
+                int read = inputStream.read(buffer);
+
+                if (read < 0) {
+                    finished = true;
+                    break;
+                }
+                if (read > 0) {
+                    // stop reading until the buffer is on disk, the completion resumes the loop
+                    writing = true;
+                    upload.write(ByteBuffer.wrap(buffer, 0, read), this);
+                    return;
+                }
+            }
+
+            commitIfFinished();
+        }
+
+        @Override
+        public void onAllDataRead() {
+            finished = true;
+            commitIfFinished();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            log.debug("Non-blocking upload failed", e);
+            fail(HttpStatus.BAD_REQUEST);
+        }
+
+        @Override
+        public void completed(Void result, Void attachment) {
+            writing = false;
+
+            if (finished) {
+                commitIfFinished();
+                return;
+            }
+
+            try {
+                onDataAvailable();
+            } catch (IOException | RuntimeException e) {
+                fail(HttpStatus.BAD_REQUEST);
+            }
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+            writing = false;
+            log.warn("Failed to write upload to disk", e);
+            fail(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            fail(HttpStatus.REQUEST_TIMEOUT);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            fail(HttpStatus.BAD_REQUEST);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private void commitIfFinished() {
+            if (!finished || writing || !done.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                String fileId = upload.commit();
+                response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+                response.getOutputStream().write(fileId.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to store upload", e);
+                upload.abort();
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            }
+            context.complete();
+        }
+
+        private void fail(HttpStatus status) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+
+            upload.abort();
+            if (!response.isCommitted()) {
+                response.setStatus(status.value());
+            }
+            context.complete();
+        }
+    }
+
+    private final class DownloadListener implements WriteListener, AsyncListener, CompletionHandler<Integer, Void> {
+
+        private final AsyncContext context;
+        private final ServletOutputStream outputStream;
+        private final AsyncDownload download;
+        private final ByteBuffer buffer = ByteBuffer.allocate(bufferSize).flip();
+
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile boolean finished;
+
+        DownloadListener(AsyncContext context, ServletOutputStream outputStream, AsyncDownload download) {
+            this.context = context;
+            this.outputStream = outputStream;
+            this.download = download;
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            while (!done.get() && outputStream.isReady()) {
+                if (buffer.hasRemaining()) {
+                    outputStream.write(buffer.array(), buffer.position(), buffer.remaining());
+                    buffer.position(buffer.limit());
+                } else if (finished) {
+                    // isReady() was true, so everything written before has left the container's buffer
+                    if (done.compareAndSet(false, true)) {
+                        download.close();
+                        context.complete();
+                    }
+                } else {
+                    // the next buffer is read only now that the socket took the previous one
+                    download.read(buffer.clear(), this);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            log.debug("Non-blocking download failed", e);
+            abort();
+        }
+
+        @Override
+        public void completed(Integer read, Void attachment) {
+            buffer.flip();
+            if (read < 0) {
+                finished = true;
+            }
+
+            try {
+                onWritePossible();
+            } catch (IOException | RuntimeException e) {
+                log.debug("Non-blocking download failed", e);
+                abort();
+            }
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+            log.warn("Failed to read download from disk", e);
+            abort();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            abort();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            abort();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private void abort() {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+
+            download.close();
+            // the length was announced already, completing early lets the client see a truncated body
+            context.complete();
+        }
+    }
+}
@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.transfer;
+
+import dev.vlxd.storageservice.constants.ContentCoding;
+import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.service.encoding.ContentEncodingService;
+import dev.vlxd.storageservice.service.encoding.EncodedVariant;
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Writes stored files to HTTP responses with conditional request (ETag / Last-Modified) and byte range support.
+ * Whole files and single ranges are handed to the connector's {@code sendfile} when it is available,
+ * otherwise they are copied from {@link FileChannel} regions through pooled buffers. Small hot files are
+ * served from the {@link HotFileCache}.
+ * <p>
+ * Compressible content is negotiated with {@code Accept-Encoding}: a precomputed variant is sent like a
+ * file of its own, with ranges and {@code sendfile}, otherwise the body is compressed while it streams.
+ */
+@Service
+public class ResourceTransferService {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final HotFileCache hotFileCache;
+    private final TransferBufferPool bufferPool;
+    private final ContentEncodingService contentEncodingService;
+    private final boolean sendfile;
+    private final long sendfileMinSize;
+
+    @Autowired
+    public ResourceTransferService(
+            HotFileCache hotFileCache,
+            TransferBufferPool bufferPool,
+            ContentEncodingService contentEncodingService,
+            @Value("${storage.download.sendfile}") boolean sendfile,
+            @Value("${storage.download.sendfile-min-size}") long sendfileMinSize
+    ) {
+        this.hotFileCache = hotFileCache;
+        this.bufferPool = bufferPool;
+        this.contentEncodingService = contentEncodingService;
+        this.sendfile = sendfile;
+        this.sendfileMinSize = sendfileMinSize;
+    }
+
+    public void transfer(Resource resource, FileMetadata metadata, MediaType contentType,
+                         ServletWebRequest webRequest, HttpServletResponse response) {
+        try {
+            if (transferEncoded(resource, metadata, contentType, webRequest, response)) {
+                return;
+            }
+
+            if (!resource.isFile()) {
+                transferStream(resource, contentType, webRequest, response);
+                return;
+            }
+
+            File file = resource.getFile();
+            long length = metadata != null ? metadata.size() : file.length();
+            long lastModified = metadata != null ? metadata.lastModified() : file.lastModified();
+            String eTag = eTag(metadata, length, lastModified);
+
+            send(resource.getFilename(), length, lastModified, eTag, contentType, webRequest, response,
+                    new FileRegions(file, length, lastModified, webRequest));
+        } catch (IOException e) {
+            throw new StorageException("Failed to send file", e);
+        }
+    }
+
+    /**
+     * Sends generated content with the same conditional request and range handling as files.
+     */
+    public void transfer(RangeResource resource, MediaType contentType,
+                         ServletWebRequest webRequest, HttpServletResponse response) {
+        try {
+            send(resource.getFilename(), resource.contentLength(), resource.lastModified(), resource.eTag(),
+                    contentType, webRequest, response, resource::writeRange);
+        } catch (IOException e) {
+            throw new StorageException("Failed to send file", e);
+        }
+    }
+
+    /**
+     * Sends a compressed representation if the content is compressible and the client accepts one.
+     *
+     * @return {@code false} when the identity representation has to be sent instead
+     */
+    private boolean transferEncoded(Resource resource, FileMetadata metadata, MediaType contentType,
+                                    ServletWebRequest webRequest, HttpServletResponse response) throws IOException {
+        long length = metadata != null ? metadata.size() : resource.contentLength();
+
+        if (!contentEncodingService.isCompressible(contentType, length)) {
+            return false;
+        }
+
+        // shared caches must not hand a compressed body to a client that did not ask for it
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        List<ContentCoding> accepted = contentEncodingService.accepted(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        if (accepted.isEmpty()) {
+            return false;
+        }
+
+        long lastModified = metadata != null ? metadata.lastModified() : resource.lastModified();
+        String eTag = eTag(metadata, length, lastModified);
+        Optional<EncodedVariant> variant = metadata != null
+                ? contentEncodingService.variant(metadata, accepted)
+                : Optional.empty();
+
+        if (variant.isPresent()) {
+            EncodedVariant encoded = variant.get();
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, encoded.coding().getToken());
+            send(resource.getFilename(), encoded.length(), lastModified, encodedETag(eTag, encoded.coding()),
+                    contentType, webRequest, response,
+                    new FileRegions(encoded.file(), encoded.length(), lastModified, webRequest));
+            return true;
+        }
+
+        // a range refers to bytes of the encoded body, which is only stable for precomputed variants
+        if (webRequest.getHeader(HttpHeaders.RANGE) != null) {
+            return false;
+        }
+
+        ContentCoding coding = accepted.get(0);
+        // weak, the bytes depend on how the stream is flushed, only the decoded content is the same
+        if (webRequest.checkNotModified("W/" + encodedETag(eTag, coding), lastModified)) {
+            return true;
+        }
+
+        response.setContentType(contentType.toString());
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, coding.getToken());
+        response.setHeader(
+                HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + resource.getFilename() + "\""
+        );
+
+        if (!HttpMethod.HEAD.matches(webRequest.getRequest().getMethod())) {
+            byte[] buffer = bufferPool.acquire();
+            try (InputStream inputStream = resource.getInputStream();
+                 OutputStream outputStream = coding.encode(response.getOutputStream(), coding.getStreamingLevel())) {
+                int read;
+                while ((read = inputStream.read(buffer)) >= 0) {
+                    outputStream.write(buffer, 0, read);
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+        return true;
+    }
+
+    private void send(String filename, long length, long lastModified, String eTag, MediaType contentType,
+                      ServletWebRequest webRequest, HttpServletResponse response, Regions regions)
+            throws IOException {
+        if (webRequest.checkNotModified(eTag, lastModified)) {
+            return;
+        }
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(
+                HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + filename + "\""
+        );
+
+        String rangeHeader = webRequest.getHeader(HttpHeaders.RANGE);
+        List<long[]> ranges = null;
+
+        if (rangeHeader != null && isRangeApplicable(webRequest, eTag, lastModified)) {
+            ranges = parseRanges(rangeHeader, length);
+
+            if (ranges != null && ranges.isEmpty()) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+        }
+
+        boolean body = !HttpMethod.HEAD.matches(webRequest.getRequest().getMethod());
+
+        if (ranges == null) {
+            response.setContentType(contentType.toString());
+            response.setContentLengthLong(length);
+            if (body && !regions.sendfile(0, length)) {
+                regions.write(0, length, response.getOutputStream());
+            }
+        } else if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setContentType(contentType.toString());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, length));
+            response.setContentLengthLong(range[1] - range[0] + 1);
+            if (body && !regions.sendfile(range[0], range[1] - range[0] + 1)) {
+                regions.write(range[0], range[1] - range[0] + 1, response.getOutputStream());
+            }
+        } else {
+            writeMultipart(regions, ranges, length, contentType, body, response);
+        }
+    }
+
+    private void writeMultipart(Regions regions, List<long[]> ranges, long length, MediaType contentType,
+                                boolean body, HttpServletResponse response) throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        long contentLength = end.length;
+
+        for (long[] range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range[1] - range[0] + 1;
+        }
+
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+
+        if (!body) {
+            return;
+        }
+
+        OutputStream outputStream = response.getOutputStream();
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            outputStream.write(partHeaders.get(i));
+            regions.write(range[0], range[1] - range[0] + 1, outputStream);
+        }
+        outputStream.write(end);
+    }
+
+    private void transferStream(Resource resource, MediaType contentType, ServletWebRequest webRequest,
+                                HttpServletResponse response) throws IOException {
+        response.setContentType(contentType.toString());
+        response.setHeader(
+                HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + resource.getFilename() + "\""
+        );
+
+        long length = resource.contentLength();
+        if (length >= 0) {
+            response.setContentLengthLong(length);
+        }
+
+        if (!HttpMethod.HEAD.matches(webRequest.getRequest().getMethod())) {
+            byte[] buffer = bufferPool.acquire();
+            try (InputStream inputStream = resource.getInputStream()) {
+                OutputStream outputStream = response.getOutputStream();
+                int read;
+                while ((read = inputStream.read(buffer)) >= 0) {
+                    outputStream.write(buffer, 0, read);
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Hands the region over to the connector, which writes it with {@code sendfile} after the request
+     * returns. Only Tomcat's NIO and APR connectors advertise the support, so this is skipped under tests
+     * and other containers, and for small regions where the extra poller round trip does not pay off.
+     */
+    private boolean sendfile(ServletWebRequest webRequest, File file, long position, long count) {
+        HttpServletRequest request = webRequest.getRequest();
+
+        if (!sendfile || count < sendfileMinSize || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            return false;
+        }
+
+        request.setAttribute(SENDFILE_FILENAME, file.getAbsolutePath());
+        request.setAttribute(SENDFILE_START, position);
+        request.setAttribute(SENDFILE_END, position + count);
+        return true;
+    }
+
+    private void writeRegion(File file, ByteBuffer cached, long position, long count, OutputStream outputStream)
+            throws IOException {
+        if (cached != null) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            ByteBuffer region = cached.slice((int) position, (int) count);
+            while (region.hasRemaining()) {
+                target.write(region);
+            }
+            return;
+        }
+
+        // positional reads into a pooled buffer, written straight to the servlet stream without extra copies
+        byte[] buffer = bufferPool.acquire();
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long end = position + count;
+            while (position < end) {
+                wrapped.clear().limit((int) Math.min(buffer.length, end - position));
+                int read = channel.read(wrapped, position);
+                if (read < 0) {
+                    throw new IOException("File " + file + " was truncated while sending");
+                }
+                outputStream.write(buffer, 0, read);
+                position += read;
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private static boolean isRangeApplicable(ServletWebRequest webRequest, String eTag, long lastModified) {
+        String ifRange = webRequest.getHeader(HttpHeaders.IF_RANGE);
+
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(eTag);
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+
+        try {
+            long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return lastModified / 1000 <= date / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return satisfiable ranges as inclusive {@code [start, end]} pairs, an empty list when none of the ranges
+     * can be satisfied, or {@code null} when the header is malformed and has to be ignored
+     */
+    private static List<long[]> parseRanges(String rangeHeader, long length) {
+        List<HttpRange> httpRanges;
+
+        try {
+            httpRanges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<>(httpRanges.size());
+        long total = 0;
+
+        for (HttpRange httpRange : httpRanges) {
+            long start;
+            long end;
+            try {
+                start = httpRange.getRangeStart(length);
+                end = httpRange.getRangeEnd(length);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (start >= length || end < start) {
+                continue;
+            }
+            ranges.add(new long[]{start, end});
+            total += end - start + 1;
+        }
+
+        // overlapping ranges that add up to more than the file are an amplification attempt, send the whole file
+        return total > length ? null : ranges;
+    }
+
+    private static String eTag(FileMetadata metadata, long length, long lastModified) {
+        return metadata != null && metadata.checksum() != null
+                ? "\"" + metadata.checksum() + "\""
+                : "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    private static String encodedETag(String eTag, ContentCoding coding) {
+        return eTag.substring(0, eTag.length() - 1) + "-" + coding.getToken() + "\"";
+    }
+
+    private static String contentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + length;
+    }
+
+    /**
+     * Source of the response body, written region by region.
+     */
+    private interface Regions {
+
+        /**
+         * Hands a region that makes up the whole body over to the connector, if possible.
+         */
+        default boolean sendfile(long position, long count) {
+            return false;
+        }
+
+        void write(long position, long count, OutputStream outputStream) throws IOException;
+    }
+
+    private final class FileRegions implements Regions {
+
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private final ServletWebRequest webRequest;
+        private ByteBuffer cached;
+        private boolean cacheChecked;
+
+        private FileRegions(File file, long length, long lastModified, ServletWebRequest webRequest) {
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.webRequest = webRequest;
+        }
+
+        @Override
+        public boolean sendfile(long position, long count) {
+            return cached() == null && ResourceTransferService.this.sendfile(webRequest, file, position, count);
+        }
+
+        @Override
+        public void write(long position, long count, OutputStream outputStream) throws IOException {
+            writeRegion(file, cached(), position, count, outputStream);
+        }
+
+        private ByteBuffer cached() {
+            // looked up only once a body is actually sent, not for 304, 416 or HEAD responses
+            if (!cacheChecked) {
+                cached = hotFileCache.get(file.toPath(), length, lastModified);
+                cacheChecked = true;
+            }
+            return cached;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.transfer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts request and response body bytes of the storage API per endpoint. {@code storage.transfer.bytes} grows
+ * while a body is streamed, {@code storage.transfer.size} records the body sizes of every finished request and
+ * {@code storage.transfer.active} is the number of requests currently streaming a body. Bodies handed to the
+ * connector's {@code sendfile} are counted when the request completes. Asynchronous requests complete
+ * when their asynchronous processing does, not when the request thread returns. The filter runs ahead of the
+ * cluster routing, so bodies proxied to other nodes are counted as well.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+public class TransferMetricsFilter extends OncePerRequestFilter {
+
+    private static final String UNMAPPED = "unmapped";
+
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentMap<List<String>, Meters> meters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<String>, AtomicInteger> streams = new ConcurrentHashMap<>();
+
+    public TransferMetricsFilter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/v1/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Transfer transfer = new Transfer(request);
+
+        try {
+            chain.doFilter(transfer.new CountingRequest(request), transfer.new CountingResponse(response));
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(transfer);
+            } else {
+                transfer.complete();
+            }
+        }
+    }
+
+    private Meters meters(String method, String endpoint, String direction) {
+        return meters.computeIfAbsent(List.of(method, endpoint, direction), key -> new Meters(
+                Counter.builder("storage.transfer.bytes")
+                        .baseUnit("bytes")
+                        .tag("method", method)
+                        .tag("endpoint", endpoint)
+                        .tag("direction", direction)
+                        .register(meterRegistry),
+                DistributionSummary.builder("storage.transfer.size")
+                        .baseUnit("bytes")
+                        .tag("method", method)
+                        .tag("endpoint", endpoint)
+                        .tag("direction", direction)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(1024.0)
+                        .maximumExpectedValue(64.0 * 1024 * 1024 * 1024)
+                        .register(meterRegistry)
+        ));
+    }
+
+    private AtomicInteger streams(String method, String endpoint) {
+        return streams.computeIfAbsent(List.of(method, endpoint), key -> {
+            AtomicInteger active = new AtomicInteger();
+            Gauge.builder("storage.transfer.active", active, AtomicInteger::get)
+                    .tag("method", method)
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+            return active;
+        });
+    }
+
+    private record Meters(Counter bytes, DistributionSummary size) {
+    }
+
+    /**
+     * The body counters of one request. The endpoint is only known once the handler is mapped, so the meters
+     * are looked up when the body is first read or written.
+     */
+    private final class Transfer implements AsyncListener {
+
+        private final HttpServletRequest request;
+        private Meters in;
+        private Meters out;
+        private AtomicInteger active;
+        private long bytesIn;
+        private long bytesOut;
+
+        private Transfer(HttpServletRequest request) {
+            this.request = request;
+        }
+
+        private void received(long count) {
+            if (in == null) {
+                in = meters(request.getMethod(), start(), "in");
+            }
+            in.bytes.increment(count);
+            bytesIn += count;
+        }
+
+        private void sent(long count) {
+            if (out == null) {
+                out = meters(request.getMethod(), start(), "out");
+            }
+            out.bytes.increment(count);
+            bytesOut += count;
+        }
+
+        private String start() {
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            String endpoint = pattern != null ? pattern.toString() : UNMAPPED;
+
+            if (active == null) {
+                active = streams(request.getMethod(), endpoint);
+                active.incrementAndGet();
+            }
+            return endpoint;
+        }
+
+        private void complete() {
+            if (request.getAttribute(ResourceTransferService.SENDFILE_FILENAME) instanceof String
+                    && request.getAttribute(ResourceTransferService.SENDFILE_START) instanceof Long start
+                    && request.getAttribute(ResourceTransferService.SENDFILE_END) instanceof Long end) {
+                sent(end - start);
+            }
+
+            if (in != null) {
+                in.size.record(bytesIn);
+            }
+            if (out != null) {
+                out.size.record(bytesOut);
+            }
+            if (active != null) {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            complete();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private final class CountingRequest extends HttpServletRequestWrapper {
+
+            private ServletInputStream inputStream;
+
+            private CountingRequest(HttpServletRequest request) {
+                super(request);
+            }
+
+            @Override
+            public ServletInputStream getInputStream() throws IOException {
+                if (inputStream == null) {
+                    inputStream = new CountingInputStream(super.getInputStream());
+                }
+                return inputStream;
+            }
+        }
+
+        private final class CountingResponse extends HttpServletResponseWrapper {
+
+            private ServletOutputStream outputStream;
+
+            private CountingResponse(HttpServletResponse response) {
+                super(response);
+            }
+
+            @Override
+            public ServletOutputStream getOutputStream() throws IOException {
+                if (outputStream == null) {
+                    outputStream = new CountingOutputStream(super.getOutputStream());
+                }
+                return outputStream;
+            }
+        }
+
+        private final class CountingInputStream extends ServletInputStream {
+
+            private final ServletInputStream delegate;
+
+            private CountingInputStream(ServletInputStream delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b = delegate.read();
+                if (b >= 0) {
+                    received(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = delegate.read(b, off, len);
+                if (count > 0) {
+                    received(count);
+                }
+                return count;
+            }
+
+            @Override
+            public boolean isFinished() {
+                return delegate.isFinished();
+            }
+
+            @Override
+            public boolean isReady() {
+                return delegate.isReady();
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                delegate.setReadListener(readListener);
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+        }
+
+        private final class CountingOutputStream extends ServletOutputStream {
+
+            private final ServletOutputStream delegate;
+
+            private CountingOutputStream(ServletOutputStream delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                delegate.write(b);
+                sent(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                delegate.write(b, off, len);
+                sent(len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+
+            @Override
+            public boolean isReady() {
+                return delegate.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                delegate.setWriteListener(writeListener);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.trash;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+public class DeletionJob {
+
+    public enum State {
+        PENDING, TRASHED, PURGING, PURGED, RESTORED, FAILED;
+
+        boolean isFinal() {
+            return this == PURGED || this == RESTORED || this == FAILED;
+        }
+    }
+
+    private final String id;
+    private final String fileId;
+    private final long createdAt;
+
+    private State state;
+    private long trashedAt;
+    private long completedAt;
+    private String error;
+    @Getter(AccessLevel.NONE)
+    private List<Runnable> trashedCallbacks = new ArrayList<>();
+
+    public DeletionJob(String id, String fileId, long createdAt) {
+        this.id = id;
+        this.fileId = fileId;
+        this.createdAt = createdAt;
+        this.state = State.PENDING;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getTrashedAt() {
+        return trashedAt;
+    }
+
+    public synchronized long getCompletedAt() {
+        return completedAt;
+    }
+
+    synchronized void trashed(long trashedAt) {
+        this.state = State.TRASHED;
+        this.trashedAt = trashedAt;
+    }
+
+    synchronized void setState(State state) {
+        this.state = state;
+        if (state.isFinal()) {
+            this.completedAt = System.currentTimeMillis();
+        }
+    }
+
+    synchronized void failed(String error) {
+        this.error = error;
+        setState(State.FAILED);
+    }
+
+    /**
+     * @return {@code false} when the job is no longer pending, the callback is not kept then
+     */
+    synchronized boolean onTrashed(Runnable callback) {
+        if (state != State.PENDING) {
+            return false;
+        }
+        trashedCallbacks.add(callback);
+        return true;
+    }
+
+    /**
+     * @return the callbacks to run now that the job left the pending state, none when it did not trash the file
+     */
+    synchronized List<Runnable> takeTrashedCallbacks() {
+        List<Runnable> callbacks = state == State.TRASHED ? trashedCallbacks : List.of();
+        trashedCallbacks = new ArrayList<>();
+        return callbacks;
+    }
+
+    synchronized void load(State state, long trashedAt, long completedAt, String error) {
+        this.state = state;
+        this.trashedAt = trashedAt;
+        this.completedAt = completedAt;
+        this.error = error;
+    }
+
+    public synchronized DeletionJobStatus toStatus(long retention) {
+        return new DeletionJobStatus(
+                id,
+                fileId,
+                state,
+                createdAt,
+                trashedAt > 0 ? trashedAt : null,
+                state == State.TRASHED ? trashedAt + retention : null,
+                completedAt > 0 ? completedAt : null,
+                error
+        );
+    }
+}
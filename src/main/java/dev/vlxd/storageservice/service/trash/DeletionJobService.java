@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.trash;
+
+import dev.vlxd.storageservice.exception.DeletionJobException;
+import dev.vlxd.storageservice.exception.DeletionJobNotFoundException;
+import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Deletion in two steps. A delete moves the file into the trash, which is a rename on the volume, and
+ * is tracked as a job that can be polled. Trashed content can be restored until the retention window
+ * ends; afterwards the reaper removes it on a single background thread, at most
+ * {@code storage.trash.reaper.max-deletes-per-second} file system entries per second so that purging
+ * a large tree does not starve regular requests. Jobs are persisted in the jobs directory and survive
+ * a restart, finished jobs are forgotten after {@code storage.trash.job-ttl}.
+ */
+@Slf4j
+@Service
+public class DeletionJobService {
+
+    private static final String DESCRIPTOR_SUFFIX = ".properties";
+
+    private final IStorageService storageService;
+    private final ExecutorService executor;
+    private final Path jobsDirectory;
+    private final long retention;
+    private final long jobTtl;
+    private final long maxDeletesPerSecond;
+
+    private final ConcurrentMap<String, DeletionJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService reaper = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "trash-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public DeletionJobService(
+            IStorageService storageService,
+            @Qualifier("trashExecutor") ExecutorService executor,
+            @Value("${storage.trash.jobs-directory}") String jobsDirectory,
+            @Value("${storage.trash.retention}") long retention,
+            @Value("${storage.trash.job-ttl}") long jobTtl,
+            @Value("${storage.trash.reaper.max-deletes-per-second}") long maxDeletesPerSecond
+    ) {
+        this.storageService = storageService;
+        this.executor = executor;
+        this.jobsDirectory = Paths.get(jobsDirectory);
+        this.retention = retention;
+        this.jobTtl = jobTtl;
+        this.maxDeletesPerSecond = maxDeletesPerSecond;
+
+        try {
+            Files.createDirectories(this.jobsDirectory);
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize deletion job directory", e);
+        }
+
+        restoreJobs();
+    }
+
+    @PreDestroy
+    public void close() {
+        reaper.shutdownNow();
+    }
+
+    /**
+     * Starts a deletion in the background.
+     */
+    public DeletionJobStatus submit(String fileId) {
+        DeletionJob job = create(fileId);
+        executor.submit(() -> trash(job));
+        return job.toStatus(retention);
+    }
+
+    /**
+     * Moves the file into the trash in the calling thread.
+     */
+    public DeletionJobStatus delete(String fileId) {
+        DeletionJob job = create(fileId);
+        trash(job);
+        return job.toStatus(retention);
+    }
+
+    /**
+     * Runs the callback once the job has moved the file to the trash, right away when it already has. The
+     * callback is dropped when the job fails.
+     */
+    public void whenTrashed(String jobId, Runnable callback) {
+        DeletionJob job = getJob(jobId);
+        if (!job.onTrashed(callback) && job.getState() == DeletionJob.State.TRASHED) {
+            callback.run();
+        }
+    }
+
+    public DeletionJobStatus getStatus(String jobId) {
+        return getJob(jobId).toStatus(retention);
+    }
+
+    public DeletionJobStatus restore(String jobId) {
+        DeletionJob job = getJob(jobId);
+
+        // the reaper moves a job out of TRASHED under the same monitor before it purges anything
+        synchronized (job) {
+            if (job.getState() != DeletionJob.State.TRASHED) {
+                throw new DeletionJobException("Only trashed files can be restored, the job is " + job.getState());
+            }
+
+            storageService.restoreFile(job.getFileId(), job.getId());
+            job.setState(DeletionJob.State.RESTORED);
+            writeDescriptor(job);
+        }
+
+        return job.toStatus(retention);
+    }
+
+    @Scheduled(fixedDelayString = "${storage.trash.reaper-interval}")
+    public void reap() {
+        long now = System.currentTimeMillis();
+
+        for (DeletionJob job : jobs.values()) {
+            synchronized (job) {
+                if (job.getState() == DeletionJob.State.TRASHED && job.getTrashedAt() + retention <= now) {
+                    job.setState(DeletionJob.State.PURGING);
+                    writeDescriptor(job);
+                    reaper.submit(() -> purge(job));
+                } else if (job.getState().isFinal() && job.getCompletedAt() + jobTtl <= now) {
+                    jobs.remove(job.getId(), job);
+                    deleteDescriptor(job);
+                }
+            }
+        }
+    }
+
+    private DeletionJob create(String fileId) {
+        if (fileId == null || fileId.isBlank()) {
+            throw new StorageException("File id is required");
+        }
+
+        DeletionJob job = new DeletionJob(UUID.randomUUID().toString(), fileId, System.currentTimeMillis());
+        writeDescriptor(job);
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * Trash content that exists for a job is always left restorable and reaped: a job replayed after the move
+     * completed counts as trashed, and a move that failed halfway is rolled back or, failing that, kept.
+     */
+    private void trash(DeletionJob job) {
+        try {
+            if (storageService.trashFile(job.getFileId(), job.getId()) || hasTrashedContent(job)) {
+                job.trashed(System.currentTimeMillis());
+            } else {
+                job.failed("File does not exist");
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to move {} to trash", job.getFileId(), e);
+            rollBack(job, e);
+        }
+        writeDescriptor(job);
+
+        for (Runnable callback : job.takeTrashedCallbacks()) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                log.warn("Failed to notify the trashing of {}", job.getFileId(), e);
+            }
+        }
+    }
+
+    private void rollBack(DeletionJob job, RuntimeException failure) {
+        try {
+            if (hasTrashedContent(job)) {
+                storageService.restoreFile(job.getFileId(), job.getId());
+            }
+            job.failed(failure.getMessage());
+        } catch (RuntimeException e) {
+            log.warn("Failed to roll back the partial deletion of {}, it stays restorable", job.getFileId(), e);
+            job.trashed(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @return whether anything but directories was moved into the trash of the job, directories left without
+     * content by a failed move are removed
+     */
+    private boolean hasTrashedContent(DeletionJob job) {
+        List<Path> directories = storageService.trashDirectories(job.getId());
+
+        try {
+            for (Path directory : directories) {
+                try (Stream<Path> paths = Files.walk(directory)) {
+                    if (paths.anyMatch(path -> !Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))) {
+                        return true;
+                    }
+                }
+            }
+            for (Path directory : directories) {
+                FileSystemUtils.deleteRecursively(directory);
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to inspect trash of deletion job " + job.getId(), e);
+        }
+        return false;
+    }
+
+    private void purge(DeletionJob job) {
+        long started = System.currentTimeMillis();
+        long[] deletes = new long[1];
+
+        try {
+            for (Path directory : storageService.trashDirectories(job.getId())) {
+                Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                        delete(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                        if (e != null) {
+                            throw e;
+                        }
+                        delete(directory);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    private void delete(Path path) throws IOException {
+                        Files.deleteIfExists(path);
+                        throttle(started, ++deletes[0]);
+                    }
+                });
+            }
+
+            job.setState(DeletionJob.State.PURGED);
+            writeDescriptor(job);
+            log.info("Purged {} ({} entries) in {} ms",
+                    job.getFileId(), deletes[0], System.currentTimeMillis() - started);
+        } catch (IOException e) {
+            // the job stays PURGING and is picked up again after a restart
+            log.warn("Failed to purge trashed {}", job.getFileId(), e);
+        }
+    }
+
+    private void throttle(long started, long deletes) throws IOException {
+        if (maxDeletesPerSecond <= 0) {
+            return;
+        }
+
+        long ahead = deletes * 1000 / maxDeletesPerSecond - (System.currentTimeMillis() - started);
+        if (ahead > 0) {
+            try {
+                Thread.sleep(ahead);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while purging trash", e);
+            }
+        }
+    }
+
+    private DeletionJob getJob(String jobId) {
+        DeletionJob job = jobs.get(jobId);
+
+        if (job == null) {
+            throw new DeletionJobNotFoundException("Deletion job not found");
+        }
+
+        return job;
+    }
+
+    private void writeDescriptor(DeletionJob job) {
+        DeletionJobStatus status = job.toStatus(retention);
+
+        Properties properties = new Properties();
+        properties.setProperty("fileId", status.fileId());
+        properties.setProperty("state", status.state().name());
+        properties.setProperty("createdAt", Long.toString(status.createdAt()));
+        properties.setProperty("trashedAt", Long.toString(job.getTrashedAt()));
+        properties.setProperty("completedAt", Long.toString(job.getCompletedAt()));
+        if (status.error() != null) {
+            properties.setProperty("error", status.error());
+        }
+
+        Path descriptor = jobsDirectory.resolve(job.getId() + DESCRIPTOR_SUFFIX);
+        Path temp = jobsDirectory.resolve(job.getId() + DESCRIPTOR_SUFFIX + ".tmp");
+
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp)) {
+                properties.store(writer, null);
+            }
+
+            try {
+                Files.move(temp, descriptor, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, descriptor, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to persist deletion job {}", job.getId(), e);
+        }
+    }
+
+    private void deleteDescriptor(DeletionJob job) {
+        try {
+            Files.deleteIfExists(jobsDirectory.resolve(job.getId() + DESCRIPTOR_SUFFIX));
+        } catch (IOException e) {
+            log.warn("Failed to remove deletion job {}", job.getId(), e);
+        }
+    }
+
+    private void restoreJobs() {
+        try (DirectoryStream<Path> descriptors = Files.newDirectoryStream(jobsDirectory, "*" + DESCRIPTOR_SUFFIX)) {
+            for (Path descriptor : descriptors) {
+                String fileName = descriptor.getFileName().toString();
+
+                Properties properties = new Properties();
+                try (Reader reader = Files.newBufferedReader(descriptor)) {
+                    properties.load(reader);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+
+                DeletionJob job = new DeletionJob(
+                        fileName.substring(0, fileName.length() - DESCRIPTOR_SUFFIX.length()),
+                        properties.getProperty("fileId"),
+                        Long.parseLong(properties.getProperty("createdAt"))
+                );
+                job.load(
+                        DeletionJob.State.valueOf(properties.getProperty("state")),
+                        Long.parseLong(properties.getProperty("trashedAt", "0")),
+                        Long.parseLong(properties.getProperty("completedAt", "0")),
+                        properties.getProperty("error")
+                );
+                jobs.put(job.getId(), job);
+
+                // interrupted while trashing or purging, both steps can simply run again, trash() picks up a
+                // move that completed before the restart
+                if (job.getState() == DeletionJob.State.PENDING) {
+                    executor.submit(() -> trash(job));
+                } else if (job.getState() == DeletionJob.State.PURGING) {
+                    reaper.submit(() -> purge(job));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to restore deletion jobs from {}", jobsDirectory, e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.trash;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * @param restorableUntil end of the retention window, while the trashed content can be restored
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record DeletionJobStatus(
+        String id,
+        String fileId,
+        DeletionJob.State state,
+        long createdAt,
+        Long trashedAt,
+        Long restorableUntil,
+        Long completedAt,
+        String error
+) {
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.upload;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.exception.ArchiveExtractionException;
+import dev.vlxd.storageservice.exception.ExtractionLimitExceededException;
+import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.exception.UnsupportedArchiveTypeException;
+import dev.vlxd.storageservice.service.archive.TarIndex;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unpacks an uploaded ZIP, TAR or TAR.GZ archive into a storage directory. The body is spooled to disk
+ * first (gzip is decompressed while spooling), then every entry is extracted on its own task: ZIP entries
+ * are inflated from the central directory in parallel, TAR entries are copied out of the spool file by
+ * offset. Each extracted file is moved into the storage with {@link IStorageService#storeFile}.
+ */
+@Slf4j
+@Service
+public class ArchiveExtractionService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Path NAMESPACE = Paths.get("/");
+
+    private final IStorageService storageService;
+    private final ExecutorService executor;
+    private final Path stagingDirectory;
+    private final long maxArchiveSize;
+    private final long maxTotalSize;
+    private final int maxEntries;
+
+    @Autowired
+    public ArchiveExtractionService(
+            IStorageService storageService,
+            @Qualifier("archiveExtractionExecutor") ExecutorService executor,
+            @Value("${archive.extract.staging-directory}") String stagingDirectory,
+            @Value("${archive.extract.max-archive-size}") long maxArchiveSize,
+            @Value("${archive.extract.max-total-size}") long maxTotalSize,
+            @Value("${archive.extract.max-entries}") int maxEntries
+    ) {
+        this.storageService = storageService;
+        this.executor = executor;
+        this.stagingDirectory = Paths.get(stagingDirectory);
+        this.maxArchiveSize = maxArchiveSize;
+        this.maxTotalSize = maxTotalSize;
+        this.maxEntries = maxEntries;
+
+        try {
+            FileSystemUtils.deleteRecursively(this.stagingDirectory);
+            Files.createDirectories(this.stagingDirectory);
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize extraction staging directory", e);
+        }
+    }
+
+    public ExtractionReport extract(ArchiveType archiveType, String target, InputStream inputStream) {
+        if (archiveType != ArchiveType.ZIP && archiveType != ArchiveType.TAR && archiveType != ArchiveType.TAR_GZ) {
+            throw new UnsupportedArchiveTypeException("Archive type " + archiveType + " can not be extracted");
+        }
+
+        Path spool = stagingDirectory.resolve(UUID.randomUUID() + ".spool");
+
+        try {
+            try {
+                InputStream source = archiveType == ArchiveType.TAR_GZ
+                        ? new GZIPInputStream(inputStream, BUFFER_SIZE)
+                        : inputStream;
+                spool(source, spool);
+            } catch (IOException e) {
+                throw new ArchiveExtractionException("Failed to receive archive", e);
+            }
+
+            if (archiveType == ArchiveType.ZIP) {
+                try (ZipFile zipFile = new ZipFile(spool.toFile(), StandardCharsets.UTF_8)) {
+                    return extract(target, zipItems(zipFile));
+                }
+            }
+
+            try (FileChannel channel = FileChannel.open(spool, StandardOpenOption.READ)) {
+                return extract(target, tarItems(spool, channel));
+            }
+        } catch (IOException e) {
+            throw new ArchiveExtractionException("Invalid " + archiveType + " archive", e);
+        } finally {
+            try {
+                Files.deleteIfExists(spool);
+            } catch (IOException e) {
+                log.warn("Failed to remove archive spool {}", spool, e);
+            }
+        }
+    }
+
+    private ExtractionReport extract(String target, List<Item> items) {
+        if (items.size() > maxEntries) {
+            throw new ExtractionLimitExceededException("Archive has more than " + maxEntries + " entries");
+        }
+
+        long declared = items.stream().filter(Item::file).mapToLong(item -> Math.max(item.size(), 0)).sum();
+        if (declared > maxTotalSize) {
+            throw new ExtractionLimitExceededException("Archive expands to more than " + maxTotalSize + " bytes");
+        }
+
+        // declared sizes can lie, the budget is also enforced on the bytes actually written
+        AtomicLong budget = new AtomicLong(maxTotalSize);
+        List<Future<ExtractionResult>> futures = new ArrayList<>(items.size());
+
+        for (Item item : items) {
+            String fileId = resolveFileId(target, item.name());
+
+            // directories are implied by the files below them, so nothing is created for them
+            if (item.directory()) {
+                futures.add(done(item, fileId, ExtractionResult.Status.SKIPPED, "Directory"));
+            } else if (fileId == null) {
+                futures.add(done(item, null, ExtractionResult.Status.FAILED, "Entry escapes the target directory"));
+            } else if (!item.file()) {
+                futures.add(done(item, fileId, ExtractionResult.Status.SKIPPED, "Unsupported entry type"));
+            } else {
+                futures.add(executor.submit(() -> extractEntry(item, fileId, budget)));
+            }
+        }
+
+        List<ExtractionResult> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<ExtractionResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ArchiveExtractionException("Interrupted while extracting archive", e);
+        } catch (ExecutionException e) {
+            throw new ArchiveExtractionException("Failed to extract archive", e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+
+        int extracted = 0;
+        int failed = 0;
+        long bytes = 0;
+        for (ExtractionResult result : results) {
+            if (result.status() == ExtractionResult.Status.EXTRACTED) {
+                extracted++;
+                bytes += result.size();
+            } else if (result.status() == ExtractionResult.Status.FAILED) {
+                failed++;
+            }
+        }
+
+        return new ExtractionReport(target, items.size(), extracted, failed, bytes, Collections.unmodifiableList(results));
+    }
+
+    private ExtractionResult extractEntry(Item item, String fileId, AtomicLong budget) {
+        Path temp = stagingDirectory.resolve(UUID.randomUUID() + ".part");
+
+        try {
+            long size = item.source().copyTo(temp, budget);
+            storageService.storeFile(temp, fileId);
+            return new ExtractionResult(item.name(), fileId, size, ExtractionResult.Status.EXTRACTED, null);
+        } catch (IOException | RuntimeException e) {
+            return new ExtractionResult(item.name(), fileId, item.size(), ExtractionResult.Status.FAILED,
+                    e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                log.warn("Failed to remove extracted entry {}", temp, e);
+            }
+        }
+    }
+
+    private void spool(InputStream inputStream, Path spool) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+
+        try (OutputStream outputStream = Files.newOutputStream(spool)) {
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                copied += read;
+                if (copied > maxArchiveSize) {
+                    throw new ExtractionLimitExceededException("Archive is larger than " + maxArchiveSize + " bytes");
+                }
+                outputStream.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static List<Item> zipItems(ZipFile zipFile) {
+        List<Item> items = new ArrayList<>(zipFile.size());
+
+        zipFile.stream().forEach(entry -> items.add(new Item(
+                entry.getName(),
+                !entry.isDirectory(),
+                entry.isDirectory(),
+                entry.getSize(),
+                (temp, budget) -> {
+                    // ZipFile supports concurrent readers of different entries
+                    try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                        return copy(inputStream, temp, entry, budget);
+                    }
+                }
+        )));
+
+        return items;
+    }
+
+    private List<Item> tarItems(Path spool, FileChannel channel) throws IOException {
+        List<Item> items = new ArrayList<>();
+
+        for (TarIndex.Entry entry : TarIndex.read(channel, maxEntries + 1)) {
+            items.add(new Item(
+                    entry.name(),
+                    entry.isFile(),
+                    entry.isDirectory(),
+                    entry.size(),
+                    (temp, budget) -> {
+                        consume(budget, entry.size());
+                        try (FileChannel source = FileChannel.open(spool, StandardOpenOption.READ);
+                             FileChannel destination = FileChannel.open(
+                                     temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                            long position = 0;
+                            while (position < entry.size()) {
+                                position += source.transferTo(
+                                        entry.dataOffset() + position, entry.size() - position, destination);
+                            }
+                        }
+                        return entry.size();
+                    }
+            ));
+        }
+
+        return items;
+    }
+
+    private static long copy(InputStream inputStream, Path temp, ZipEntry entry, AtomicLong budget)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+
+        try (OutputStream outputStream = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW)) {
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                copied += read;
+                if (entry.getSize() >= 0 && copied > entry.getSize()) {
+                    throw new IOException("Entry is larger than declared");
+                }
+                consume(budget, read);
+                outputStream.write(buffer, 0, read);
+            }
+        }
+
+        return copied;
+    }
+
+    private static void consume(AtomicLong budget, long bytes) {
+        if (budget.addAndGet(-bytes) < 0) {
+            throw new ExtractionLimitExceededException("Archive expands beyond the extraction size limit");
+        }
+    }
+
+    /**
+     * Resolves an entry name below the target directory. Names are normalized as paths, so absolute names
+     * and {@code ..} segments that would leave the target directory are rejected (zip slip).
+     *
+     * @return the file id of the entry, or {@code null} when it would be written outside the target
+     */
+    static String resolveFileId(String target, String name) {
+        Path base = NAMESPACE.resolve(target == null ? "" : target).normalize();
+        Path destination = base.resolve(name.replace('\\', '/')).normalize();
+
+        if (!destination.startsWith(base) || destination.equals(base)) {
+            return null;
+        }
+
+        return NAMESPACE.relativize(destination).toString();
+    }
+
+    private static Future<ExtractionResult> done(Item item, String fileId, ExtractionResult.Status status,
+                                                 String message) {
+        return CompletableFuture.completedFuture(new ExtractionResult(item.name(), fileId, 0, status, message));
+    }
+
+    private interface EntrySource {
+        long copyTo(Path temp, AtomicLong budget) throws IOException;
+    }
+
+    private record Item(String name, boolean file, boolean directory, long size, EntrySource source) {
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.upload;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Getter
+public class UploadSession {
+
+    public enum State {
+        OPEN, COMMITTING, COMMITTED
+    }
+
+    private final String id;
+    private final String filename;
+    private final long size;
+    private final long partSize;
+    private final int partCount;
+    private final Path directory;
+
+    private final BitSet receivedParts = new BitSet();
+    private volatile long lastActivity = System.currentTimeMillis();
+    private State state = State.OPEN;
+
+    public UploadSession(String id, String filename, long size, long partSize, Path directory) {
+        this.id = id;
+        this.filename = filename;
+        this.size = size;
+        this.partSize = partSize;
+        this.partCount = (int) partCount(size, partSize);
+        this.directory = directory;
+    }
+
+    /**
+     * @return the number of parts, rounded up without adding {@code partSize - 1}, which overflows for large sizes
+     */
+    static long partCount(long size, long partSize) {
+        return size == 0 ? 1 : size / partSize + (size % partSize == 0 ? 0 : 1);
+    }
+
+    public long partOffset(int partNumber) {
+        return (partNumber - 1) * partSize;
+    }
+
+    public long partLength(int partNumber) {
+        return Math.min(partSize, size - partOffset(partNumber));
+    }
+
+    public Path partPath(int partNumber) {
+        return directory.resolve("part-" + partNumber);
+    }
+
+    synchronized void markReceived(int partNumber) {
+        receivedParts.set(partNumber);
+        touch();
+    }
+
+    synchronized boolean isComplete() {
+        return receivedParts.cardinality() == partCount;
+    }
+
+    synchronized void setState(State state) {
+        this.state = state;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    public synchronized UploadSessionStatus toStatus() {
+        List<Integer> parts = receivedParts.stream().boxed().collect(Collectors.toList());
+        return new UploadSessionStatus(id, filename, size, partSize, partCount, parts, state);
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.upload;
+
+import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.exception.UploadSessionException;
+import dev.vlxd.storageservice.exception.UploadSessionNotFoundException;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import dev.vlxd.storageservice.service.storage.LocalStorageService;
+import dev.vlxd.storageservice.service.usage.UsageService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Multipart upload sessions. Parts may arrive in any order and in parallel, each part is staged in its own file.
+ * On commit the parts are copied with positional writes into a preallocated file, which is then moved into the
+ * storage in one step. Sessions are persisted in the staging directory, so they survive a restart.
+ */
+@Slf4j
+@Service
+public class UploadSessionService {
+
+    private static final String DESCRIPTOR = "session.properties";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // stands in for the storage root, filenames are validated before the storage sees them on commit
+    private static final Path NAMESPACE = Paths.get("/storage");
+
+    private final IStorageService storageService;
+    private final UsageService usageService;
+    private final ExecutorService executor;
+    private final Path stagingDirectory;
+    private final long defaultPartSize;
+    private final long maxParts;
+    private final long sessionTtl;
+
+    private final ConcurrentMap<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public UploadSessionService(
+            IStorageService storageService,
+            UsageService usageService,
+            @Qualifier("uploadAssemblyExecutor") ExecutorService executor,
+            @Value("${upload.session.staging-directory}") String stagingDirectory,
+            @Value("${upload.session.part-size}") long defaultPartSize,
+            @Value("${upload.session.max-parts}") long maxParts,
+            @Value("${upload.session.ttl}") long sessionTtl
+    ) {
+        this.storageService = storageService;
+        this.usageService = usageService;
+        this.executor = executor;
+        this.stagingDirectory = Paths.get(stagingDirectory);
+        this.defaultPartSize = defaultPartSize;
+        this.maxParts = maxParts;
+        this.sessionTtl = sessionTtl;
+
+        try {
+            Files.createDirectories(this.stagingDirectory);
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize upload staging directory", e);
+        }
+
+        restoreSessions();
+    }
+
+    public UploadSessionStatus create(String filename, long size, Long partSize) {
+        long effectivePartSize = partSize != null ? partSize : defaultPartSize;
+
+        if (size < 0 || effectivePartSize <= 0) {
+            throw new UploadSessionException("Invalid upload size");
+        }
+        if (UploadSession.partCount(size, effectivePartSize) > maxParts) {
+            throw new UploadSessionException("Upload would need more than " + maxParts + " parts");
+        }
+        String fileId = fileId(filename);
+        usageService.checkQuota(fileId, size);
+
+        String id = UUID.randomUUID().toString();
+        UploadSession session = new UploadSession(id, fileId, size, effectivePartSize, stagingDirectory.resolve(id));
+
+        try {
+            Files.createDirectories(session.getDirectory());
+            writeDescriptor(session);
+        } catch (IOException e) {
+            throw new StorageException("Failed to create upload session", e);
+        }
+
+        sessions.put(id, session);
+        return session.toStatus();
+    }
+
+    public UploadSessionStatus uploadPart(String sessionId, int partNumber, InputStream inputStream) {
+        UploadSession session = getSession(sessionId);
+
+        if (partNumber < 1 || partNumber > session.getPartCount()) {
+            throw new UploadSessionException("Part number must be between 1 and " + session.getPartCount());
+        }
+        if (session.getState() != UploadSession.State.OPEN) {
+            throw new UploadSessionException("Upload session is already committed");
+        }
+
+        Path part = session.partPath(partNumber);
+        Path temp = session.getDirectory().resolve(part.getFileName() + "." + UUID.randomUUID() + ".tmp");
+
+        try {
+            long expected = session.partLength(partNumber);
+            long written = receive(inputStream, temp, expected);
+
+            if (written != expected) {
+                throw new UploadSessionException("Part " + partNumber + " must be " + expected + " bytes, got "
+                        + (written > expected ? "more" : written));
+            }
+
+            // a part only counts as received once it is complete on disk
+            Files.move(temp, part, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new StorageException("Failed to store upload part", e);
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                log.warn("Failed to remove temporary part {}", temp, e);
+            }
+        }
+
+        session.markReceived(partNumber);
+        return session.toStatus();
+    }
+
+    public UploadSessionStatus getStatus(String sessionId) {
+        UploadSession session = getSession(sessionId);
+        session.touch();
+        return session.toStatus();
+    }
+
+    public String commit(String sessionId) {
+        UploadSession session = getSession(sessionId);
+
+        synchronized (session) {
+            if (session.getState() != UploadSession.State.OPEN) {
+                throw new UploadSessionException("Upload session is already committed");
+            }
+            if (!session.isComplete()) {
+                throw new UploadSessionException("Upload session is missing parts");
+            }
+            session.setState(UploadSession.State.COMMITTING);
+        }
+
+        try {
+            Path assembled = assemble(session);
+            String fileId = storageService.storeFile(assembled, session.getFilename());
+
+            session.setState(UploadSession.State.COMMITTED);
+            abort(session);
+
+            return fileId;
+        } catch (RuntimeException e) {
+            session.setState(UploadSession.State.OPEN);
+            throw e;
+        }
+    }
+
+    public void abort(String sessionId) {
+        abort(getSession(sessionId));
+    }
+
+    @Scheduled(fixedDelayString = "${upload.session.cleanup-interval}")
+    public void removeExpiredSessions() {
+        long deadline = System.currentTimeMillis() - sessionTtl;
+
+        sessions.values().stream()
+                .filter(session -> session.getLastActivity() < deadline)
+                .filter(session -> session.getState() == UploadSession.State.OPEN)
+                .forEach(session -> {
+                    log.info("Removing abandoned upload session {}", session.getId());
+                    abort(session);
+                });
+    }
+
+    private Path assemble(UploadSession session) {
+        Path assembled = session.getDirectory().resolve("assembled");
+
+        try (RandomAccessFile file = new RandomAccessFile(assembled.toFile(), "rw")) {
+            file.setLength(session.getSize());
+            FileChannel target = file.getChannel();
+
+            List<Future<?>> copies = new ArrayList<>(session.getPartCount());
+            for (int partNumber = 1; partNumber <= session.getPartCount(); partNumber++) {
+                int part = partNumber;
+                copies.add(executor.submit(() -> {
+                    copyPart(session, part, target);
+                    return null;
+                }));
+            }
+
+            try {
+                for (Future<?> copy : copies) {
+                    copy.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException("Interrupted while assembling upload", e);
+            } catch (ExecutionException e) {
+                throw new StorageException("Failed to assemble upload", e.getCause());
+            } finally {
+                copies.forEach(copy -> copy.cancel(true));
+            }
+
+            target.force(false);
+        } catch (IOException e) {
+            throw new StorageException("Failed to assemble upload", e);
+        }
+
+        return assembled;
+    }
+
+    /**
+     * Copies at most {@code length + 1} bytes, so an oversized part is rejected without reading all of it.
+     */
+    private static long receive(InputStream inputStream, Path temp, long length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long written = 0;
+
+        try (OutputStream outputStream = Files.newOutputStream(temp)) {
+            while (written <= length) {
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, length + 1 - written));
+                if (read < 0) {
+                    break;
+                }
+                outputStream.write(buffer, 0, read);
+                written += read;
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Rejects the filenames the storage would reject on commit, before any part is uploaded.
+     */
+    private static String fileId(String filename) {
+        if (filename == null || filename.isBlank()) {
+            throw new UploadSessionException("Upload filename is required");
+        }
+
+        Path path = NAMESPACE.resolve(filename).normalize();
+        if (!path.startsWith(NAMESPACE) || path.equals(NAMESPACE)) {
+            throw new UploadSessionException("Can not upload file outside storage root directory");
+        }
+        if (NAMESPACE.relativize(path).getName(0).toString().startsWith(LocalStorageService.RESERVED_PREFIX)) {
+            throw new UploadSessionException("Can not access reserved storage directory");
+        }
+
+        return NAMESPACE.relativize(path).toString().replace('\\', '/');
+    }
+
+    private static void copyPart(UploadSession session, int partNumber, FileChannel target) throws IOException {
+        long position = session.partOffset(partNumber);
+        long remaining = session.partLength(partNumber);
+
+        try (FileChannel source = FileChannel.open(session.partPath(partNumber), StandardOpenOption.READ)) {
+            while (remaining > 0) {
+                long transferred = target.transferFrom(source, position, remaining);
+                if (transferred <= 0) {
+                    throw new IOException("Upload part " + partNumber + " is shorter than expected");
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
+    private UploadSession getSession(String sessionId) {
+        UploadSession session = sessions.get(sessionId);
+
+        if (session == null) {
+            throw new UploadSessionNotFoundException("Upload session not found");
+        }
+
+        return session;
+    }
+
+    private void abort(UploadSession session) {
+        sessions.remove(session.getId(), session);
+
+        try {
+            FileSystemUtils.deleteRecursively(session.getDirectory());
+        } catch (IOException e) {
+            log.warn("Failed to remove upload session directory {}", session.getDirectory(), e);
+        }
+    }
+
+    private void writeDescriptor(UploadSession session) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("filename", session.getFilename());
+        properties.setProperty("size", Long.toString(session.getSize()));
+        properties.setProperty("partSize", Long.toString(session.getPartSize()));
+
+        Path temp = session.getDirectory().resolve(DESCRIPTOR + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            properties.store(writer, null);
+        }
+
+        try {
+            Files.move(temp, session.getDirectory().resolve(DESCRIPTOR), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, session.getDirectory().resolve(DESCRIPTOR), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void restoreSessions() {
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(stagingDirectory, Files::isDirectory)) {
+            for (Path directory : directories) {
+                Path descriptor = directory.resolve(DESCRIPTOR);
+
+                if (!Files.exists(descriptor)) {
+                    FileSystemUtils.deleteRecursively(directory);
+                    continue;
+                }
+
+                Properties properties = new Properties();
+                try (Reader reader = Files.newBufferedReader(descriptor)) {
+                    properties.load(reader);
+                }
+
+                UploadSession session = new UploadSession(
+                        directory.getFileName().toString(),
+                        properties.getProperty("filename"),
+                        Long.parseLong(properties.getProperty("size")),
+                        Long.parseLong(properties.getProperty("partSize")),
+                        directory
+                );
+
+                for (int partNumber = 1; partNumber <= session.getPartCount(); partNumber++) {
+                    if (Files.exists(session.partPath(partNumber))) {
+                        session.markReceived(partNumber);
+                    }
+                }
+
+                sessions.put(session.getId(), session);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to restore upload sessions from {}", stagingDirectory, e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.usage;
+
+/**
+ * Bytes and number of files stored below a directory, at any depth.
+ */
+public record DirectoryUsage(long bytes, long files) {
+
+    public static final DirectoryUsage EMPTY = new DirectoryUsage(0, 0);
+
+    public DirectoryUsage plus(long bytes, long files) {
+        return new DirectoryUsage(this.bytes + bytes, this.files + files);
+    }
+
+    public boolean isEmpty() {
+        return bytes == 0 && files == 0;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.usage;
+
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Checks the usage counters against a scan of the storage every {@code storage.usage.reconcile-interval}.
+ * Counters that were never reconciled, on a backend without an index to rebuild them from, are scanned as
+ * soon as the application is ready. A scan runs on its own thread, it takes as long as the storage is large.
+ */
+@Slf4j
+@Component
+public class UsageReconciler {
+
+    private final UsageService usageService;
+    private final IStorageService storageService;
+    private final long interval;
+
+    private Thread worker;
+
+    @Autowired
+    public UsageReconciler(
+            UsageService usageService,
+            IStorageService storageService,
+            @Value("${storage.usage.reconcile-interval}") long interval
+    ) {
+        this.usageService = usageService;
+        this.storageService = storageService;
+        this.interval = interval;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (usageService.reconciledAt() == 0) {
+            start();
+        }
+    }
+
+    @Scheduled(initialDelayString = "${storage.usage.reconcile-interval}",
+            fixedDelayString = "${storage.usage.reconcile-interval}")
+    public void onSchedule() {
+        // a reconciliation in the meantime, such as the rebuild from the metadata index at startup, counts
+        if (System.currentTimeMillis() - usageService.reconciledAt() >= interval / 2) {
+            start();
+        }
+    }
+
+    public synchronized void start() {
+        if (worker != null && worker.isAlive()) {
+            return;
+        }
+
+        worker = new Thread(this::reconcile, "usage-reconciler");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    private void reconcile() {
+        try {
+            usageService.reconcile(storageService::scanFiles);
+        } catch (RuntimeException e) {
+            log.warn("Failed to reconcile storage usage", e);
+        }
+    }
+}
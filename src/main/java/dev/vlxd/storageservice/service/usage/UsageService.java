@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.usage;
+
+import dev.vlxd.storageservice.exception.QuotaExceededException;
+import dev.vlxd.storageservice.exception.StorageException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Bytes and file counts per directory, kept up to date by the storage backends as files are stored and
+ * removed: a change to a file is added to every directory above it, so reading the usage of a directory is
+ * a single lookup. {@link #reconcile} rebuilds the counters from a scan of the storage, changes made while
+ * the scan runs are carried over unless the scan observes the changed file afterwards.
+ * <p>
+ * Quotas from {@code storage.quota.limits} ({@code <directory>=<bytes>,...}) are checked against the counters
+ * before anything is written. Concurrent uploads are checked independently, so together they can exceed a
+ * quota by at most their own sizes.
+ */
+@Slf4j
+@Service
+public class UsageService {
+
+    private final Map<String, Long> quotas = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile ConcurrentMap<String, DirectoryUsage> counters = new ConcurrentHashMap<>();
+    private volatile long reconciledAt;
+    private Reconciliation pending;
+
+    @Autowired
+    public UsageService(@Value("${storage.quota.limits}") String[] limits) {
+        for (String limit : limits) {
+            if (limit.isBlank()) {
+                continue;
+            }
+
+            String[] parts = limit.trim().split("=", 2);
+            try {
+                quotas.put(key(parts[0].trim()), Long.parseLong(parts[1].trim()));
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new StorageException("Quotas must be given as <directory>=<bytes>, got " + limit);
+            }
+        }
+    }
+
+    /**
+     * Adds a change of the file {@code fileId} to every directory above it.
+     */
+    public void add(String fileId, long bytes, long files) {
+        if (bytes == 0 && files == 0) {
+            return;
+        }
+
+        lock.readLock().lock();
+        try {
+            apply(counters, fileId, false, bytes, files);
+            if (pending != null) {
+                pending.changed(fileId, bytes, files);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the directory {@code fileId} as a whole, with the usage its counter holds.
+     */
+    public void removeTree(String fileId) {
+        lock.readLock().lock();
+        try {
+            DirectoryUsage usage = counters.get(fileId);
+            if (usage != null) {
+                apply(counters, fileId, true, -usage.bytes(), -usage.files());
+            }
+            if (pending != null) {
+                pending.removed(fileId);
+            }
+
+            if (fileId.isEmpty()) {
+                counters.clear();
+            } else {
+                String prefix = fileId + "/";
+                counters.keySet().removeIf(directory -> directory.startsWith(prefix));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public UsageStatus usage(String fileId) {
+        String directory = key(fileId);
+        DirectoryUsage usage = counters.getOrDefault(directory, DirectoryUsage.EMPTY);
+        return new UsageStatus(directory, usage.bytes(), usage.files(), quotas.get(directory), reconciledAt);
+    }
+
+    public long reconciledAt() {
+        return reconciledAt;
+    }
+
+    /**
+     * Rejects storing {@code bytes} more at {@code filename} when that would exceed the quota of a directory
+     * above it.
+     */
+    public void checkQuota(String filename, long bytes) {
+        if (headroom(filename) < bytes) {
+            throw new QuotaExceededException("Storing " + filename + " would exceed the storage quota");
+        }
+    }
+
+    /**
+     * @return {@code inputStream}, failing with a {@link QuotaExceededException} once it yields more bytes
+     * than the quotas above {@code filename} leave
+     */
+    public InputStream limit(String filename, InputStream inputStream) {
+        if (quotas.isEmpty()) {
+            return inputStream;
+        }
+
+        checkQuota(filename, 0);
+        long headroom = headroom(filename);
+
+        return new FilterInputStream(inputStream) {
+
+            private long remaining = headroom;
+
+            @Override
+            public int read() throws IOException {
+                int read = super.read();
+                if (read >= 0) {
+                    consume(1);
+                }
+                return read;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    consume(read);
+                }
+                return read;
+            }
+
+            private void consume(long count) {
+                remaining -= count;
+                if (remaining < 0) {
+                    throw new QuotaExceededException("Storing " + filename + " would exceed the storage quota");
+                }
+            }
+        };
+    }
+
+    /**
+     * Replaces the counters with the usage of the files {@code scanner} passes, with their sizes. Changes
+     * added while the scanner runs are applied on top unless the scanner passes the changed file afterwards,
+     * so the counters stay current; the difference to the previous counters is logged.
+     */
+    public synchronized void reconcile(Consumer<ObjLongConsumer<String>> scanner) {
+        long started = System.currentTimeMillis();
+        Reconciliation reconciliation = new Reconciliation();
+
+        lock.writeLock().lock();
+        try {
+            pending = reconciliation;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            scanner.accept(reconciliation::scanned);
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                pending = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        boolean first = reconciledAt == 0;
+        int drifted = 0;
+        lock.writeLock().lock();
+        try {
+            ConcurrentMap<String, DirectoryUsage> scanned = reconciliation.finish();
+
+            Set<String> directories = new HashSet<>(counters.keySet());
+            directories.addAll(scanned.keySet());
+            for (String directory : directories) {
+                if (!Objects.equals(counters.get(directory), scanned.get(directory))) {
+                    drifted++;
+                }
+            }
+
+            counters = scanned;
+            pending = null;
+            reconciledAt = System.currentTimeMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (first) {
+            log.info("Counted usage of {} directories in {} ms", counters.size(),
+                    System.currentTimeMillis() - started);
+        } else if (drifted > 0) {
+            log.info("Reconciled usage of {} directories in {} ms, {} differed from the counters",
+                    counters.size(), System.currentTimeMillis() - started, drifted);
+        } else {
+            log.debug("Reconciled usage of {} directories in {} ms", counters.size(),
+                    System.currentTimeMillis() - started);
+        }
+    }
+
+    private long headroom(String filename) {
+        if (quotas.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+
+        String fileId = key(filename);
+        long headroom = Long.MAX_VALUE;
+
+        int end = -1;
+        do {
+            String directory = end < 0 ? "" : fileId.substring(0, end);
+            Long quota = quotas.get(directory);
+            if (quota != null) {
+                headroom = Math.min(headroom,
+                        quota - counters.getOrDefault(directory, DirectoryUsage.EMPTY).bytes());
+            }
+            end = fileId.indexOf('/', end + 1);
+        } while (end >= 0);
+
+        return headroom;
+    }
+
+    /**
+     * Adds the change to the root and every directory on the way to {@code fileId}, and to {@code fileId}
+     * itself when it is a directory.
+     */
+    private static void apply(ConcurrentMap<String, DirectoryUsage> usages, String fileId, boolean inclusive,
+                              long bytes, long files) {
+        int end = -1;
+        do {
+            update(usages, end < 0 ? "" : fileId.substring(0, end), bytes, files);
+            end = fileId.indexOf('/', end + 1);
+        } while (end >= 0);
+
+        if (inclusive && !fileId.isEmpty()) {
+            update(usages, fileId, bytes, files);
+        }
+    }
+
+    private static void update(ConcurrentMap<String, DirectoryUsage> usages, String directory,
+                               long bytes, long files) {
+        usages.compute(directory, (key, usage) -> {
+            DirectoryUsage updated = (usage == null ? DirectoryUsage.EMPTY : usage).plus(bytes, files);
+            return updated.isEmpty() ? null : updated;
+        });
+    }
+
+    /**
+     * The usage a running scan has counted so far, and the changes to files it has not observed since they
+     * were made. Observing a file drops its change, the size the scan reads already includes it. A change
+     * made between the scan reading a file and passing it is lost until the next reconciliation.
+     */
+    private static class Reconciliation {
+
+        private final ConcurrentMap<String, DirectoryUsage> scanned = new ConcurrentHashMap<>();
+        private final Map<String, DirectoryUsage> changes = new HashMap<>();
+        private final Set<String> removedTrees = new HashSet<>();
+
+        synchronized void scanned(String fileId, long size) {
+            // listed before its directory was dropped, the file is gone by now
+            if (removedTrees.stream().anyMatch(tree -> contains(tree, fileId))) {
+                return;
+            }
+            changes.remove(fileId);
+            apply(scanned, fileId, false, size, 1);
+        }
+
+        synchronized void changed(String fileId, long bytes, long files) {
+            changes.merge(fileId, new DirectoryUsage(bytes, files),
+                    (current, delta) -> current.plus(delta.bytes(), delta.files()));
+        }
+
+        /**
+         * Drops what the scan has counted below {@code fileId} so far, and the changes to files below it.
+         */
+        synchronized void removed(String fileId) {
+            DirectoryUsage counted = scanned.get(fileId);
+            if (counted != null) {
+                apply(scanned, fileId, true, -counted.bytes(), -counted.files());
+            }
+            scanned.keySet().removeIf(directory -> !directory.equals(fileId) && contains(fileId, directory));
+            changes.keySet().removeIf(changed -> contains(fileId, changed));
+            removedTrees.add(fileId);
+        }
+
+        synchronized ConcurrentMap<String, DirectoryUsage> finish() {
+            changes.forEach((fileId, change) -> apply(scanned, fileId, false, change.bytes(), change.files()));
+            scanned.values().removeIf(DirectoryUsage::isEmpty);
+            return scanned;
+        }
+
+        private static boolean contains(String tree, String fileId) {
+            return tree.isEmpty() || fileId.equals(tree) || fileId.startsWith(tree + "/");
+        }
+    }
+
+    private static String key(String fileId) {
+        String normalized = Paths.get("/", fileId).normalize().toString().replace('\\', '/');
+        return normalized.startsWith("/") ? normalized.substring(1) : normalized;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.exception.ArchiveManifestNotFoundException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArchiveChangesTests {
+
+    @TempDir
+    Path temp;
+
+    private Path tree;
+    private ArchiveManagerService archiveManagerService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tree = Files.createDirectories(temp.resolve("docs"));
+        write("a.txt", "alpha", 1_000_000L);
+        write("b.txt", "beta", 1_000_000L);
+        write("sub/c.txt", "gamma", 1_000_000L);
+
+        ArchiveManifestStore manifestStore = new ArchiveManifestStore(temp.resolve("manifests").toString(), 60_000);
+        archiveManagerService = new ArchiveManagerService(
+                new ArchiveServiceFactory(Map.of(ArchiveType.TAR, new TarArchiveService())),
+                new ArchiveCacheService(false, temp.resolve("cache").toString(), 0),
+                new ArchiveCoalescingService(false, 0, 0, temp.resolve("spill").toString()),
+                new Crc32Cache(16),
+                new ArchiveMetrics(new SimpleMeterRegistry()),
+                manifestStore
+        );
+    }
+
+    @Test
+    void manifestBaselineSelectsAddedChangedAndDeleted() throws IOException {
+        Result full = archive(new ArchiveBaseline(null, -1));
+        assertEquals(List.of("docs/", "docs/a.txt", "docs/b.txt", "docs/sub/", "docs/sub/c.txt"),
+                List.copyOf(full.entries.keySet()));
+
+        assertNull(archive(new ArchiveBaseline(full.delta.manifest(), -1)).entries);
+
+        write("a.txt", "alpha, edited", 2_000_000L);
+        write("sub/d.txt", "delta", 1_000_000L);
+        Files.delete(tree.resolve("b.txt"));
+
+        Result changes = archive(new ArchiveBaseline(full.delta.manifest(), -1));
+        assertEquals(List.of("docs/a.txt", "docs/sub/d.txt", "docs/" + ArchiveManagerService.DELETED_ENTRY),
+                List.copyOf(changes.entries.keySet()));
+        assertEquals("alpha, edited", changes.entries.get("docs/a.txt"));
+        assertEquals("docs/b.txt\n", changes.entries.get("docs/" + ArchiveManagerService.DELETED_ENTRY));
+        assertEquals(2, changes.delta.changed());
+        assertEquals(1, changes.delta.deleted());
+    }
+
+    @Test
+    void modificationTimeBaselineSelectsNewerFiles() throws IOException {
+        write("b.txt", "beta, edited", 3_000_000L);
+
+        Result changes = archive(new ArchiveBaseline(null, 2_000_000L));
+        assertTrue(changes.entries.containsKey("docs/b.txt"));
+        assertEquals(List.of("docs/b.txt"), changes.entries.keySet().stream()
+                .filter(name -> !name.endsWith("/"))
+                .toList());
+
+        assertThrows(ArchiveManifestNotFoundException.class,
+                () -> archive(new ArchiveBaseline("0".repeat(64), -1)));
+        assertThrows(ArchiveManifestNotFoundException.class,
+                () -> archive(new ArchiveBaseline("../manifests", -1)));
+    }
+
+    private Result archive(ArchiveBaseline baseline) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AtomicReference<ArchiveDelta> delta = new AtomicReference<>();
+
+        archiveManagerService.archiveChanges(ArchiveType.TAR, tree.toFile(), "docs", ArchiveOptions.DEFAULT,
+                baseline, outcome -> {
+                    delta.set(outcome);
+                    return !baseline.isEmpty() && outcome.isEmpty() ? null : out;
+                });
+
+        return new Result(delta.get(), out.size() == 0 ? null : readTar(out.toByteArray()));
+    }
+
+    private void write(String name, String content, long lastModified) throws IOException {
+        Path path = tree.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(lastModified));
+    }
+
+    private static Map<String, String> readTar(byte[] tar) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        int offset = 0;
+
+        while (tar[offset] != 0) {
+            String name = new String(tar, offset, 100, StandardCharsets.UTF_8).replace("\0", "");
+            int size = Integer.parseInt(new String(tar, offset + 124, 11, StandardCharsets.US_ASCII), 8);
+            offset += 512;
+            entries.put(name, new String(Arrays.copyOfRange(tar, offset, offset + size), StandardCharsets.UTF_8));
+            offset += (size + 511) / 512 * 512;
+        }
+
+        return entries;
+    }
+
+    private record Result(ArchiveDelta delta, Map<String, String> entries) {
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ArchiveCoalescingServiceTests {
+
+    @TempDir
+    Path spill;
+
+    @Test
+    void followersReplayAndFollowSingleBuild() throws Exception {
+        ArchiveCoalescingService service = new ArchiveCoalescingService(
+                true, 100 * 1024, 10 * 1024 * 1024, spill.toString());
+
+        byte[] archive = archive();
+        AtomicInteger builds = new AtomicInteger();
+
+        byte[][] outputs = leadAndFollow(service, archive, builds);
+
+        assertArrayEquals(archive, outputs[0]);
+        assertArrayEquals(archive, outputs[1]);
+        assertEquals(1, builds.get());
+    }
+
+    @Test
+    void followersBuildTheRestThemselvesOnceRecordingStops() throws Exception {
+        // the follower replays 100 KB from memory and 100 KB from the spill file, then builds the rest
+        ArchiveCoalescingService service = new ArchiveCoalescingService(true, 100 * 1024, 100 * 1024, spill.toString());
+
+        byte[] archive = archive();
+        AtomicInteger builds = new AtomicInteger();
+
+        byte[][] outputs = leadAndFollow(service, archive, builds);
+
+        assertArrayEquals(archive, outputs[0]);
+        assertArrayEquals(archive, outputs[1]);
+        assertEquals(2, builds.get());
+        try (Stream<Path> files = Files.list(spill)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    /**
+     * Starts a build that pauses after 150 KB until a second request for the same key has attached.
+     */
+    private static byte[][] leadAndFollow(ArchiveCoalescingService service, byte[] archive, AtomicInteger builds)
+            throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch followersAttached = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<byte[]> leader = executor.submit(request(service, target -> {
+                builds.incrementAndGet();
+                try {
+                    target.write(archive, 0, 150 * 1024);
+                    started.countDown();
+                    followersAttached.await(5, TimeUnit.SECONDS);
+                    // written in pieces, so the recording stops in the middle of the build
+                    for (int offset = 150 * 1024; offset < archive.length; offset += 50 * 1024) {
+                        target.write(archive, offset, Math.min(50 * 1024, archive.length - offset));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+
+            started.await(5, TimeUnit.SECONDS);
+
+            Future<byte[]> follower = executor.submit(request(service, target -> {
+                builds.incrementAndGet();
+                try {
+                    target.write(archive);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+
+            // give the follower a moment to attach before the build continues
+            Thread.sleep(200);
+            followersAttached.countDown();
+
+            return new byte[][]{leader.get(5, TimeUnit.SECONDS), follower.get(5, TimeUnit.SECONDS)};
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Callable<byte[]> request(ArchiveCoalescingService service, Consumer<OutputStream> builder) {
+        return () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            service.archive("key", out, builder);
+            return out.toByteArray();
+        };
+    }
+
+    private static byte[] archive() {
+        byte[] archive = new byte[1024 * 1024];
+        new Random(7).nextBytes(archive);
+        return archive;
+    }
+}
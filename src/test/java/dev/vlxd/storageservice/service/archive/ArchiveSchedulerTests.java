@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.exception.ArchiveOverloadedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ArchiveSchedulerTests {
+
+    private ExecutorService executor;
+    private ArchiveScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        scheduler = new ArchiveScheduler(executor, 1, 4, 3, "X-Client", 7, 60_000, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void queuedBuildsTakeTurnsAcrossClients() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        Future<?> first = start("a", () -> {
+            started.countDown();
+            return blocked.await(5, TimeUnit.SECONDS);
+        });
+        started.await(5, TimeUnit.SECONDS);
+
+        Future<?> a2 = start("a", () -> order.add("a2"));
+        Future<?> a3 = start("a", () -> order.add("a3"));
+        Future<?> b1 = start("b", () -> order.add("b1"));
+
+        ArchiveOverloadedException rejected = assertThrows(ArchiveOverloadedException.class, () -> start("a", () -> true));
+        assertEquals(7, rejected.getRetryAfter());
+
+        blocked.countDown();
+        for (Future<?> build : List.of(first, a2, a3, b1)) {
+            build.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(List.of("a2", "b1", "a3"), order);
+        // the released slots admit the client again
+        start("a", () -> true).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void rejectsWhenPoolAndQueueAreFull() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+
+        for (int i = 0; i < 5; i++) {
+            start("client-" + i, () -> blocked.await(5, TimeUnit.SECONDS));
+        }
+
+        assertThrows(ArchiveOverloadedException.class, () -> start("other", () -> true));
+        blocked.countDown();
+    }
+
+    private Future<?> start(String client, Build build) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("X-Client", client);
+
+        WebAsyncTask<Void> task = scheduler.schedule(request, () -> {
+            build.run();
+            return null;
+        });
+        return task.getExecutor().submit(task.getCallable());
+    }
+
+    private interface Build {
+        Object run() throws Exception;
+    }
+}
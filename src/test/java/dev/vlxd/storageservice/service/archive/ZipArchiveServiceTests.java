@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.archive;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZipArchiveServiceTests {
+
+    private static ExecutorService executor;
+
+    @TempDir
+    Path folder;
+
+    @BeforeAll
+    static void startExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    static void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void parallelArchiveIsValidAndDeterministic() throws IOException {
+        Map<String, byte[]> files = createTree();
+
+        byte[] parallel = archive(new ZipArchiveService(executor, new Crc32Cache(100), 4, 64 * 1024));
+        byte[] sequential = archive(new ZipArchiveService(executor, new Crc32Cache(100), 1, 64 * 1024));
+
+        assertArrayEquals(sequential, parallel);
+        assertArrayEquals(parallel, archive(new ZipArchiveService(executor, new Crc32Cache(100), 4, 64 * 1024)));
+
+        Map<String, byte[]> extracted = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(parallel))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    extracted.put(entry.getName(), zis.readAllBytes());
+                }
+            }
+        }
+
+        assertEquals(files.keySet(), extracted.keySet());
+        files.forEach((name, content) -> assertArrayEquals(content, extracted.get(name), name));
+
+        Path archive = Files.createTempFile("archive", ".zip");
+        try {
+            Files.write(archive, parallel);
+            try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+                files.forEach((name, content) -> assertEquals(content.length, zipFile.getEntry(name).getSize(), name));
+            }
+        } finally {
+            Files.delete(archive);
+        }
+    }
+
+    @Test
+    void adaptiveCompressionStoresIncompressibleEntries() throws IOException {
+        Map<String, byte[]> files = createTree();
+        ZipArchiveService service = new ZipArchiveService(executor, new Crc32Cache(100), 4, 64 * 1024);
+
+        Map<String, Integer> adaptive = methods(archive(service, ArchiveOptions.DEFAULT));
+        assertEquals(ZipEntry.STORED, adaptive.get("root/noise.bin"));
+        assertEquals(ZipEntry.DEFLATED, adaptive.get("root/docs/text.txt"));
+
+        Map<String, Integer> forced = methods(archive(service, new ArchiveOptions(6, false)));
+        assertEquals(ZipEntry.DEFLATED, forced.get("root/noise.bin"));
+
+        Map<String, Integer> stored = methods(archive(service, new ArchiveOptions(0, false)));
+        files.keySet().forEach(name -> assertEquals(ZipEntry.STORED, stored.get(name), name));
+    }
+
+    @Test
+    void storedArchiveProducesAnyWindowOfTheArchive() throws IOException {
+        createTree();
+        Crc32Cache crc32Cache = new Crc32Cache(100);
+
+        byte[] expected = archive(new ZipArchiveService(executor, crc32Cache, 4, 64 * 1024), StoredZipArchive.STORED);
+        StoredZipArchive archive = new StoredZipArchive(
+                folder.toFile(), "root", ArchiveEntry.collect(folder.toFile(), "root"), new Crc32Cache(100));
+
+        assertEquals(expected.length, archive.contentLength());
+        assertArrayEquals(expected, window(archive, 0, expected.length));
+
+        Random random = new Random(3);
+        for (int i = 0; i < 20; i++) {
+            int start = random.nextInt(expected.length);
+            int count = random.nextInt(expected.length - start) + 1;
+            assertArrayEquals(Arrays.copyOfRange(expected, start, start + count), window(archive, start, count));
+        }
+    }
+
+    @Test
+    void fingerprintsTellSourcesWithEqualTreesApart() throws IOException {
+        createTree();
+        List<ArchiveEntry> entries = ArchiveEntry.collect(folder.toFile(), "root");
+        String fingerprint = ArchiveCacheService.fingerprint(
+                ArchiveType.ZIP, StoredZipArchive.STORED, folder.toFile(), "root", entries);
+
+        assertEquals(fingerprint, ArchiveCacheService.fingerprint(
+                ArchiveType.ZIP, StoredZipArchive.STORED, folder.toFile(), "root", entries));
+        assertNotEquals(fingerprint, ArchiveCacheService.fingerprint(
+                ArchiveType.ZIP, StoredZipArchive.STORED, folder.resolve("copy").toFile(), "root", entries));
+        assertNotEquals(fingerprint, ArchiveCacheService.fingerprint(
+                ArchiveType.ZIP, StoredZipArchive.STORED, folder.toFile(), "other", entries));
+    }
+
+    @Test
+    void phasesCountSourceAndArchiveBytes() throws IOException {
+        Map<String, byte[]> files = createTree();
+        ZipArchiveService service = new ZipArchiveService(executor, new Crc32Cache(100), 4, 64 * 1024);
+
+        ArchivePhases phases = new ArchivePhases();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.archive(folder.toFile(), "root", ArchiveOptions.DEFAULT, phases, phases.output(out));
+
+        assertEquals(files.values().stream().mapToLong(content -> content.length).sum(), phases.getSourceBytes());
+        assertEquals(out.size(), phases.getArchiveBytes());
+        assertTrue(phases.getCompressNanos() > 0);
+    }
+
+    private static byte[] window(StoredZipArchive archive, long position, long count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archive.writeRange(position, count, out);
+        return out.toByteArray();
+    }
+
+    private Map<String, Integer> methods(byte[] archive) throws IOException {
+        Map<String, Integer> methods = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                // reading the data verifies CRC and sizes of stored entries
+                zis.readAllBytes();
+                methods.put(entry.getName(), entry.getMethod());
+            }
+        }
+        return methods;
+    }
+
+    private byte[] archive(ZipArchiveService service) {
+        return archive(service, ArchiveOptions.DEFAULT);
+    }
+
+    private byte[] archive(ZipArchiveService service, ArchiveOptions options) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.archive(folder.toFile(), "root", options, out);
+        return out.toByteArray();
+    }
+
+    private Map<String, byte[]> createTree() throws IOException {
+        Random random = new Random(42);
+        Map<String, byte[]> files = new HashMap<>();
+
+        byte[] noise = new byte[300 * 1024];
+        random.nextBytes(noise);
+        files.put("root/noise.bin", noise);
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 500 * 1024) {
+            text.append("line ").append(random.nextInt(1000)).append('\n');
+        }
+        files.put("root/docs/text.txt", text.toString().getBytes(StandardCharsets.UTF_8));
+        files.put("root/docs/empty.txt", new byte[0]);
+        files.put("root/docs/nested/small.txt", "small".getBytes(StandardCharsets.UTF_8));
+
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            Path path = folder.resolve(file.getKey().substring("root/".length()));
+            Files.createDirectories(path.getParent());
+            Files.write(path, file.getValue());
+        }
+
+        return files;
+    }
+}
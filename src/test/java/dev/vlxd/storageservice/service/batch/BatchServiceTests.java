@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+
+package dev.vlxd.storageservice.service.batch;
+
+import dev.vlxd.storageservice.exception.BatchRequestException;
+import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import dev.vlxd.storageservice.service.trash.DeletionJob;
+import dev.vlxd.storageservice.service.trash.DeletionJobService;
+import dev.vlxd.storageservice.service.trash.DeletionJobStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BatchServiceTests {
+
+    private final IStorageService storageService = mock(IStorageService.class);
+    private final DeletionJobService deletionJobService = mock(DeletionJobService.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final BatchService service = new BatchService(storageService, deletionJobService, executor, 3);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void deleteReportsEveryItemInRequestOrder() {
+        when(deletionJobService.delete("trashed")).thenReturn(job("1", "trashed", DeletionJob.State.TRASHED, null));
+        when(deletionJobService.delete("failed")).thenReturn(job("2", "failed", DeletionJob.State.FAILED, "busy"));
+        when(deletionJobService.delete("rejected")).thenThrow(new StorageException("File does not exist"));
+
+        assertEquals(List.of(
+                new DeleteResult("trashed", true, "1", null),
+                new DeleteResult("failed", false, "2", "busy"),
+                new DeleteResult("rejected", false, null, "File does not exist")
+        ), service.delete(List.of("trashed", "failed", "rejected")));
+    }
+
+    @Test
+    void statReportsEveryItemInRequestOrder() {
+        FileMetadata metadata = new FileMetadata("file", 1, 0, "text/plain", null);
+        when(storageService.getMetadata("file")).thenReturn(Optional.of(metadata));
+        when(storageService.getMetadata("directory")).thenReturn(Optional.empty());
+        when(storageService.getMetadata("missing")).thenReturn(Optional.empty());
+        doThrow(new StorageException("File does not exist")).when(storageService).checkFile("missing");
+        when(storageService.getMetadata("../outside")).thenThrow(new StorageException("Outside"));
+
+        assertEquals(List.of(
+                new StatResult("missing", StatResult.Status.NOT_FOUND, null, null),
+                new StatResult("file", StatResult.Status.FILE, metadata, null),
+                new StatResult("../outside", StatResult.Status.FAILED, null, "Outside")
+        ), service.stat(List.of("missing", "file", "../outside")));
+        assertEquals(List.of(new StatResult("directory", StatResult.Status.DIRECTORY, null, null)),
+                service.stat(List.of("directory")));
+    }
+
+    @Test
+    void rejectsEmptyAndOversizedBatches() {
+        assertThrows(BatchRequestException.class, () -> service.stat(List.of()));
+        assertThrows(BatchRequestException.class, () -> service.delete(List.of("a", "b", "c", "d")));
+    }
+
+    private static DeletionJobStatus job(String id, String fileId, DeletionJob.State state, String error) {
+        return new DeletionJobStatus(id, fileId, state, 0, null, null, null, error);
+    }
+}
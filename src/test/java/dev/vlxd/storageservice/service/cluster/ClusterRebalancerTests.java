@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.cluster;
+
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import dev.vlxd.storageservice.service.storage.ListEntry;
+import dev.vlxd.storageservice.service.storage.ListPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ClusterRebalancerTests {
+
+    private static final long MODIFIED = 1_700_000_000_000L;
+
+    @TempDir
+    Path metadata;
+
+    private final ClusterRing ring = new ClusterRing(
+            true, "n1", new String[]{"n1=http://localhost:18091", "n2=http://localhost:18092"}, 1, 128);
+    private final ClusterClient clusterClient = mock(ClusterClient.class);
+    private final IStorageService storageService = mock(IStorageService.class);
+    private final ClusterNode owner = ring.nodes().get(1);
+
+    // a file this node does not own
+    private final String fileId = IntStream.range(0, 100)
+            .mapToObj(i -> "docs/file-" + i)
+            .filter(id -> ring.owners(id).get(0).equals(owner))
+            .findFirst()
+            .orElseThrow();
+
+    private ClusterRebalancer rebalancer;
+
+    @BeforeEach
+    void setUp() {
+        when(storageService.list(eq(""), any(), any(), anyInt(), anyBoolean())).thenReturn(new ListPage(
+                List.of(new ListEntry(fileId, "file", false, 5L, MODIFIED, null)), null));
+        when(storageService.getMetadata(fileId)).thenReturn(Optional.of(
+                new FileMetadata(fileId, 5, MODIFIED, null, "local")));
+        when(storageService.loadAsResource(fileId)).thenReturn(new ByteArrayResource(new byte[5]));
+
+        rebalancer = new ClusterRebalancer(ring, clusterClient, storageService, 0, metadata.toString());
+    }
+
+    @Test
+    void olderRevisionsOnTheOwnerAreReplacedBeforeTheLocalCopyIsDropped() throws Exception {
+        when(clusterClient.stat(owner, fileId)).thenReturn(
+                new ClusterClient.RemoteCopy("\"remote\"", MODIFIED - 60_000),
+                new ClusterClient.RemoteCopy("\"local\"", MODIFIED + 1000));
+
+        assertEquals(1, rebalancer.rebalance());
+        verify(clusterClient).replicate(eq(owner), eq(fileId), any(Resource.class));
+        verify(storageService).deleteFile(fileId);
+    }
+
+    @Test
+    void newerRevisionsOnTheOwnerKeepTheLocalCopy() throws Exception {
+        when(clusterClient.stat(owner, fileId)).thenReturn(
+                new ClusterClient.RemoteCopy("\"remote\"", MODIFIED + 60_000));
+
+        assertEquals(0, rebalancer.rebalance());
+        verify(clusterClient, never()).replicate(any(), any(), any());
+        verify(storageService, never()).deleteFile(fileId);
+    }
+
+    @Test
+    void identicalCopiesOnTheOwnerAreNotSentAgain() throws Exception {
+        when(clusterClient.stat(owner, fileId)).thenReturn(
+                new ClusterClient.RemoteCopy("\"local\"", MODIFIED + 60_000));
+
+        assertEquals(0, rebalancer.rebalance());
+        verify(clusterClient, never()).replicate(any(), any(), any());
+        verify(storageService).deleteFile(fileId);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterRingTests {
+
+    private static ClusterRing ring(int nodes, int replication) {
+        String[] configured = IntStream.rangeClosed(1, nodes)
+                .mapToObj(node -> "n" + node + "=http://localhost:" + (18090 + node))
+                .toArray(String[]::new);
+        return new ClusterRing(true, "n1", configured, replication, 128);
+    }
+
+    @Test
+    void filesHaveDistinctOwnersFromAnySpelling() {
+        ClusterRing ring = ring(3, 2);
+
+        for (int i = 0; i < 1000; i++) {
+            List<ClusterNode> owners = ring.owners("docs/file-" + i);
+            assertEquals(2, owners.size());
+            assertEquals(2, owners.stream().distinct().count());
+        }
+
+        assertEquals(ring.owners("docs/a.txt"), ring.owners("/docs/./b/../a.txt"));
+        assertEquals(1, ring(1, 3).owners("docs/a.txt").size());
+    }
+
+    @Test
+    void addingANodeOnlyMovesItsShare() {
+        ClusterRing before = ring(3, 2);
+        ClusterRing after = ring(4, 2);
+        int files = 20_000;
+        int moved = 0;
+
+        for (int i = 0; i < files; i++) {
+            String fileId = "docs/file-" + i;
+            List<ClusterNode> previous = before.owners(fileId);
+            List<ClusterNode> current = after.owners(fileId);
+
+            // the new node takes over copies, the other nodes never trade files among themselves
+            for (ClusterNode owner : current) {
+                assertTrue(owner.id().equals("n4") || previous.contains(owner));
+            }
+            if (!previous.get(0).equals(current.get(0))) {
+                moved++;
+            }
+        }
+
+        // about a quarter of the primaries go to the new node
+        assertTrue(moved > files * 0.18 && moved < files * 0.32, "moved " + moved);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.encoding;
+
+import dev.vlxd.storageservice.constants.ContentCoding;
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import dev.vlxd.storageservice.service.storage.StorageFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentEncodingServiceTests {
+
+    @TempDir
+    Path root;
+
+    private ExecutorService encodingExecutor;
+    private ContentEncodingService service;
+
+    @BeforeEach
+    void setUp() {
+        encodingExecutor = Executors.newSingleThreadExecutor();
+        service = service(null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        encodingExecutor.shutdownNow();
+    }
+
+    @Test
+    void negotiatesByQualityThenConfiguredOrder() {
+        assertEquals(List.of(ContentCoding.ZSTD, ContentCoding.GZIP), service.accepted("gzip, deflate, br, zstd"));
+        assertEquals(List.of(ContentCoding.GZIP, ContentCoding.ZSTD), service.accepted("zstd;q=0.5, gzip"));
+        assertEquals(List.of(ContentCoding.GZIP), service.accepted("*;q=0.1, zstd;q=0, gzip"));
+        assertEquals(List.of(), service.accepted("identity, br"));
+
+        assertTrue(service.isCompressible(MediaType.parseMediaType("application/ld+json"), 4096));
+        assertFalse(service.isCompressible(MediaType.TEXT_PLAIN, 100));
+        assertFalse(service.isCompressible(MediaType.IMAGE_PNG, 4096));
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageFixture.Backend.class)
+    void variantsArePrecomputedForTheCurrentRevision(StorageFixture.Backend backend) throws Exception {
+        try (StorageFixture<?> fixture = StorageFixture.of(backend, root)) {
+            precomputeAndSweep(fixture.storageService(), service(fixture.storageService()));
+        }
+    }
+
+    private void precomputeAndSweep(IStorageService storageService, ContentEncodingService service) throws Exception {
+        byte[] content = "id,name\n1,alpha\n2,beta\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        storageService.uploadFile(new ByteArrayInputStream(content), "docs/data.csv");
+        FileMetadata metadata = storageService.getMetadata("docs/data.csv").orElseThrow();
+
+        // the first request finds nothing and schedules the variants
+        assertTrue(service.variant(metadata, List.of(ContentCoding.GZIP)).isEmpty());
+        encodingExecutor.shutdown();
+        assertTrue(encodingExecutor.awaitTermination(10, TimeUnit.SECONDS));
+
+        EncodedVariant variant = service.variant(metadata, List.of(ContentCoding.GZIP)).orElseThrow();
+        assertTrue(variant.length() < content.length / 10);
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(variant.file().toPath()))) {
+            assertArrayEquals(content, inputStream.readAllBytes());
+        }
+
+        // a replaced file no longer matches its variants, the sweep removes them
+        FileMetadata replaced = new FileMetadata(metadata.fileId(), metadata.size(), metadata.lastModified() + 1000,
+                metadata.contentType(), metadata.checksum());
+        assertTrue(service.variant(replaced, List.of(ContentCoding.GZIP)).isEmpty());
+        storageService.deleteFile("docs/data.csv");
+        service.sweep();
+        assertFalse(Files.exists(variant.file().toPath()));
+    }
+
+    private ContentEncodingService service(IStorageService storageService) {
+        return new ContentEncodingService(storageService, encodingExecutor, true, List.of("zstd", "gzip"),
+                List.of("text/*", "application/*+json"), 1024, true, 1 << 20, root.resolve(".dms-encoded").toString());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+
+package dev.vlxd.storageservice.service.metadata;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.vlxd.storageservice.service.storage.VolumeLayout;
+import dev.vlxd.storageservice.service.usage.UsageService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetadataIndexTests {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void replayedJournalKeepsChecksumsOfUnchangedFiles() throws IOException {
+        // stored after the startup scan, so no background checksum replaces the journaled ones
+        MetadataIndex first = index();
+        Files.writeString(root.resolve("kept.txt"), "kept");
+        Files.writeString(root.resolve("changed.txt"), "changed");
+        first.put("kept.txt", root.resolve("kept.txt"), "journaled");
+        first.put("changed.txt", root.resolve("changed.txt"), "journaled");
+        first.close();
+
+        Files.writeString(root.resolve("changed.txt"), "changed since");
+
+        MetadataIndex second = index();
+        try {
+            assertEquals("journaled", second.get("kept.txt").orElseThrow().checksum());
+            FileMetadata changed = second.get("changed.txt").orElseThrow();
+            assertEquals(13, changed.size());
+            assertNotEquals("journaled", changed.checksum());
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test
+    void scanRebuildsTheIndexFromTheVolumes() throws IOException {
+        Files.createDirectories(root.resolve("docs"));
+        Files.writeString(root.resolve("docs/a.txt"), "a");
+        Files.writeString(root.resolve("docs/b.txt"), "bb");
+
+        MetadataIndex first = index();
+        first.remove("docs/a.txt");
+        first.close();
+
+        // the volumes win over the journal: removed files that are still stored come back, deleted ones go
+        Files.delete(root.resolve("docs/b.txt"));
+        Files.writeString(root.resolve("c.txt"), "ccc");
+
+        MetadataIndex second = index();
+        try {
+            assertEquals(1, second.get("docs/a.txt").orElseThrow().size());
+            assertTrue(second.get("docs/b.txt").isEmpty());
+            assertEquals(3, second.get("c.txt").orElseThrow().size());
+            assertTrue(second.get(".dms-metadata/index.jsonl").isEmpty());
+        } finally {
+            second.close();
+        }
+    }
+
+    private MetadataIndex index() {
+        VolumeLayout volumeLayout = new VolumeLayout(root.toString(), new String[0], "hash", 128, 0);
+        MetadataIndex index = new MetadataIndex(volumeLayout, root.resolve(".dms-metadata").toString(), 1,
+                new ObjectMapper(), new UsageService(new String[0]));
+        index.init();
+        return index;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AsyncStorageServiceTests {
+
+    @TempDir
+    Path root;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    // plain files are read with a file channel, deduplicated ones chunk by chunk
+    @ParameterizedTest
+    @EnumSource(StorageFixture.Backend.class)
+    void uploadedBuffersAreStoredAndReadBack(StorageFixture.Backend backend) throws Exception {
+        try (StorageFixture<?> fixture = StorageFixture.of(backend, root)) {
+            uploadAndReadBack(new AsyncStorageService(
+                    fixture.storageService(), executor, root.resolve(".dms-async").toString()));
+        }
+    }
+
+    private void uploadAndReadBack(AsyncStorageService service) throws Exception {
+        byte[] content = new byte[300_000];
+        new Random(5).nextBytes(content);
+
+        AsyncUpload upload = service.openUpload("docs/async.bin");
+        for (int offset = 0; offset < content.length; offset += 65536) {
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            upload.write(ByteBuffer.wrap(content, offset, Math.min(65536, content.length - offset)), handler(written));
+            written.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals("docs/async.bin", upload.commit());
+
+        try (Stream<Path> staged = Files.list(root.resolve(".dms-async"))) {
+            assertEquals(0, staged.count());
+        }
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (AsyncDownload download = service.openDownload("docs/async.bin")) {
+            assertEquals(content.length, download.size());
+
+            ByteBuffer buffer = ByteBuffer.allocate(10_000);
+            while (true) {
+                CompletableFuture<Integer> result = new CompletableFuture<>();
+                download.read(buffer.clear(), handler(result));
+                if (result.get(5, TimeUnit.SECONDS) < 0) {
+                    break;
+                }
+                read.write(buffer.array(), 0, buffer.position());
+            }
+        }
+
+        assertArrayEquals(content, read.toByteArray());
+    }
+
+    private static <V> CompletionHandler<V, Void> handler(CompletableFuture<V> future) {
+        return new CompletionHandler<>() {
+            @Override
+            public void completed(V result, Void attachment) {
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                future.completeExceptionally(e);
+            }
+        };
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.storage;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.service.archive.ArchiveOptions;
+import dev.vlxd.storageservice.service.dedup.ChunkStore;
+import dev.vlxd.storageservice.service.dedup.FileManifest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DedupStorageServiceTests {
+
+    @TempDir
+    Path root;
+
+    private StorageFixture<DedupStorageService> fixture;
+    private DedupStorageService service;
+
+    @BeforeEach
+    void setUp() {
+        fixture = StorageFixture.dedup(root);
+        service = fixture.storageService();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Test
+    void revisionsShareUnchangedChunks() throws IOException {
+        byte[] original = new byte[1024 * 1024];
+        new Random(11).nextBytes(original);
+
+        // a revision with a few bytes inserted in the middle
+        byte[] revision = new byte[original.length + 100];
+        System.arraycopy(original, 0, revision, 0, 500_000);
+        System.arraycopy(original, 500_000, revision, 500_100, original.length - 500_000);
+
+        service.uploadFile(new ByteArrayInputStream(original), "docs/v1.bin");
+        long chunksAfterFirst = countChunks();
+        service.uploadFile(new ByteArrayInputStream(revision), "docs/v2.bin");
+        long added = countChunks() - chunksAfterFirst;
+
+        assertTrue(chunksAfterFirst > 50, "expected many chunks, got " + chunksAfterFirst);
+        assertTrue(added <= 3, "revision added " + added + " chunks");
+
+        assertArrayEquals(original, read("docs/v1.bin"));
+        assertArrayEquals(revision, read("docs/v2.bin"));
+        assertEquals(revision.length, service.getMetadata("docs/v2.bin").orElseThrow().size());
+    }
+
+    @Test
+    void garbageCollectionKeepsReferencedChunks() throws IOException, InterruptedException {
+        byte[] first = new byte[200_000];
+        byte[] second = new byte[200_000];
+        new Random(1).nextBytes(first);
+        new Random(2).nextBytes(second);
+
+        service.uploadFile(new ByteArrayInputStream(first), "first.bin");
+        long firstChunks = countChunks();
+        service.uploadFile(new ByteArrayInputStream(second), "second.bin");
+
+        service.deleteFile("second.bin");
+        // the sweep only removes chunks that are older than the start of the collection
+        Thread.sleep(20);
+        service.collectGarbage();
+
+        assertEquals(firstChunks, countChunks());
+        assertArrayEquals(first, read("first.bin"));
+    }
+
+    @Test
+    void trashedFilesSurviveGarbageCollectionAndRestore() throws IOException, InterruptedException {
+        byte[] content = new byte[200_000];
+        new Random(3).nextBytes(content);
+
+        service.uploadFile(new ByteArrayInputStream(content), "docs/a.bin");
+        long chunks = countChunks();
+
+        assertTrue(service.trashFile("docs", "job"));
+        assertTrue(service.getMetadata("docs/a.bin").isEmpty());
+
+        Thread.sleep(20);
+        service.collectGarbage();
+        assertEquals(chunks, countChunks());
+
+        service.restoreFile("docs", "job");
+        assertArrayEquals(content, read("docs/a.bin"));
+        assertTrue(service.trashDirectories("job").isEmpty());
+    }
+
+    @Test
+    void reusedChunksSurviveTheSweepAndSweptChunksAreWrittenAnew() throws IOException, InterruptedException {
+        ChunkStore store = new ChunkStore(root.resolve("chunks"));
+        byte[] data = new byte[4096];
+        new Random(4).nextBytes(data);
+
+        String hash = store.write(data, data.length);
+        Thread.sleep(20);
+        long started = System.currentTimeMillis();
+        Thread.sleep(20);
+
+        // reusing the chunk after the collection started protects it
+        store.write(data, data.length);
+        assertEquals(0, store.sweep(Set.of(), started));
+
+        // reusing a chunk the sweep removed writes it again
+        assertEquals(1, store.sweep(Set.of(), System.currentTimeMillis() + 1000));
+        assertEquals(hash, store.write(data, data.length));
+        assertArrayEquals(data, store.read(new FileManifest.Chunk(hash, data.length)));
+    }
+
+    @Test
+    void overlappingSelectionsAreArchivedOnce() {
+        for (String fileId : List.of("a/x.txt", "a/b/y.txt", "a-b/z.txt")) {
+            service.uploadFile(new ByteArrayInputStream(fileId.getBytes(StandardCharsets.UTF_8)), fileId);
+        }
+
+        // "a-b" sorts between "a" and "a/b", so "a/b" is not next to the directory it belongs to
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        service.archiveFiles(ArchiveType.TAR, List.of("a", "a-b", "a/b"), "selection", ArchiveOptions.DEFAULT,
+                archive);
+
+        List<String> files = tarNames(archive.toByteArray()).stream().filter(name -> !name.endsWith("/")).toList();
+        assertEquals(List.of("selection/a-b/z.txt", "selection/a/b/y.txt", "selection/a/x.txt"),
+                files.stream().sorted().toList());
+    }
+
+    @Test
+    void listingPagesFollowStoredAndRemovedFiles() {
+        for (String fileId : List.of("d/b.txt", "d/a.txt", "d/s/c.txt", "d/s/t/e.txt", "d-x.txt")) {
+            service.uploadFile(new ByteArrayInputStream(new byte[10]), fileId);
+        }
+        service.deleteFile("d/s/t");
+
+        List<String> listed = new ArrayList<>();
+        String cursor = null;
+        do {
+            ListPage page = service.list("d", null, cursor, 1, false);
+            page.entries().forEach(entry -> listed.add(entry.fileId()));
+            cursor = page.nextCursor();
+        } while (cursor != null);
+
+        assertEquals(List.of("d/a.txt", "d/b.txt", "d/s"), listed);
+        assertEquals(List.of("d/s/c.txt"),
+                service.list("d", "s", null, 10, true).entries().stream().map(ListEntry::fileId).toList());
+    }
+
+    private byte[] read(String fileId) throws IOException {
+        try (InputStream inputStream = service.loadAsResource(fileId).getInputStream()) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    private long countChunks() throws IOException {
+        try (Stream<Path> files = Files.walk(root.resolve(".dms-dedup/chunks"))) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static List<String> tarNames(byte[] tar) {
+        List<String> names = new ArrayList<>();
+        int offset = 0;
+
+        while (tar[offset] != 0) {
+            names.add(new String(tar, offset, 100, StandardCharsets.UTF_8).replace("\0", ""));
+            int size = Integer.parseInt(new String(tar, offset + 124, 11, StandardCharsets.US_ASCII), 8);
+            offset += 512 + (size + 511) / 512 * 512;
+        }
+
+        return names;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.storage;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.service.archive.ArchiveBaseline;
+import dev.vlxd.storageservice.service.archive.ArchiveOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalStorageServiceTests {
+
+    @TempDir
+    Path root;
+
+    private StorageFixture<LocalStorageService> fixture;
+    private LocalStorageService service;
+
+    @BeforeEach
+    void setUp() {
+        fixture = StorageFixture.local(root);
+        service = fixture.storageService();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Test
+    void rootArchivesLeaveOutReservedDirectories() throws IOException {
+        service.uploadFile(new ByteArrayInputStream("kept".getBytes(StandardCharsets.UTF_8)), "docs/a.txt");
+        Files.createDirectories(root.resolve(".dms-trash/job"));
+        Files.writeString(root.resolve(".dms-trash/job/deleted.txt"), "deleted");
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        service.archiveFile(ArchiveType.TAR, "", ArchiveOptions.DEFAULT, archive);
+        assertNames(tarNames(archive.toByteArray()));
+
+        ByteArrayOutputStream changes = new ByteArrayOutputStream();
+        service.archiveChanges(ArchiveType.TAR, ".", ArchiveOptions.DEFAULT,
+                new ArchiveBaseline(null, 0), delta -> changes);
+        assertNames(tarNames(changes.toByteArray()));
+    }
+
+    @Test
+    void listingPagesByCursorWithinPrefix() {
+        for (String fileId : List.of("docs/b.txt", "docs/a.txt", "docs/s/c.txt", "docs/s/t/d.txt", "docs-x.txt",
+                "docs/sub.txt")) {
+            service.uploadFile(new ByteArrayInputStream(new byte[1]), fileId);
+        }
+
+        // a directory sorts as its subtree does, "docs/s/" between "docs/a.txt" and "docs/sub.txt"
+        assertEquals(List.of("docs/a.txt", "docs/b.txt", "docs/s", "docs/sub.txt"), listAll("docs", null, false));
+        assertEquals(List.of("docs/a.txt", "docs/b.txt", "docs/s/c.txt", "docs/s/t/d.txt", "docs/sub.txt"),
+                listAll("docs", null, true));
+        assertEquals(List.of("docs/s", "docs/sub.txt"), listAll("docs", "s", false));
+        assertEquals(List.of("docs/s/c.txt", "docs/s/t/d.txt"), listAll("docs", "s/", true));
+        assertEquals(List.of("docs-x.txt", "docs"), listAll("", "doc", false));
+    }
+
+    private List<String> listAll(String fileId, String prefix, boolean recursive) {
+        List<String> listed = new ArrayList<>();
+        String cursor = null;
+        do {
+            ListPage page = service.list(fileId, prefix, cursor, 1, recursive);
+            assertTrue(page.entries().size() <= 1);
+            page.entries().forEach(entry -> listed.add(entry.fileId()));
+            cursor = page.nextCursor();
+        } while (cursor != null);
+        return listed;
+    }
+
+    private static void assertNames(List<String> names) {
+        assertTrue(names.stream().anyMatch(name -> name.endsWith("docs/a.txt")), names.toString());
+        assertFalse(names.stream().anyMatch(name -> name.contains(".dms-")), names.toString());
+    }
+
+    private static List<String> tarNames(byte[] tar) {
+        List<String> names = new ArrayList<>();
+        int offset = 0;
+
+        while (tar[offset] != 0) {
+            names.add(new String(tar, offset, 100, StandardCharsets.UTF_8).replace("\0", ""));
+            int size = Integer.parseInt(new String(tar, offset + 124, 11, StandardCharsets.US_ASCII), 8);
+            offset += 512 + (size + 511) / 512 * 512;
+        }
+
+        return names;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+
+package dev.vlxd.storageservice.service.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.service.archive.ArchiveCacheService;
+import dev.vlxd.storageservice.service.archive.ArchiveCoalescingService;
+import dev.vlxd.storageservice.service.archive.ArchiveManagerService;
+import dev.vlxd.storageservice.service.archive.ArchiveManifestStore;
+import dev.vlxd.storageservice.service.archive.ArchiveMetrics;
+import dev.vlxd.storageservice.service.archive.ArchiveServiceFactory;
+import dev.vlxd.storageservice.service.archive.Crc32Cache;
+import dev.vlxd.storageservice.service.archive.TarArchiveService;
+import dev.vlxd.storageservice.service.metadata.MetadataIndex;
+import dev.vlxd.storageservice.service.usage.UsageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A storage backend on a temporary root, wired like the application does with small chunk sizes, TAR archives
+ * and the archive cache and coalescing turned off. Closing it releases what the backend holds open.
+ */
+public final class StorageFixture<S extends IStorageService> implements AutoCloseable {
+
+    public enum Backend {
+        LOCAL, DEDUP
+    }
+
+    private final S storageService;
+    private final AutoCloseable resources;
+
+    private StorageFixture(S storageService, AutoCloseable resources) {
+        this.storageService = storageService;
+        this.resources = resources;
+    }
+
+    public static StorageFixture<? extends IStorageService> of(Backend backend, Path root) {
+        return backend == Backend.LOCAL ? local(root) : dedup(root);
+    }
+
+    public static StorageFixture<LocalStorageService> local(Path root) {
+        VolumeLayout volumeLayout = new VolumeLayout(root.toString(), new String[0], "hash", 128, 0);
+        UsageService usageService = new UsageService(new String[0]);
+        MetadataIndex metadataIndex = new MetadataIndex(volumeLayout, root.resolve(".dms-metadata").toString(), 1,
+                new ObjectMapper(), usageService);
+        metadataIndex.init();
+
+        LocalStorageService storageService = new LocalStorageService(root.toString(), volumeLayout,
+                archiveService(root), event -> {
+        }, metadataIndex, usageService);
+        return new StorageFixture<>(storageService, metadataIndex::close);
+    }
+
+    public static StorageFixture<DedupStorageService> dedup(Path root) {
+        ExecutorService readExecutor = Executors.newFixedThreadPool(2);
+        DedupStorageService storageService = new DedupStorageService(
+                root.toString(), root.resolve(".dms-dedup").toString(),
+                2048, 8192, 32768, 4, 0, readExecutor, archiveService(root), event -> {
+        }, new ObjectMapper(), new UsageService(new String[0]));
+        return new StorageFixture<>(storageService, readExecutor::shutdownNow);
+    }
+
+    public static ArchiveManagerService archiveService(Path root) {
+        return new ArchiveManagerService(
+                new ArchiveServiceFactory(Map.of(ArchiveType.TAR, new TarArchiveService())),
+                new ArchiveCacheService(false, root.resolve(".dms-cache").toString(), 0),
+                new ArchiveCoalescingService(false, 0, 0, root.resolve(".dms-spill").toString()),
+                new Crc32Cache(16),
+                new ArchiveMetrics(new SimpleMeterRegistry()),
+                new ArchiveManifestStore(root.resolve(".dms-manifests").toString(), 60_000)
+        );
+    }
+
+    public S storageService() {
+        return storageService;
+    }
+
+    @Override
+    public void close() throws Exception {
+        resources.close();
+    }
+}
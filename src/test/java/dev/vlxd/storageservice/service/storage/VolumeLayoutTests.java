@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.vlxd.storageservice.service.metadata.MetadataIndex;
+import dev.vlxd.storageservice.service.usage.UsageService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VolumeLayoutTests {
+
+    private static final int FILES = 600;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void addingVolumeMovesOnlyItsShareOfFiles() throws Exception {
+        VolumeLayout twoVolumes = layout("a,b");
+        for (int i = 0; i < FILES; i++) {
+            Path path = twoVolumes.place("docs/file-" + i);
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, "content " + i);
+        }
+
+        VolumeLayout threeVolumes = layout("a,b,c");
+        MetadataIndex index = new MetadataIndex(
+                threeVolumes, root.resolve(".dms-metadata").toString(), 2, new ObjectMapper(),
+                new UsageService(new String[0]));
+        index.init();
+        try {
+            assertEquals(FILES, index.subtree("docs").size());
+
+            VolumeRebalancer rebalancer = new VolumeRebalancer(
+                    threeVolumes, index, event -> {
+            }, true, 0, root.resolve(".dms-metadata").toString());
+            long moved = rebalancer.rebalance();
+
+            // consistent hashing only hands the new volume its share, nothing moves between a and b
+            assertTrue(moved > FILES / 6 && moved < FILES / 2, "moved " + moved);
+            for (int i = 0; i < FILES; i++) {
+                String fileId = "docs/file-" + i;
+                assertEquals(threeVolumes.owner(fileId), threeVolumes.locate(fileId));
+                assertEquals(1, threeVolumes.locateAll(fileId).size());
+                assertEquals("content " + i, Files.readString(threeVolumes.locate(fileId)));
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    void deletingLastFilePrunesLogicalDirectories() throws Exception {
+        VolumeLayout layout = layout("a,b");
+        Path path = layout.place("x/y/z.txt");
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, "z");
+
+        Path shard = path.getParent().getParent().getParent();
+        assertEquals(2, root.relativize(shard).getNameCount() - 1);
+
+        assertEquals(1, layout.delete("x/y/z.txt").size());
+        assertFalse(Files.exists(shard.resolve("x")));
+        assertTrue(Files.isDirectory(shard));
+    }
+
+    private VolumeLayout layout(String volumes) {
+        String[] paths = volumes.split(",");
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = root.resolve(paths[i]).toString();
+        }
+        return new VolumeLayout(root.toString(), paths, "hash", 64, 2);
+    }
+}
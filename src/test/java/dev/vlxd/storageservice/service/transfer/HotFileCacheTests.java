@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.transfer;
+
+import dev.vlxd.storageservice.event.StorageChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HotFileCacheTests {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void protectedFilesSurviveScan() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HotFileCache cache = new HotFileCache(true, 100, 300, registry);
+
+        Path hot = file("hot", 100);
+        get(cache, hot);
+        get(cache, hot);
+
+        // a scan of one-off files only churns the probationary segment
+        for (int i = 0; i < 5; i++) {
+            get(cache, file("cold-" + i, 100));
+        }
+        get(cache, hot);
+
+        assertEquals(2, registry.get("storage.hot-cache.requests").tag("result", "hit").functionCounter().count());
+        assertEquals(6, registry.get("storage.hot-cache.requests").tag("result", "miss").functionCounter().count());
+        assertEquals(3, registry.get("storage.hot-cache.evictions").functionCounter().count());
+        assertEquals(300, cache.usedBytes());
+    }
+
+    @Test
+    void storageChangeInvalidatesEntries() throws IOException {
+        HotFileCache cache = new HotFileCache(true, 100, 300, new SimpleMeterRegistry());
+        Path file = file("folder/file", 10);
+
+        ByteBuffer content = get(cache, file);
+        assertEquals(10, content.remaining());
+
+        cache.onStorageChanged(new StorageChangedEvent(file.getParent()));
+        assertEquals(0, cache.usedBytes());
+    }
+
+    @Test
+    void largeFilesAreNotCached() throws IOException {
+        HotFileCache cache = new HotFileCache(true, 100, 300, new SimpleMeterRegistry());
+
+        assertNull(get(cache, file("large", 101)));
+        assertEquals(0, cache.usedBytes());
+    }
+
+    private Path file(String name, int size) throws IOException {
+        Path path = root.resolve(name);
+        Files.createDirectories(path.getParent());
+        return Files.write(path, new byte[size]);
+    }
+
+    private static ByteBuffer get(HotFileCache cache, Path path) throws IOException {
+        return cache.get(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+
+package dev.vlxd.storageservice.service.transfer;
+
+import dev.vlxd.storageservice.service.encoding.ContentEncodingService;
+import dev.vlxd.storageservice.service.metadata.FileMetadata;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResourceTransferServiceTests {
+
+    private static final String CONTENT = "0123456789";
+    private static final String ETAG = "\"checksum\"";
+
+    @TempDir
+    Path root;
+
+    private ResourceTransferService service;
+    private Path file;
+    private FileMetadata metadata;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ContentEncodingService contentEncodingService = new ContentEncodingService(null, null, false, List.of(),
+                List.of(), 0, false, 0, root.resolve(".dms-encoded").toString());
+        service = new ResourceTransferService(new HotFileCache(false, 0, 0, new SimpleMeterRegistry()),
+                new TransferBufferPool(4, 1), contentEncodingService, false, 0);
+
+        file = Files.writeString(root.resolve("file.txt"), CONTENT);
+        // whole seconds, HTTP dates have no finer resolution
+        metadata = new FileMetadata("file.txt", CONTENT.length(), 1_700_000_000_000L, "text/plain", "checksum");
+    }
+
+    @Test
+    void sendsWholeFileWithoutRange() throws IOException {
+        MockHttpServletResponse response = transfer(new MockHttpServletRequest("GET", "/"));
+
+        assertEquals(200, response.getStatus());
+        assertEquals(CONTENT, response.getContentAsString());
+        assertEquals(ETAG, response.getHeader(HttpHeaders.ETAG));
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+    }
+
+    @Test
+    void sendsSingleRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        MockHttpServletResponse response = transfer(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 2-5/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(4, response.getContentLengthLong());
+        assertEquals("2345", response.getContentAsString());
+    }
+
+    @Test
+    void sendsMultipleRangesAsMultipart() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1,-2");
+        MockHttpServletResponse response = transfer(request);
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="), response.getContentType());
+        String boundary = response.getContentType().substring(response.getContentType().indexOf('=') + 1);
+
+        String body = response.getContentAsString(StandardCharsets.US_ASCII);
+        assertEquals(body.length(), response.getContentLengthLong());
+        assertEquals("\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\nContent-Range: bytes 0-1/10\r\n\r\n01"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\nContent-Range: bytes 8-9/10\r\n\r\n89"
+                + "\r\n--" + boundary + "--\r\n", body);
+    }
+
+    @Test
+    void ignoresRangeWhenIfRangeDoesNotMatch() throws IOException {
+        MockHttpServletRequest stale = new MockHttpServletRequest("GET", "/");
+        stale.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        stale.addHeader(HttpHeaders.IF_RANGE, "\"other\"");
+        MockHttpServletResponse full = transfer(stale);
+
+        assertEquals(200, full.getStatus());
+        assertEquals(CONTENT, full.getContentAsString());
+
+        MockHttpServletRequest current = new MockHttpServletRequest("GET", "/");
+        current.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        current.addHeader(HttpHeaders.IF_RANGE, ETAG);
+        assertEquals(206, transfer(current).getStatus());
+
+        MockHttpServletRequest dated = new MockHttpServletRequest("GET", "/");
+        dated.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        dated.addHeader(HttpHeaders.IF_RANGE, "Tue, 14 Nov 2023 22:13:20 GMT");
+        assertEquals(206, transfer(dated).getStatus());
+    }
+
+    @Test
+    void answersMatchingIfNoneMatchWithNotModified() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, ETAG);
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        MockHttpServletResponse response = transfer(request);
+
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void rejectsUnsatisfiableRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-20");
+        MockHttpServletResponse response = transfer(request);
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    private MockHttpServletResponse transfer(MockHttpServletRequest request) {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.transfer(new FileSystemResource(file), metadata, MediaType.TEXT_PLAIN,
+                new ServletWebRequest(request, response), response);
+        return response;
+    }
+}
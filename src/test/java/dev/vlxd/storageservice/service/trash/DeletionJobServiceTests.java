@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.trash;
+
+import dev.vlxd.storageservice.exception.StorageException;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DeletionJobServiceTests {
+
+    @TempDir
+    Path temp;
+
+    private final IStorageService storageService = mock(IStorageService.class);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private DeletionJobService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new DeletionJobService(storageService, executor, temp.resolve("jobs").toString(), 60_000, 60_000, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void trashedCallbacksRunOnlyOnceTheFileIsInTheTrash() throws Exception {
+        when(storageService.trashFile(eq("docs"), anyString())).thenReturn(true);
+
+        // keeps the jobs pending until the callbacks are registered
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> {
+            release.await();
+            return null;
+        });
+
+        DeletionJobStatus trashed = service.submit("docs");
+        DeletionJobStatus failed = service.submit("missing");
+        List<String> notified = new CopyOnWriteArrayList<>();
+        service.whenTrashed(trashed.id(), () -> notified.add("docs"));
+        service.whenTrashed(failed.id(), () -> notified.add("missing"));
+        assertEquals(List.of(), notified);
+
+        release.countDown();
+        executor.submit(() -> null).get();
+        assertEquals(List.of("docs"), notified);
+
+        // registered after the move, the callback runs right away
+        service.whenTrashed(trashed.id(), () -> notified.add("again"));
+        service.whenTrashed(failed.id(), () -> notified.add("never"));
+        assertEquals(List.of("docs", "again"), notified);
+    }
+
+    @Test
+    void contentMovedBeforeARestartCountsAsTrashed() throws IOException {
+        Path trash = trashWithContent();
+        when(storageService.trashFile(anyString(), anyString())).thenReturn(false);
+        when(storageService.trashDirectories(anyString())).thenReturn(List.of(trash));
+
+        assertEquals(DeletionJob.State.TRASHED, service.delete("docs").state());
+    }
+
+    @Test
+    void partialMovesAreRolledBack() throws IOException {
+        Path trash = trashWithContent();
+        when(storageService.trashFile(anyString(), anyString())).thenThrow(new StorageException("disk failed"));
+        when(storageService.trashDirectories(anyString())).thenReturn(List.of(trash));
+
+        DeletionJobStatus status = service.delete("docs");
+
+        assertEquals(DeletionJob.State.FAILED, status.state());
+        verify(storageService).restoreFile("docs", status.id());
+    }
+
+    @Test
+    void emptyTrashDirectoriesOfFailedMovesAreRemoved() throws IOException {
+        Path trash = Files.createDirectories(temp.resolve("trash/job/docs"));
+        when(storageService.trashFile(anyString(), anyString())).thenReturn(false);
+        when(storageService.trashDirectories(anyString())).thenReturn(List.of(trash.getParent()));
+
+        assertEquals(DeletionJob.State.FAILED, service.delete("docs").state());
+        assertFalse(Files.exists(trash.getParent()));
+        verify(storageService, never()).restoreFile(anyString(), anyString());
+    }
+
+    @Test
+    void fileIdIsRequired() {
+        assertThrows(StorageException.class, () -> service.delete(" "));
+    }
+
+    private Path trashWithContent() throws IOException {
+        Path trash = Files.createDirectories(temp.resolve("trash/job"));
+        Files.createDirectories(trash.resolve("docs"));
+        Files.writeString(trash.resolve("docs/a.txt"), "a");
+        return trash;
+    }
+}
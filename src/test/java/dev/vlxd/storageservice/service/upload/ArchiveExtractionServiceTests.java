@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.upload;
+
+import dev.vlxd.storageservice.constants.ArchiveType;
+import dev.vlxd.storageservice.service.archive.TarArchiveService;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ArchiveExtractionServiceTests {
+
+    @TempDir
+    Path temp;
+
+    private final Map<String, byte[]> stored = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private ArchiveExtractionService service;
+
+    @BeforeEach
+    void setUp() {
+        IStorageService storageService = mock(IStorageService.class);
+        when(storageService.storeFile(any(Path.class), anyString())).thenAnswer(invocation -> {
+            String fileId = invocation.getArgument(1);
+            stored.put(fileId, Files.readAllBytes(invocation.<Path>getArgument(0)));
+            return fileId;
+        });
+
+        service = new ArchiveExtractionService(
+                storageService, executor, temp.resolve("staging").toString(), 1 << 24, 1 << 24, 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void extractsTarEntriesIncludingLongNames() throws Exception {
+        Path source = temp.resolve("source");
+        String longName = "nested/" + "a".repeat(120) + ".bin";
+        byte[] large = new byte[200_000];
+        new Random(3).nextBytes(large);
+
+        Files.createDirectories(source.resolve(longName).getParent());
+        Files.write(source.resolve(longName), large);
+        Files.writeString(source.resolve("readme.txt"), "hello");
+
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        new TarArchiveService().archive(source.toFile(), "root", tar);
+
+        ExtractionReport report = service.extract(
+                ArchiveType.TAR, "unpacked", new ByteArrayInputStream(tar.toByteArray()));
+
+        assertEquals(0, report.failed());
+        assertEquals(2, report.extracted());
+        assertArrayEquals(large, stored.get("unpacked/root/" + longName));
+        assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), stored.get("unpacked/root/readme.txt"));
+    }
+
+    @Test
+    void rejectsZipEntriesOutsideTheTarget() throws Exception {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(new ZipEntry("docs/a.txt"));
+            out.write("a".getBytes(StandardCharsets.UTF_8));
+            out.putNextEntry(new ZipEntry("../../etc/passwd"));
+            out.write("x".getBytes(StandardCharsets.UTF_8));
+            out.putNextEntry(new ZipEntry("/absolute.txt"));
+            out.write("y".getBytes(StandardCharsets.UTF_8));
+        }
+
+        ExtractionReport report = service.extract(
+                ArchiveType.ZIP, "target", new ByteArrayInputStream(zip.toByteArray()));
+
+        assertEquals(1, report.extracted());
+        assertEquals(2, report.failed());
+        assertArrayEquals("a".getBytes(StandardCharsets.UTF_8), stored.get("target/docs/a.txt"));
+        assertEquals(1, stored.size());
+        assertNull(ArchiveExtractionService.resolveFileId("target", "a/../../b"));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.upload;
+
+import dev.vlxd.storageservice.exception.UploadSessionException;
+import dev.vlxd.storageservice.service.storage.IStorageService;
+import dev.vlxd.storageservice.service.usage.UsageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+class UploadSessionServiceTests {
+
+    @TempDir
+    Path staging;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private UploadSessionService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new UploadSessionService(mock(IStorageService.class), new UsageService(new String[0]), executor,
+                staging.toString(), 1024, 100, 60_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void oversizedPartsAreRejectedWithoutReadingThemWhole() {
+        UploadSessionStatus status = service.create("docs/a.bin", 2048, 1024L);
+        CountingInputStream endless = new CountingInputStream();
+
+        assertThrows(UploadSessionException.class, () -> service.uploadPart(status.id(), 1, endless));
+        assertEquals(1025, endless.count);
+        assertEquals(List.of(1), service.uploadPart(status.id(), 1, new ByteArrayInputStream(new byte[1024])).receivedParts());
+    }
+
+    @Test
+    void filenamesOutsideTheStorageAreRejected() {
+        assertThrows(UploadSessionException.class, () -> service.create("../outside.bin", 1, null));
+        assertThrows(UploadSessionException.class, () -> service.create("/etc/passwd", 1, null));
+        assertThrows(UploadSessionException.class, () -> service.create(".dms-trash/a.bin", 1, null));
+        assertThrows(UploadSessionException.class, () -> service.create("docs/..", 1, null));
+        assertThrows(UploadSessionException.class, () -> service.create(" ", 1, null));
+
+        assertEquals("docs/a.bin", service.create("docs/./a.bin", 1, null).filename());
+    }
+
+    @Test
+    void partCountsOfHugeUploadsDoNotOverflow() {
+        assertThrows(UploadSessionException.class, () -> service.create("docs/a.bin", Long.MAX_VALUE, 2L));
+        assertEquals(1, service.create("docs/a.bin", Long.MAX_VALUE, Long.MAX_VALUE).partCount());
+    }
+
+        private static class CountingInputStream extends InputStream {
+
+        private long count;
+
+        @Override
+        public int read() {
+            count++;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            count += length;
+            return length;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2024 Uladzislau Lailo.
+ *
+ * All rights reserved.
+ *
+ * This source code, and any associated documentation, is the intellectual property of Uladzislau Lailo.
+ * Unauthorized copying, modification, distribution, or any form of reuse of this code, in whole or in part,
+ * without explicit permission from the copyright holder is strictly prohibited, except where explicitly permitted
+ * under applicable open-source licenses (if any).
+ *
+ * Licensed use:
+ * If the code is provided under an open-source license, you must follow the terms of that license, which can be found in the LICENSE file.
+ * For any permissions not covered by the license or any inquiries about usage, please contact: [lailo.vlad@gmail.com]
+ */
+
+package dev.vlxd.storageservice.service.usage;
+
+import dev.vlxd.storageservice.exception.QuotaExceededException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UsageServiceTests {
+
+    @Test
+    void countersFollowChangesAndReconciliation() {
+        UsageService usageService = new UsageService(new String[0]);
+
+        usageService.add("docs/a.txt", 100, 1);
+        usageService.add("docs/sub/b.txt", 50, 1);
+        usageService.add("docs/a.txt", 20, 0);
+        usageService.add("photos/c.jpg", 1000, 1);
+
+        assertUsage(usageService, "", 1170, 3);
+        assertUsage(usageService, "docs", 170, 2);
+        assertUsage(usageService, "/docs/sub/", 50, 1);
+
+        usageService.removeTree("docs/sub");
+        assertUsage(usageService, "docs", 120, 1);
+        assertUsage(usageService, "docs/sub", 0, 0);
+        assertUsage(usageService, "", 1120, 2);
+
+        // the scan misses nothing but drifted counters, a change made while it runs is kept
+        usageService.reconcile(visitor -> {
+            visitor.accept("docs/a.txt", 120);
+            visitor.accept("photos/c.jpg", 900);
+            usageService.add("photos/d.jpg", 10, 1);
+        });
+        assertUsage(usageService, "photos", 910, 2);
+        assertUsage(usageService, "", 1030, 3);
+        assertTrue(usageService.usage("").reconciledAt() > 0);
+    }
+
+    @Test
+    void changesTheScanObservesAreNotCountedTwice() {
+        UsageService usageService = new UsageService(new String[0]);
+        usageService.add("docs/a.txt", 100, 1);
+        usageService.add("docs/old/b.txt", 10, 1);
+
+        usageService.reconcile(visitor -> {
+            // stored and replaced before the scan reaches them, the scan reads their current sizes
+            usageService.add("docs/new.txt", 30, 1);
+            usageService.add("docs/a.txt", 20, 0);
+            visitor.accept("docs/a.txt", 120);
+            visitor.accept("docs/new.txt", 30);
+            // counted by the scan, then dropped with its directory
+            visitor.accept("docs/old/b.txt", 10);
+            usageService.removeTree("docs/old");
+            // changed after the scan passed it
+            usageService.add("docs/a.txt", 5, 0);
+        });
+
+        assertUsage(usageService, "docs", 155, 2);
+        assertUsage(usageService, "docs/old", 0, 0);
+        assertUsage(usageService, "", 155, 2);
+    }
+
+    @Test
+    void quotasRejectBeforeWritingAndLimitUndeclaredBodies() throws Exception {
+        UsageService usageService = new UsageService(new String[]{"docs=100", " /docs/small = 10"});
+        usageService.add("docs/a.txt", 60, 1);
+
+        assertEquals(100L, usageService.usage("docs").quota());
+        assertDoesNotThrow(() -> usageService.checkQuota("docs/b.txt", 40));
+        assertThrows(QuotaExceededException.class, () -> usageService.checkQuota("docs/b.txt", 41));
+        assertThrows(QuotaExceededException.class, () -> usageService.checkQuota("docs/small/c.txt", 11));
+        assertDoesNotThrow(() -> usageService.checkQuota("photos/c.jpg", 1000));
+
+        try (InputStream inputStream = usageService.limit("docs/b.txt", new ByteArrayInputStream(new byte[40]))) {
+            assertEquals(40, inputStream.transferTo(OutputStream.nullOutputStream()));
+        }
+        try (InputStream inputStream = usageService.limit("docs/b.txt", new ByteArrayInputStream(new byte[41]))) {
+            assertThrows(QuotaExceededException.class, () -> inputStream.transferTo(OutputStream.nullOutputStream()));
+        }
+    }
+
+    private static void assertUsage(UsageService usageService, String directory, long bytes, long files) {
+        UsageStatus usage = usageService.usage(directory);
+        assertEquals(bytes, usage.bytes());
+        assertEquals(files, usage.files());
+    }
+}